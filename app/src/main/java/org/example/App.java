@@ -5,11 +5,15 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import org.example.network.NetworkScanner;
 
 public class App extends Application {
 
     @Override
     public void start(Stage primaryStage) throws Exception {
+        // Discover senders in the background so the receiver screen opens with them listed
+        NetworkScanner.shared();
+
         Parent root = FXMLLoader.load(getClass().getResource("/fxml/main_view.fxml"));
         Scene scene = new Scene(root, 500, 350);
 
@@ -0,0 +1,266 @@
+package org.example;
+
+import org.example.network.CatalogListing;
+import org.example.network.FileDownloader;
+import org.example.network.FileServer;
+import org.example.network.ManifestStore;
+import org.example.network.NetworkScanner;
+import org.example.network.ServingEngine;
+import org.example.network.Swarm;
+import org.example.network.TlsContext;
+import org.example.network.TransferProgress;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Cli: ByteShare without a window, for build boxes and scripts. It drives the
+ * same {@link FileServer}, {@link NetworkScanner} and {@link FileDownloader} as
+ * the app but never touches JavaFX, so it starts in a fraction of the time.
+ * <pre>
+ *   java -cp app-all.jar org.example.Cli serve [--engine zero-copy|standard] [--tls [--generate-key]]
+ *                                          [--max-transfers &lt;n&gt;] [--queue &lt;n&gt;] [--limit &lt;MiB/s&gt;]
+ *                                          [--client-limit &lt;MiB/s&gt;] [--transfer-limit &lt;MiB/s&gt;] &lt;path&gt;...
+ *   java -cp app-all.jar org.example.Cli scan [--wait &lt;seconds&gt;]
+ *   java -cp app-all.jar org.example.Cli get &lt;host[:port]|url&gt; &lt;pin&gt; [--out &lt;dir&gt;] [--segmented]
+ *                                        [--fingerprint &lt;sha256&gt;] [--swarm [--seed &lt;seconds&gt;]]
+ *                                        [--follow [--idle &lt;seconds&gt;]] (--all | &lt;file&gt;...)
+ * </pre>
+ * {@code get} reports the time to first byte, counted from JVM start. Start
+ * faster still with the class-data archive from
+ * {@code ./gradlew :app:cliCdsArchive} ({@code -XX:SharedArchiveFile=...}; {@code runCli} uses it).
+ */
+public final class Cli {
+
+    private static final long MAIN_NANOS = System.nanoTime();
+    private static final int DEFAULT_SCAN_SECONDS = 2;
+
+    private Cli() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+            System.exit(2);
+        }
+        List<String> rest = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        try {
+            switch (args[0]) {
+                case "serve" -> serve(rest);
+                case "scan" -> scan(rest);
+                case "get" -> get(rest);
+                default -> {
+                    usage();
+                    System.exit(2);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        } catch (Exception e) {
+            System.err.println("byteshare: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /** Share the given files and folders until interrupted */
+    private static void serve(List<String> args) throws Exception {
+        ServingEngine engine = engine(option(args, "--engine", "zero-copy"));
+        boolean generateKey = flag(args, "--generate-key");
+        boolean secure = flag(args, "--tls") || generateKey;
+        String maxTransfers = option(args, "--max-transfers", null);
+        String queue = option(args, "--queue", null);
+        long limit = mibPerSecond(option(args, "--limit", "0"));
+        long clientLimit = mibPerSecond(option(args, "--client-limit", "0"));
+        long transferLimit = mibPerSecond(option(args, "--transfer-limit", "0"));
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            File file = new File(arg);
+            if (!file.exists()) throw new IllegalArgumentException("No such file: " + arg);
+            files.add(file);
+        }
+        if (files.isEmpty()) throw new IllegalArgumentException("serve: nothing to share");
+
+        FileServer server = new FileServer(files, engine);
+        server.setManifestStore(new ManifestStore());
+        if (secure) server.setTls(generateKey ? TlsContext.generated() : TlsContext.bundled());
+        if (maxTransfers != null) server.setTransferCapacity(Integer.parseInt(maxTransfers));
+        if (queue != null) server.setTransferQueueLimit(Integer.parseInt(queue));
+        server.getBandwidthManager().setGlobalLimit(limit);
+        server.getBandwidthManager().setClientLimit(clientLimit);
+        server.getBandwidthManager().setTransferLimit(transferLimit);
+        server.start();
+        System.out.println("Sharing " + server.getCatalog().size() + " files (" + formatSize(server.getCatalog().totalBytes())
+                + ") at " + server.getAccessUrl() + "  PIN " + server.getPin());
+        if (generateKey) System.out.println("Receivers need --fingerprint " + server.getTlsFingerprint());
+        System.out.println("Ready after " + sinceStart(System.nanoTime()) + "; Ctrl+C to stop.");
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+
+    /** List the senders that answer discovery within the wait */
+    private static void scan(List<String> args) throws Exception {
+        int seconds = Integer.parseInt(option(args, "--wait", Integer.toString(DEFAULT_SCAN_SECONDS)));
+        NetworkScanner scanner = NetworkScanner.shared();
+        scanner.scan();
+        Thread.sleep(seconds * 1000L);
+        List<NetworkScanner.Sender> senders = scanner.senders();
+        for (NetworkScanner.Sender sender : senders) {
+            System.out.println(sender.url() + (sender.isPeer() ? "  swarm peer, " : "  ") + sender.reply().fileCount() + " files, "
+                    + formatSize(sender.reply().totalBytes()) + ", " + sender.reply().activeTransfers() + " active");
+        }
+        if (senders.isEmpty()) System.out.println("No senders found.");
+        scanner.close();
+    }
+
+    /** Download named files, or the whole catalog, from one sender */
+    private static void get(List<String> args) throws Exception {
+        Path out = Path.of(option(args, "--out", "."));
+        boolean segmented = flag(args, "--segmented");
+        boolean all = flag(args, "--all");
+        String fingerprint = option(args, "--fingerprint", null);
+        if (fingerprint != null) TlsContext.pin(fingerprint);
+        boolean swarmed = flag(args, "--swarm");
+        int seedSeconds = Integer.parseInt(option(args, "--seed", "0"));
+        boolean follow = flag(args, "--follow");
+        int idleSeconds = Integer.parseInt(option(args, "--idle", "30"));
+        if (args.size() < 2) throw new IllegalArgumentException("get: need a host and a PIN");
+        String serverUrl = serverUrl(args.remove(0));
+        String pin = args.remove(0);
+        List<String> names = args;
+        if (all) {
+            names = CatalogListing.fetch(serverUrl, pin, null).items().stream().map(CatalogListing.Item::path).toList();
+        }
+        if (names.isEmpty()) throw new IllegalArgumentException("get: name files to fetch, or --all");
+
+        Swarm swarm = swarmed ? Swarm.start() : null;
+        TransferProgress progress = new TransferProgress(Runnable::run, Cli::showProgress);
+        long firstByte = 0;
+        for (String name : names) {
+            TransferProgress.Transfer transfer = progress.start(name, -1);
+            FileDownloader downloader = new FileDownloader(serverUrl, pin);
+            downloader.setSegmented(segmented);
+            downloader.setSwarm(swarm);
+            downloader.setProgress(transfer);
+            try {
+                // Files still being written keep coming until the sender sees them idle
+                Path saved = follow ? downloader.follow(name, out, idleSeconds) : downloader.download(name, out);
+                transfer.done();
+                clearLine();
+                System.out.println(saved + "  " + formatSize(Files.size(saved)));
+            } catch (IOException e) {
+                transfer.failed(e.getMessage());
+                throw new IOException(name + ": " + e.getMessage(), e);
+            }
+            if (firstByte == 0) firstByte = transfer.firstByteNanos();
+        }
+        if (firstByte != 0) System.out.println("First byte after " + sinceStart(firstByte));
+        if (swarm != null) {
+            if (seedSeconds > 0) {
+                System.out.println("Seeding to other receivers for " + seedSeconds + " s");
+                Thread.sleep(seedSeconds * 1000L);
+            }
+            swarm.close();
+        }
+    }
+
+    /** A full URL, {@code host:port} (plain HTTP), or a bare host whose port and scheme discovery finds */
+    private static String serverUrl(String host) throws InterruptedException {
+        if (host.startsWith("http://") || host.startsWith("https://")) return host.replaceAll("/+$", "");
+        if (host.contains(":")) return "http://" + host;
+
+        NetworkScanner scanner = NetworkScanner.shared();
+        scanner.scan();
+        long deadline = System.nanoTime() + Duration.ofSeconds(DEFAULT_SCAN_SECONDS).toNanos();
+        while (System.nanoTime() < deadline) {
+            for (NetworkScanner.Sender sender : scanner.senders()) {
+                if (!sender.isPeer() && sender.address().startsWith(host + ":")) return sender.url();
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalArgumentException("No sender answered discovery at " + host + "; give its port as host:port");
+    }
+
+    private static String option(List<String> args, String name, String fallback) {
+        int index = args.indexOf(name);
+        if (index < 0) return fallback;
+        if (index + 1 >= args.size()) throw new IllegalArgumentException(name + " needs a value");
+        args.remove(index);
+        return args.remove(index);
+    }
+
+    /** A rate given in MiB/s (fractions allowed), in bytes per second; 0 for none */
+    private static long mibPerSecond(String value) {
+        double rate = Double.parseDouble(value);
+        if (rate < 0) throw new IllegalArgumentException("Rates cannot be negative: " + value);
+        return (long) (rate * 1024 * 1024);
+    }
+
+    private static boolean flag(List<String> args, String name) {
+        return args.remove(name);
+    }
+
+    private static ServingEngine engine(String name) {
+        return switch (name) {
+            case "zero-copy" -> ServingEngine.ZERO_COPY;
+            case "standard" -> ServingEngine.STANDARD;
+            default -> throw new IllegalArgumentException("Unknown engine: " + name);
+        };
+    }
+
+    /** One status line, redrawn in place; only on an interactive terminal */
+    private static void showProgress(TransferProgress.Snapshot snapshot) {
+        if (System.console() == null || snapshot.rows().isEmpty()) return;
+        TransferProgress.Row row = snapshot.rows().get(0);
+        System.err.print("\r\033[K" + row.name() + "  " + formatSize(row.bytes())
+                + (row.total() > 0 ? " / " + formatSize(row.total()) : "")
+                + "  " + formatSize((long) row.bytesPerSecond()) + "/s");
+    }
+
+    private static void clearLine() {
+        if (System.console() != null) System.err.print("\r\033[K");
+    }
+
+    /** Time from JVM start to {@code nanos}, and from {@code main} for comparison */
+    private static String sinceStart(long nanos) {
+        long fromMain = (nanos - MAIN_NANOS) / 1_000_000;
+        // Asked only after the fact, so loading the management classes is not part of what is measured
+        long ago = (System.nanoTime() - nanos) / 1_000_000;
+        long fromJvm = System.currentTimeMillis() - ago - ManagementFactory.getRuntimeMXBean().getStartTime();
+        return fromJvm + " ms from JVM start, " + fromMain + " ms from main";
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 0) return "?";
+        if (bytes < 1024) return bytes + " B";
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %sB", bytes / (double) (1L << (unit * 10)), " KMGTPE".charAt(unit));
+    }
+
+    private static void usage() {
+        System.err.println("""
+                Usage: byteshare <command> [options]
+                  serve [--engine zero-copy|standard] [--tls [--generate-key]] [--max-transfers <n>] [--queue <n>]
+                      [--limit <MiB/s>] [--client-limit <MiB/s>] [--transfer-limit <MiB/s>]
+                      <path>...                                   share files and folders until Ctrl+C
+                  scan [--wait <seconds>]                         list senders on the local network
+                  get <host[:port]|url> <pin> [--out <dir>] [--segmented] [--fingerprint <sha256>]
+                      [--swarm [--seed <seconds>]] [--follow [--idle <seconds>]] (--all | <file>...)
+                                                                  download from a sender (and swarm peers)""");
+    }
+}
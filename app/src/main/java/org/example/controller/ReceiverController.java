@@ -1,7 +1,11 @@
 package org.example.controller;
 
+import javafx.animation.PauseTransition;
 import javafx.animation.ScaleTransition;
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Pos;
@@ -9,23 +13,32 @@ import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.control.cell.CheckBoxListCell;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import org.example.network.CatalogFeed;
+import org.example.network.CatalogListing;
+import org.example.network.DiscoveryReply;
+import org.example.network.FileDownloader;
+import org.example.network.MulticastReceiver;
 import org.example.network.NetworkScanner;
-
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import org.example.network.Swarm;
+import org.example.network.TransferProgress;
+import org.example.network.TransferScheduler;
+import org.example.network.WriteEngine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ReceiverController {
 
@@ -33,13 +46,100 @@ public class ReceiverController {
     private StackPane wirelessScanPane;
 
     @FXML
-    private ListView<CheckBox> fileListView;
+    private ListView<FileItem> fileListView;
+
+    @FXML
+    private Spinner<Integer> concurrencySpinner;
+
+    @FXML
+    private CheckBox deltaSyncCheckBox;
+
+    @FXML
+    private CheckBox swarmCheckBox;
 
-    private String currentServerUrl = null;
-    private String currentPin = null;
+    @FXML
+    private ProgressBar transferProgressBar;
+
+    @FXML
+    private Label transferSummaryLabel;
+
+    @FXML
+    private Label transferRowsLabel;
+
+    private static final int DEFAULT_CONCURRENT_DOWNLOADS = 4;
+    private static final long BROADCAST_IDLE_TIMEOUT_MS = 60_000;
+
+    private final TransferScheduler transferScheduler = new TransferScheduler(DEFAULT_CONCURRENT_DOWNLOADS);
+    // One aggregated view instead of an alert per file; redrawn at most once per frame
+    private final TransferProgress transferProgress = new TransferProgress(Platform::runLater, this::showProgress);
+    // Files are renamed into place as they finish and synced to disk together once the batch is done
+    private final WriteEngine writeEngine =
+            new WriteEngine(WriteEngine.DEFAULT_BUFFER_SIZE, WriteEngine.SyncPolicy.BATCH);
+    // Only with "Share with other receivers" ticked: started with the first download, chunks received are
+    // re-served to other receivers of the same files until the box is cleared or the screen is left
+    private Swarm swarm;
+    private CatalogListing catalogListing;
+    // Follows the connected sender's catalog, so the list stays current without refreshing
+    private CatalogFeed catalogFeed;
+    private final Map<String, InetSocketAddress> multicastGroups = new HashMap<>();
+    // Set on the FX thread once a PIN is verified; transfers copy them when they are queued
+    private volatile String currentServerUrl = null;
+    private volatile String currentPin = null;
+
+    private final NetworkScanner scanner = NetworkScanner.shared();
+    private final NetworkScanner.Listener scanListener = new NetworkScanner.Listener() {
+        @Override
+        public void senderFound(NetworkScanner.Sender sender) {
+            Platform.runLater(ReceiverController.this::showDevices);
+        }
+
+        @Override
+        public void senderLost(NetworkScanner.Sender sender) {
+            Platform.runLater(ReceiverController.this::showDevices);
+        }
+    };
+
+    /** One row of the file list; the list view builds cells only for the rows on screen */
+    private static final class FileItem {
+        private final CatalogListing.Item item;
+        private final BooleanProperty selected = new SimpleBooleanProperty();
+
+        FileItem(CatalogListing.Item item) {
+            this.item = item;
+        }
+
+        BooleanProperty selectedProperty() {
+            return selected;
+        }
+
+        @Override
+        public String toString() {
+            return item.path() + "  (" + formatSize(item.size()) + ")";
+        }
+    }
+
+    @FXML
+    private void initialize() {
+        fileListView.setPlaceholder(new Label("No files available."));
+        fileListView.setCellFactory(CheckBoxListCell.forListView(FileItem::selectedProperty));
+        transferScheduler.setMaxConcurrent(concurrencySpinner.getValue());
+        transferScheduler.setOnIdle(this::syncDownloads);
+        concurrencySpinner.valueProperty().addListener((obs, oldValue, newValue) ->
+                transferScheduler.setMaxConcurrent(newValue));
+        swarmCheckBox.selectedProperty().addListener((obs, oldValue, newValue) -> {
+            if (!newValue) closeSwarm();
+        });
+        // Senders found in the background show up straight away; new ones stream in
+        scanner.addListener(scanListener);
+        if (!scanner.senders().isEmpty()) showDevices();
+    }
 
     @FXML
     private void onBack(javafx.event.ActionEvent event) {
+        transferScheduler.shutdown();
+        scanner.removeListener(scanListener);
+        closeSwarm();
+        closeCatalogFeed();
         try {
             Parent mainView = FXMLLoader.load(getClass().getResource("/fxml/main_view.fxml"));
             Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
@@ -62,54 +162,124 @@ public class ReceiverController {
     }
 
     private void connectToSender(String serverUrl, String pin) {
-        new Thread(() -> {
+        Thread.startVirtualThread(() -> {
             try {
-                URL url = new URL(serverUrl + "/pin");
-                BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-                String serverPin = reader.readLine().trim();
-                reader.close();
-
-                if (serverPin.equals(pin)) {
-                    currentServerUrl = serverUrl;
-                    currentPin = pin;
-                    Platform.runLater(() -> showAlert("Connected", "PIN verified! Fetching file list..."));
-                    fetchFilesFromSender();
+                // The sender only says yes or no; it never hands out its PIN
+                if (new FileDownloader(serverUrl, pin).checkPin()) {
+                    Platform.runLater(() -> {
+                        currentServerUrl = serverUrl;
+                        currentPin = pin;
+                        showAlert("Connected", "PIN verified! Fetching file list...");
+                    });
+                    fetchFilesFromSender(serverUrl, pin);
                 } else {
                     Platform.runLater(() -> showAlert("PIN Error", "Incorrect PIN!"));
                 }
             } catch (Exception e) {
                 Platform.runLater(() -> showAlert("Connection Error", "Could not connect: " + e.getMessage()));
             }
-        }).start();
+        });
     }
 
     // --- Fetch and Download Files ---
-    private void fetchFilesFromSender() {
-        new Thread(() -> {
+    private void fetchFilesFromSender(String serverUrl, String pin) {
+        Thread.startVirtualThread(() -> {
             try {
-                URL url = new URL(currentServerUrl + "/files?pin=" + URLEncoder.encode(currentPin, StandardCharsets.UTF_8));
-                BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-                List<String> files = reader.lines().toList();
-                reader.close();
+                // Unchanged since last time: the sender answers 304 and the list stays as it is
+                CatalogListing previous = catalogListing;
+                CatalogListing listing = CatalogListing.fetch(serverUrl, pin, previous);
+                if (listing == previous) {
+                    Platform.runLater(() -> followCatalog(serverUrl, pin, listing));
+                    return;
+                }
 
+                List<FileItem> items = listing.items().stream().map(FileItem::new).toList();
                 Platform.runLater(() -> {
-                    fileListView.getItems().clear();
-                    if (files.isEmpty()) {
-                        fileListView.getItems().add(new CheckBox("No files available."));
-                    } else {
-                        files.forEach(file -> fileListView.getItems().add(new CheckBox(file)));
-                    }
+                    catalogListing = listing;
+                    fileListView.getItems().setAll(items);
+                    followCatalog(serverUrl, pin, listing);
                 });
             } catch (Exception e) {
                 Platform.runLater(() -> showAlert("Error", "Could not fetch files: " + e.getMessage()));
             }
-        }).start();
+        });
+    }
+
+    /** Keep the file list in step with the sender's catalog from {@code listing} on */
+    private void followCatalog(String serverUrl, String pin, CatalogListing listing) {
+        closeCatalogFeed();
+        catalogFeed = CatalogFeed.follow(serverUrl, pin, listing, updated -> Platform.runLater(() -> {
+            if (!serverUrl.equals(currentServerUrl)) return;
+            showListing(updated);
+        }));
+    }
+
+    /**
+     * Show a newer listing, keeping what the user had ticked. A diff from the
+     * listing on screen touches only the rows it names; anything else rebuilds
+     * the list.
+     */
+    private void showListing(CatalogListing listing) {
+        CatalogListing.Change change = listing.change();
+        if (change != null && catalogListing != null && change.from() == catalogListing.version()) {
+            applyChange(change);
+            catalogListing = listing;
+            return;
+        }
+        Set<String> selected = new HashSet<>();
+        for (FileItem item : fileListView.getItems()) {
+            if (item.selectedProperty().get()) selected.add(item.item.path());
+        }
+        List<FileItem> items = listing.items().stream().map(FileItem::new).toList();
+        for (FileItem item : items) {
+            if (selected.contains(item.item.path())) item.selectedProperty().set(true);
+        }
+        catalogListing = listing;
+        fileListView.getItems().setAll(items);
+    }
+
+    /** Remove and insert rows in place; both lists are in path order */
+    private void applyChange(CatalogListing.Change change) {
+        ObservableList<FileItem> rows = fileListView.getItems();
+        for (String path : change.removed()) {
+            int index = rowOf(rows, path);
+            if (index >= 0) rows.remove(index);
+        }
+        for (CatalogListing.Item item : change.upserted()) {
+            FileItem row = new FileItem(item);
+            int index = rowOf(rows, item.path());
+            if (index >= 0) {
+                row.selectedProperty().set(rows.get(index).selectedProperty().get());
+                rows.set(index, row);
+            } else {
+                rows.add(-index - 1, row);
+            }
+        }
+    }
+
+    private static int rowOf(List<FileItem> rows, String path) {
+        int lo = 0, hi = rows.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = rows.get(mid).item.path().compareTo(path);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -lo - 1;
+    }
+
+    private void closeCatalogFeed() {
+        if (catalogFeed != null) {
+            catalogFeed.close();
+            catalogFeed = null;
+        }
     }
 
     @FXML
     private void onSelectAll() {
-        for (CheckBox cb : fileListView.getItems()) {
-            cb.setSelected(true);
+        for (FileItem item : fileListView.getItems()) {
+            item.selectedProperty().set(true);
         }
     }
 
@@ -120,9 +290,9 @@ public class ReceiverController {
             return;
         }
 
-        List<String> selectedFiles = fileListView.getItems().stream()
-                .filter(CheckBox::isSelected)
-                .map(CheckBox::getText)
+        List<CatalogListing.Item> selectedFiles = fileListView.getItems().stream()
+                .filter(item -> item.selectedProperty().get())
+                .map(item -> item.item)
                 .toList();
 
         if (selectedFiles.isEmpty()) {
@@ -130,72 +300,236 @@ public class ReceiverController {
             return;
         }
 
-        for (String file : selectedFiles) {
-            downloadFile(file);
+        // Queued files come from this sender even if the user connects to another one meanwhile
+        String serverUrl = currentServerUrl;
+        String pin = currentPin;
+        boolean deltaSync = deltaSyncCheckBox.isSelected();
+        boolean swarmed = swarmCheckBox.isSelected();
+        startBatch();
+        for (CatalogListing.Item file : selectedFiles) {
+            transferScheduler.submit(file.path(), file.size(),
+                    () -> downloadFile(serverUrl, pin, file.path(), file.size(), deltaSync, swarmed));
         }
     }
 
-    private void downloadFile(String fileName) {
-        new Thread(() -> {
-            try {
-                String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8);
-                URL url = new URL(currentServerUrl + "/download?file=" + encodedFileName +
-                        "&pin=" + URLEncoder.encode(currentPin, StandardCharsets.UTF_8));
+    @FXML
+    private void onDownloadAll() {
+        if (currentServerUrl == null || currentPin == null) {
+            showAlert("Error", "Not connected to a sender.");
+            return;
+        }
 
-                Path savePath = Path.of(System.getProperty("user.home"), "Downloads", fileName);
-                try (InputStream in = url.openStream()) {
-                    Files.copy(in, savePath, StandardCopyOption.REPLACE_EXISTING);
-                }
-                Platform.runLater(() -> showAlert("Download Complete", "File saved to: " + savePath));
+        // One streamed archive instead of a request per file
+        List<String> allFiles = catalogListing == null ? List.of()
+                : catalogListing.items().stream().map(CatalogListing.Item::path).toList();
+        if (allFiles.isEmpty()) {
+            showAlert("No Files", "The sender has no files to download.");
+            return;
+        }
+        long totalSize = catalogListing.totalBytes();
+        FileDownloader downloader = new FileDownloader(currentServerUrl, currentPin);
+        startBatch();
+        transferScheduler.submit("archive", totalSize, () -> {
+            TransferProgress.Transfer progress = transferProgress.start(allFiles.size() + " files (archive)", totalSize);
+            try {
+                Path downloadsDir = Path.of(System.getProperty("user.home"), "Downloads");
+                downloader.setProgress(progress);
+                downloader.setWriteEngine(writeEngine);
+                downloader.downloadArchive(allFiles, downloadsDir);
+                progress.done();
             } catch (Exception e) {
-                Platform.runLater(() -> showAlert("Download Error", "Failed to download: " + e.getMessage()));
+                progress.failed(e.getMessage());
+            }
+        });
+    }
+
+    /** Runs on a scheduler thread; the scheduler bounds how many run at once */
+    private void downloadFile(String serverUrl, String pin, String fileName, long size, boolean deltaSync,
+                              boolean swarmed) {
+        TransferProgress.Transfer progress = transferProgress.start(fileName, size);
+        try {
+            Path downloadsDir = Path.of(System.getProperty("user.home"), "Downloads");
+            FileDownloader downloader = new FileDownloader(serverUrl, pin);
+            downloader.setSegmented(true);
+            downloader.setProgress(progress);
+            downloader.setWriteEngine(writeEngine);
+            if (swarmed) downloader.setSwarm(swarm());
+            if (deltaSync) {
+                // Only the changed parts of an existing copy cross the network
+                downloader.syncDelta(fileName, downloadsDir);
+            } else {
+                downloader.download(fileName, downloadsDir);
+            }
+            progress.done();
+        } catch (Exception e) {
+            progress.failed(e.getMessage());
+        }
+    }
+
+    /** The chunk server, started on first use; null if it cannot start, and downloads go without it */
+    private synchronized Swarm swarm() {
+        if (swarm == null) {
+            try {
+                swarm = Swarm.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return swarm;
+    }
+
+    private synchronized void closeSwarm() {
+        if (swarm != null) {
+            swarm.close();
+            swarm = null;
+        }
+    }
+
+    /** Runs on the last transfer's thread once nothing is running or queued */
+    private void syncDownloads() {
+        writeEngine.sync();
+    }
+
+    /** A new batch after the last one finished starts the totals over */
+    private void startBatch() {
+        if (transferScheduler.getRunning() == 0 && transferScheduler.getQueued() == 0) {
+            transferProgress.clear();
+        }
+    }
+
+    /** Draw one progress snapshot; runs on the FX thread at most once per frame */
+    private void showProgress(TransferProgress.Snapshot snapshot) {
+        double fraction = snapshot.fraction();
+        transferProgressBar.setProgress(fraction < 0 && snapshot.running() > 0
+                ? ProgressIndicator.INDETERMINATE_PROGRESS : Math.max(0, fraction));
+
+        StringBuilder summary = new StringBuilder();
+        int queued = transferScheduler.getQueued();
+        if (snapshot.running() > 0 || queued > 0) {
+            summary.append(snapshot.running()).append(" downloading, ").append(queued).append(" queued, ");
+        }
+        summary.append(snapshot.completed()).append(" done");
+        if (snapshot.failed() > 0) summary.append(", ").append(snapshot.failed()).append(" failed");
+        summary.append(" | ").append(formatSize(snapshot.bytes()));
+        if (snapshot.totalBytes() > 0) summary.append(" of ").append(formatSize(snapshot.totalBytes()));
+        if (snapshot.running() > 0) {
+            summary.append(" at ").append(formatSize((long) snapshot.bytesPerSecond())).append("/s");
+        }
+        transferSummaryLabel.setText(summary.toString());
+        transferSummaryLabel.setTooltip(snapshot.failures().isEmpty() ? null
+                : new Tooltip(String.join("\n", snapshot.failures())));
+
+        StringBuilder rows = new StringBuilder();
+        for (TransferProgress.Row row : snapshot.rows()) {
+            if (!rows.isEmpty()) rows.append('\n');
+            rows.append(row.name()).append("  ").append(formatSize(row.bytes()));
+            if (row.total() > 0) rows.append(" / ").append(formatSize(row.total()));
+            rows.append("  ").append(formatSize((long) row.bytesPerSecond())).append("/s");
+        }
+        transferRowsLabel.setText(rows.toString());
+    }
+
+    // --- Multicast Broadcast ---
+    @FXML
+    private void onJoinBroadcast() {
+        if (currentServerUrl == null || currentPin == null) {
+            showAlert("Error", "Not connected to a sender.");
+            return;
+        }
+        InetSocketAddress group = multicastGroups.get(currentServerUrl.substring(currentServerUrl.indexOf("://") + 3));
+        if (group == null) {
+            showAlert("Broadcast Unavailable", "This sender does not offer a broadcast.");
+            return;
+        }
+        // Only the connected sender's files are taken, each checked against its manifest (fetched with the PIN)
+        FileDownloader sender = new FileDownloader(currentServerUrl, currentPin);
+        Thread.startVirtualThread(() -> receiveBroadcast(group, sender));
+    }
+
+    /** Runs on a virtual thread; keeps taking files until the sender has been silent for a while */
+    private void receiveBroadcast(InetSocketAddress group, FileDownloader sender) {
+        Path downloadsDir = Path.of(System.getProperty("user.home"), "Downloads");
+        int received = 0;
+        try (MulticastReceiver receiver = new MulticastReceiver(group)) {
+            Platform.runLater(() -> showAlert("Broadcast", "Waiting for the sender to broadcast..."));
+            while (true) {
+                receiver.receive(sender, null, downloadsDir, BROADCAST_IDLE_TIMEOUT_MS);
+                received++;
             }
-        }).start();
+        } catch (SocketTimeoutException e) {
+            int count = received;
+            Platform.runLater(() -> showAlert("Broadcast Finished", count + " files saved to: " + downloadsDir));
+        } catch (Exception e) {
+            Platform.runLater(() -> showAlert("Broadcast Error", "Failed to receive: " + e.getMessage()));
+        }
     }
 
     // --- Wireless Scan ---
     @FXML
     private void onWirelessScan() {
         startRippleEffect();
-        new Thread(() -> {
-            List<String> devices = NetworkScanner.scanNetwork(); // Returns IP:PORT
-            Platform.runLater(() -> displayDevicesAroundRipple(devices));
-        }).start();
+        if (!scanner.senders().isEmpty()) showDevices();
+        scanner.scan(); // Replies arrive through scanListener
+        // Only report "no devices" once a scan has had time to be answered
+        PauseTransition settle = new PauseTransition(Duration.seconds(1));
+        settle.setOnFinished(event -> showDevices());
+        settle.play();
+    }
+
+    /** Redraw the devices from the scanner's cache */
+    private void showDevices() {
+        // Swarm peers are other receivers; only senders are offered
+        List<NetworkScanner.Sender> senders = scanner.senders().stream()
+                .filter(sender -> !sender.isPeer())
+                .toList();
+        multicastGroups.clear();
+        senders.stream()
+                .filter(sender -> sender.multicastGroup() != null)
+                .forEach(sender -> multicastGroups.put(sender.address(), sender.multicastGroup()));
+        displayDevicesAroundRipple(senders);
     }
 
-    private void displayDevicesAroundRipple(List<String> devices) {
+    private void displayDevicesAroundRipple(List<NetworkScanner.Sender> devices) {
         wirelessScanPane.getChildren().removeIf(node -> node.getUserData() != null);
 
         if (devices.isEmpty()) {
             Label noDeviceLabel = new Label("No devices found");
             noDeviceLabel.setTextFill(Color.RED);
+            noDeviceLabel.setUserData("device");
             wirelessScanPane.getChildren().add(noDeviceLabel);
             return;
         }
 
+        // Where several senders share the same files, the least loaded one is highlighted
+        List<NetworkScanner.Sender> preferred = NetworkScanner.leastLoaded(devices);
         double angleStep = 360.0 / devices.size();
         double radius = 100;
 
         for (int i = 0; i < devices.size(); i++) {
-            String deviceInfo = devices.get(i); // Format: IP:PORT
-            String[] parts = deviceInfo.split(":");
+            NetworkScanner.Sender device = devices.get(i);
+            String[] parts = device.address().split(":"); // Format: IP:PORT
             String ip = parts[0];
             String port = (parts.length > 1) ? parts[1] : "80";
 
-            Circle deviceCircle = new Circle(25, Color.LIGHTBLUE);
+            Circle deviceCircle = new Circle(25, preferred.contains(device) ? Color.LIGHTBLUE : Color.LIGHTGRAY);
             deviceCircle.setStroke(Color.DARKBLUE);
             deviceCircle.setUserData("device");
 
-            Label ipLabel = new Label(ip + ":" + port);
+            DiscoveryReply reply = device.reply();
+            String load = reply.fileCount() >= 0
+                    ? "\n" + reply.fileCount() + " files, " + reply.activeTransfers() + " active"
+                    : "";
+            Label ipLabel = new Label(ip + ":" + port + (reply.secure() ? " (HTTPS)" : "") + load);
             ipLabel.setTextFill(Color.BLACK);
             StackPane deviceNode = new StackPane(deviceCircle, ipLabel);
             deviceNode.setAlignment(Pos.CENTER);
+            deviceNode.setUserData("device");
 
             double angle = Math.toRadians(angleStep * i);
             deviceNode.setTranslateX(radius * Math.cos(angle));
             deviceNode.setTranslateY(radius * Math.sin(angle));
 
-            deviceNode.setOnMouseClicked(event -> askForPin("http://" + ip + ":" + port));
+            deviceNode.setOnMouseClicked(event -> askForPin(device.url()));
 
             wirelessScanPane.getChildren().add(deviceNode);
         }
@@ -222,6 +556,13 @@ public class ReceiverController {
         }
     }
 
+    private static String formatSize(long bytes) {
+        if (bytes < 0) return "?";
+        if (bytes < 1024) return bytes + " B";
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %sB", bytes / (double) (1L << (unit * 10)), " KMGTPE".charAt(unit));
+    }
+
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
@@ -5,17 +5,25 @@ import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
+import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.Spinner;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import org.example.network.BandwidthManager;
 import org.example.network.FileServer;
+import org.example.network.ManifestStore;
+import org.example.network.MulticastSender;
+import org.example.network.TlsContext;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -35,9 +43,36 @@ public class SenderController {
     @FXML
     private Label pinLabel;
 
+    @FXML
+    private CheckBox httpsCheckBox;
+
+    @FXML
+    private Spinner<Integer> uploadLimitSpinner;
+
+    @FXML
+    private Spinner<Integer> clientLimitSpinner;
+
+    @FXML
+    private Spinner<Integer> transferLimitSpinner;
+
+    private static final long MIB = 1024 * 1024;
+
     private final List<File> selectedFiles = new ArrayList<>();
+    private final ManifestStore manifests = new ManifestStore();
+    // Outlives each server, so the limits carry over and can change mid-transfer
+    private final BandwidthManager bandwidth = new BandwidthManager();
     private FileServer fileServer;
 
+    @FXML
+    private void initialize() {
+        uploadLimitSpinner.valueProperty().addListener((obs, oldValue, newValue) ->
+                bandwidth.setGlobalLimit(newValue * MIB));
+        clientLimitSpinner.valueProperty().addListener((obs, oldValue, newValue) ->
+                bandwidth.setClientLimit(newValue * MIB));
+        transferLimitSpinner.valueProperty().addListener((obs, oldValue, newValue) ->
+                bandwidth.setTransferLimit(newValue * MIB));
+    }
+
     @FXML
     private void onBack() {
         if (fileServer != null) {
@@ -53,12 +88,34 @@ public class SenderController {
         fileChooser.setTitle("Select Files to Share");
         List<File> files = fileChooser.showOpenMultipleDialog(new Stage());
         if (files != null) {
-            selectedFiles.clear();
+            if (fileServer != null) {
+                // Already sharing: add to the running catalog as one change; connected receivers see the new files at once
+                fileServer.getCatalog().addFiles(files);
+            } else {
+                selectedFiles.clear();
+                fileList.getItems().clear();
+            }
             selectedFiles.addAll(files);
-            fileList.getItems().clear();
             for (File file : files) {
                 fileList.getItems().add(file.getAbsolutePath());
             }
+            // Hash in the background so receivers can verify as soon as they connect
+            manifests.prepare(files);
+        }
+    }
+
+    /** Share a whole folder; files added to it, changed or deleted later are picked up while it is shared */
+    @FXML
+    private void onSelectFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Select a Folder to Share");
+        File dir = directoryChooser.showDialog(new Stage());
+        if (dir != null) {
+            if (fileServer != null) {
+                fileServer.getCatalog().addDirectory(dir);
+            }
+            selectedFiles.add(dir);
+            fileList.getItems().add(dir.getAbsolutePath() + File.separator);
         }
     }
 
@@ -84,6 +141,18 @@ public class SenderController {
 
         try {
             fileServer = new FileServer(selectedFiles);
+            fileServer.setManifestStore(manifests);
+            fileServer.setBandwidthManager(bandwidth);
+            if (httpsCheckBox.isSelected()) {
+                // The bundled certificate: receivers trust it without being shown a fingerprint
+                fileServer.setTls(TlsContext.bundled());
+            }
+            try {
+                fileServer.setMulticastSender(new MulticastSender());
+            } catch (IOException e) {
+                // No multicast-capable interface: receivers can still download over HTTP
+                e.printStackTrace();
+            }
             fileServer.start();
 
             String serverUrl = fileServer.getAccessUrl();
@@ -104,6 +173,26 @@ public class SenderController {
         }
     }
 
+    @FXML
+    private void onBroadcast() {
+        if (fileServer == null) {
+            showAlert("Server Not Running", "Generate a QR code first so receivers can find the broadcast.");
+            return;
+        }
+        try {
+            // One send reaches every receiver that joined the broadcast
+            fileServer.multicastAll().whenComplete((result, error) -> Platform.runLater(() -> {
+                if (error != null) {
+                    showAlert("Broadcast Error", "Broadcast failed: " + error.getMessage());
+                } else {
+                    showAlert("Broadcast Complete", "All files were broadcast.");
+                }
+            }));
+        } catch (IllegalStateException e) {
+            showAlert("Broadcast Unavailable", "Multicast is not available on this network.");
+        }
+    }
+
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
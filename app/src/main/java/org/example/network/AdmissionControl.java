@@ -0,0 +1,153 @@
+package org.example.network;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AdmissionControl: bounds how many transfers a sender runs at once. Requests
+ * beyond the limit wait in a bounded queue and are let in strictly in arrival
+ * order as transfers finish; once the queue is full, or a request has waited too
+ * long, it is turned away so the client can come back later instead of everyone
+ * sharing the uplink until it crawls.
+ */
+final class AdmissionControl {
+
+    private static final long MIN_RETRY_SECONDS = 1;
+    private static final long MAX_RETRY_SECONDS = 60;
+    private static final double DURATION_WEIGHT = 0.2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    private int maxActive;
+    private int maxQueued;
+    private int active;
+    private double meanSeconds;
+
+    /** One queued request, woken when a transfer slot is handed to it */
+    private static final class Waiter {
+        final Condition admitted;
+        boolean granted;
+
+        Waiter(Condition admitted) {
+            this.admitted = admitted;
+        }
+    }
+
+    AdmissionControl(int maxActive, int maxQueued) {
+        setMaxActive(maxActive);
+        setMaxQueued(maxQueued);
+    }
+
+    /**
+     * Take a transfer slot, waiting up to {@code timeoutMs} behind earlier requests.
+     * Returns false at once when the queue is full, or when the wait runs out.
+     */
+    boolean acquire(long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            if (active < maxActive && queue.isEmpty()) {
+                active++;
+                return true;
+            }
+            if (queue.size() >= maxQueued) return false;
+            Waiter waiter = new Waiter(lock.newCondition());
+            queue.addLast(waiter);
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            try {
+                while (!waiter.granted && remaining > 0) {
+                    remaining = waiter.admitted.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (!waiter.granted) {
+                    queue.remove(waiter);
+                    throw e;
+                }
+                // Admitted just as the wait was interrupted: keep the slot, keep the flag
+                Thread.currentThread().interrupt();
+            }
+            if (!waiter.granted) queue.remove(waiter);
+            return waiter.granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Give back a slot taken by {@link #acquire}; {@code nanos} is how long the transfer held it */
+    void release(long nanos) {
+        lock.lock();
+        try {
+            active--;
+            double seconds = nanos / 1e9;
+            meanSeconds = meanSeconds == 0 ? seconds : meanSeconds + DURATION_WEIGHT * (seconds - meanSeconds);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Change the limit; raising it lets waiting requests in at once */
+    void setMaxActive(int maxActive) {
+        if (maxActive < 1) throw new IllegalArgumentException("maxActive must be >= 1");
+        lock.lock();
+        try {
+            this.maxActive = maxActive;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** How many requests may wait for a slot; 0 turns away everything over the limit */
+    void setMaxQueued(int maxQueued) {
+        if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must be >= 0");
+        lock.lock();
+        try {
+            this.maxQueued = maxQueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int active() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * When a turned-away request is worth repeating: roughly how long the queue
+     * ahead of it takes to drain at the recent mean transfer time.
+     */
+    long retryAfterSeconds() {
+        lock.lock();
+        try {
+            double drain = meanSeconds * (queue.size() + 1) / maxActive;
+            return Math.max(MIN_RETRY_SECONDS, Math.min(MAX_RETRY_SECONDS, (long) Math.ceil(drain)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (active < maxActive && !queue.isEmpty()) {
+            Waiter waiter = queue.pollFirst();
+            waiter.granted = true;
+            active++;
+            waiter.admitted.signal();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.example.network;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BandwidthManager: shapes what a sender uploads, with limits for everything
+ * together, for each client address and for each transfer (0 means no limit).
+ * Every transfer draws from its own token bucket; the bucket rates are set by
+ * max-min fair sharing, first of the global limit across client addresses, then
+ * of each address's share across its transfers. A transfer that is not using its
+ * share (a slow receiver) is sized from what it did use, and the spare goes to
+ * the others. Rates are rebalanced as transfers start and end and a few times a
+ * second, so any bucket can be drained without touching the rest.
+ * <p>
+ * Tokens are taken in chunks worth a few tens of milliseconds at the current rate,
+ * never per byte, so sendfile still moves large runs and the shaper's own cost
+ * stays out of the way at full speed.
+ */
+public final class BandwidthManager {
+
+    static final String FLOW_ATTRIBUTE = "byteshare.flow";
+
+    private static final double UNLIMITED = Double.POSITIVE_INFINITY;
+    private static final long REBALANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final double CHUNK_SECONDS = 0.02;
+    private static final long MIN_CHUNK = 16 * 1024;
+    private static final long MAX_CHUNK = 1024 * 1024;
+    private static final double MIN_RATE = 16 * 1024;
+    private static final double DEMAND_HEADROOM = 1.5;
+
+    private final List<Flow> flows = new ArrayList<>();
+    private volatile long globalLimit;
+    private volatile long clientLimit;
+    private volatile long transferLimit;
+    private volatile long nextRebalance;
+    private long windowStart = System.nanoTime();
+
+    /** One transfer's token bucket; used by the single thread sending it */
+    static class Flow {
+        /** Sends at full speed and is never rebalanced */
+        static final Flow NONE = new Flow(null, null);
+
+        private final BandwidthManager manager;
+        private final InetAddress client;
+        private volatile double rate = UNLIMITED;
+        private double tokens;
+        private long refilled = System.nanoTime();
+        private volatile long used;
+        private volatile boolean limited = true;
+        private double demand = UNLIMITED;
+
+        private Flow(BandwidthManager manager, InetAddress client) {
+            this.manager = manager;
+            this.client = client;
+        }
+
+        /**
+         * Wait until up to {@code want} bytes may be sent, and return how many: all
+         * of them while unshaped, otherwise one chunk at the current rate.
+         */
+        long acquire(long want) throws InterruptedIOException {
+            if (manager == null || want <= 0) return want;
+            while (true) {
+                manager.rebalanceIfDue();
+                double rate = this.rate;
+                if (rate == UNLIMITED) {
+                    used += want;
+                    return want;
+                }
+                long chunk = Math.min(want, Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, (long) (rate * CHUNK_SECONDS))));
+                long now = System.nanoTime();
+                tokens = Math.min(2.0 * chunk, tokens + (now - refilled) / 1e9 * rate);
+                refilled = now;
+                if (tokens >= chunk) {
+                    tokens -= chunk;
+                    used += chunk;
+                    return chunk;
+                }
+                limited = true;
+                // Wake for rebalancing at the latest, in case the rate went up meanwhile
+                LockSupport.parkNanos(Math.min(REBALANCE_NANOS, (long) ((chunk - tokens) / rate * 1e9)));
+                if (Thread.interrupted()) throw new InterruptedIOException("Interrupted while shaping");
+            }
+        }
+
+        /** {@code out} with every write paced by this flow */
+        OutputStream wrap(OutputStream out) {
+            if (manager == null) return out;
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    acquire(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        int n = (int) acquire(len);
+                        out.write(b, off, n);
+                        off += n;
+                        len -= n;
+                    }
+                }
+            };
+        }
+
+        /** The transfer is over; its share goes back to the others */
+        void close() {
+            if (manager != null) manager.remove(this);
+        }
+    }
+
+    /** Bytes per second for all transfers together; 0 for no limit */
+    public void setGlobalLimit(long bytesPerSecond) {
+        globalLimit = checked(bytesPerSecond);
+        rebalance();
+    }
+
+    /** Bytes per second for all transfers to one client address; 0 for no limit */
+    public void setClientLimit(long bytesPerSecond) {
+        clientLimit = checked(bytesPerSecond);
+        rebalance();
+    }
+
+    /** Bytes per second for any one transfer; 0 for no limit */
+    public void setTransferLimit(long bytesPerSecond) {
+        transferLimit = checked(bytesPerSecond);
+        rebalance();
+    }
+
+    public long getGlobalLimit() {
+        return globalLimit;
+    }
+
+    public long getClientLimit() {
+        return clientLimit;
+    }
+
+    public long getTransferLimit() {
+        return transferLimit;
+    }
+
+    public synchronized int activeFlows() {
+        return flows.size();
+    }
+
+    /** Shape the response body of {@code exchange}; {@link Flow#close} it when the transfer ends */
+    Flow open(HttpExchange exchange) {
+        Flow flow = new Flow(this, exchange.getRemoteAddress().getAddress());
+        synchronized (this) {
+            flows.add(flow);
+        }
+        rebalance();
+        exchange.setAttribute(FLOW_ATTRIBUTE, flow);
+        exchange.setStreams(null, flow.wrap(exchange.getResponseBody()));
+        return flow;
+    }
+
+    /** The flow shaping {@code exchange}, for bodies that bypass its stream (sendfile) */
+    static Flow flow(HttpExchange exchange) {
+        return exchange.getAttribute(FLOW_ATTRIBUTE) instanceof Flow flow ? flow : Flow.NONE;
+    }
+
+    private synchronized void remove(Flow flow) {
+        if (flows.remove(flow)) rebalance();
+    }
+
+    private void rebalanceIfDue() {
+        if (System.nanoTime() - nextRebalance >= 0) measure();
+    }
+
+    /** Re-estimate what each flow wants from what it sent since last time, then rebalance */
+    private synchronized void measure() {
+        long now = System.nanoTime();
+        if (now - nextRebalance < 0) return;
+        nextRebalance = now + REBALANCE_NANOS;
+        double window = (now - windowStart) / 1e9;
+        windowStart = now;
+        for (Flow flow : flows) {
+            long used = flow.used;
+            flow.used = 0;
+            boolean limited = flow.limited;
+            flow.limited = false;
+            // A flow that never had to wait wants about what it sent; one that waited wants more than it
+            // got, doubling each round it keeps waiting, so a bursty slow receiver does not grab a full share
+            double sent = Math.max(MIN_RATE, used / window * DEMAND_HEADROOM);
+            flow.demand = limited ? Math.max(sent, flow.demand * 2) : sent;
+        }
+        rebalance();
+    }
+
+    /**
+     * Reset every bucket's rate: split the global limit max-min fair over client
+     * addresses, then each address's share over its transfers.
+     */
+    private synchronized void rebalance() {
+        double transferCap = limit(transferLimit);
+        Map<InetAddress, List<Flow>> byClient = new LinkedHashMap<>();
+        Map<Flow, Double> demands = new LinkedHashMap<>();
+        for (Flow flow : flows) {
+            demands.put(flow, Math.min(flow.demand, transferCap));
+            byClient.computeIfAbsent(flow.client, client -> new ArrayList<>()).add(flow);
+        }
+
+        double clientCap = limit(clientLimit);
+        List<List<Flow>> clients = new ArrayList<>(byClient.values());
+        double[] clientDemands = new double[clients.size()];
+        double[] clientCaps = new double[clients.size()];
+        for (int i = 0; i < clients.size(); i++) {
+            double demand = 0;
+            for (Flow flow : clients.get(i)) demand += demands.get(flow);
+            clientDemands[i] = Math.min(clientCap, demand);
+            clientCaps[i] = Math.min(clientCap, transferCap * clients.get(i).size());
+        }
+        double[] clientShares = share(limit(globalLimit), clientDemands, clientCaps);
+
+        for (int i = 0; i < clients.size(); i++) {
+            List<Flow> group = clients.get(i);
+            double[] flowDemands = new double[group.size()];
+            double[] flowCaps = new double[group.size()];
+            for (int j = 0; j < group.size(); j++) {
+                flowDemands[j] = demands.get(group.get(j));
+                flowCaps[j] = transferCap;
+            }
+            double[] rates = share(clientShares[i], flowDemands, flowCaps);
+            for (int j = 0; j < group.size(); j++) {
+                group.get(j).rate = Math.max(1, rates[j]);
+            }
+        }
+    }
+
+    /**
+     * Max-min fair split of {@code capacity}: every party gets its demand or an
+     * equal share of what is left, whichever is smaller; capacity still unused is
+     * then spread the same way up to each party's cap, so nobody is held to an
+     * estimate while there is room.
+     */
+    static double[] share(double capacity, double[] demands, double[] caps) {
+        if (capacity == UNLIMITED) return caps.clone();
+        double[] shares = fill(capacity, demands);
+        double spare = capacity;
+        double[] room = new double[caps.length];
+        for (int i = 0; i < shares.length; i++) {
+            spare -= shares[i];
+            room[i] = caps[i] - shares[i];
+        }
+        double[] extra = fill(Math.max(0, spare), room);
+        for (int i = 0; i < shares.length; i++) {
+            shares[i] += extra[i];
+        }
+        return shares;
+    }
+
+    /** Water-filling: {@code capacity} over {@code limits}, smallest limit first */
+    private static double[] fill(double capacity, double[] limits) {
+        double[] result = new double[limits.length];
+        Integer[] order = new Integer[limits.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(limits[a], limits[b]));
+        double left = capacity;
+        for (int k = 0; k < order.length; k++) {
+            int i = order[k];
+            double give = Math.min(limits[i], left / (order.length - k));
+            result[i] = give;
+            if (give != UNLIMITED) left -= give;
+        }
+        return result;
+    }
+
+    private static double limit(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? bytesPerSecond : UNLIMITED;
+    }
+
+    private static long checked(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("Limit must be >= 0");
+        return bytesPerSecond;
+    }
+}
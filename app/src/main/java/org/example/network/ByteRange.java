@@ -0,0 +1,88 @@
+package org.example.network;
+
+/**
+ * ByteRange: an inclusive byte range of a file, as used by HTTP {@code Range}
+ * and {@code Content-Range} headers.
+ */
+public record ByteRange(long start, long end) {
+
+    /** Returned by {@link #parse} when the range cannot be satisfied (416) */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * Parse a {@code Range} header against a representation of {@code size} bytes.
+     * Returns null when the header is absent, malformed or asks for several ranges
+     * (the full body is sent then), or {@link #UNSATISFIABLE}.
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null) return null;
+        header = header.trim();
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                if (last.isEmpty()) return null;
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) return UNSATISFIABLE;
+                return new ByteRange(Math.max(0, size - suffix), size - 1);
+            }
+            long start = Long.parseLong(first);
+            if (start < 0) return null;
+            long end = size - 1;
+            if (!last.isEmpty()) {
+                long requestedEnd = Long.parseLong(last);
+                if (requestedEnd < start) return null;
+                end = Math.min(requestedEnd, size - 1);
+            }
+            if (start >= size) return UNSATISFIABLE;
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Parse a {@code Content-Range: bytes start-end/total} header, or null */
+    public static ByteRange parseContentRange(String header) {
+        if (header == null || !header.startsWith("bytes ")) return null;
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        int slash = spec.indexOf('/');
+        if (dash < 0 || slash < dash) return null;
+        try {
+            return new ByteRange(Long.parseLong(spec.substring(0, dash)),
+                    Long.parseLong(spec.substring(dash + 1, slash)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Total length from a {@code Content-Range} header, or -1 when unknown */
+    public static long contentRangeTotal(String header) {
+        if (header == null) return -1;
+        int slash = header.indexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(header.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public String toContentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    public String toRangeHeader() {
+        return "bytes=" + start + "-" + end;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.network;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * CatalogFeed: keeps a receiver's {@link CatalogListing} current by following the
+ * sender's {@code /changes} event stream, so files the sender adds, changes or
+ * removes show up without anyone refreshing. Each event is applied to the
+ * listing as a diff; when the sender can no longer diff from our version, the
+ * whole catalog is fetched once and followed on from there. A dropped stream
+ * reconnects from the last version it saw, and a sender without
+ * {@code /changes} is polled with {@code If-None-Match} instead.
+ */
+public final class CatalogFeed implements Closeable {
+
+    // The sender sends a heartbeat every 15 seconds; two missed ones mean the stream is dead
+    private static final int STREAM_READ_TIMEOUT_MS = 35_000;
+    private static final long POLL_INTERVAL_MS = 5_000;
+    private static final long MIN_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final String serverUrl;
+    private final String pin;
+    private final Consumer<CatalogListing> listener;
+    private final Thread thread;
+    private volatile CatalogListing listing;
+    private volatile HttpURLConnection connection;
+    private volatile boolean closed;
+
+    private CatalogFeed(String serverUrl, String pin, CatalogListing listing, Consumer<CatalogListing> listener) {
+        this.serverUrl = serverUrl;
+        this.pin = pin;
+        this.listing = listing;
+        this.listener = listener;
+        this.thread = Thread.ofVirtual().name("catalog-feed").unstarted(this::run);
+    }
+
+    /**
+     * Follow the catalog of {@code serverUrl} from {@code listing}; {@code listener}
+     * gets every newer listing, on the feed's own thread.
+     */
+    public static CatalogFeed follow(String serverUrl, String pin, CatalogListing listing,
+                                     Consumer<CatalogListing> listener) {
+        CatalogFeed feed = new CatalogFeed(serverUrl, pin, listing, listener);
+        feed.thread.start();
+        return feed;
+    }
+
+    /** The newest listing the feed has seen */
+    public CatalogListing listing() {
+        return listing;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        HttpURLConnection open = connection;
+        if (open != null) open.disconnect();
+        thread.interrupt();
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MS;
+        try {
+            while (!closed) {
+                try {
+                    if (!stream()) {
+                        poll();
+                        return;
+                    }
+                    backoff = MIN_BACKOFF_MS;
+                } catch (IOException e) {
+                    if (closed) return;
+                    System.out.println("[CatalogFeed] Change stream lost: " + e.getMessage()
+                            + "; reconnecting in " + backoff + " ms");
+                    Thread.sleep(backoff);
+                    backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Read change events until the stream ends. Returns false if the sender has no
+     * {@code /changes}.
+     */
+    private boolean stream() throws IOException {
+        URL url = new URL(serverUrl + "/changes?pin=" + URLEncoder.encode(pin, StandardCharsets.UTF_8)
+                + "&since=" + listing.version());
+        HttpURLConnection connection = FileDownloader.open(url);
+        connection.setReadTimeout(STREAM_READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept", "text/event-stream");
+        this.connection = connection;
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) return false;
+            if (status != HttpURLConnection.HTTP_OK) throw new IOException("Server returned " + status + " for changes");
+
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                StringBuilder data = new StringBuilder();
+                String line;
+                while (!closed && (line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        if (!data.isEmpty()) changed(data.toString());
+                        data.setLength(0);
+                    } else if (line.startsWith("data:")) {
+                        if (!data.isEmpty()) data.append('\n');
+                        data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+                    }
+                    // Heartbeat comments and ids need nothing: the listing's version is the id
+                }
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+            this.connection = null;
+        }
+    }
+
+    private void changed(String json) throws IOException {
+        CatalogListing current = listing;
+        CatalogListing next = current.apply(json);
+        if (next == null) {
+            // Too far behind to diff: start over from the whole catalog
+            next = CatalogListing.fetch(serverUrl, pin, null);
+        }
+        if (next == current) return;
+        listing = next;
+        listener.accept(next);
+    }
+
+    /** Senders without a change feed: ask for the catalog every few seconds, a 304 while unchanged */
+    private void poll() throws InterruptedException {
+        System.out.println("[CatalogFeed] Sender has no change feed; polling its catalog");
+        while (!closed) {
+            Thread.sleep(POLL_INTERVAL_MS);
+            try {
+                CatalogListing current = listing;
+                CatalogListing next = CatalogListing.fetch(serverUrl, pin, current);
+                if (next != current) {
+                    listing = next;
+                    listener.accept(next);
+                }
+            } catch (IOException e) {
+                System.out.println("[CatalogFeed] Could not refresh catalog: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.example.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CatalogListing: a sender's {@code /catalog}, as the receiver last saw it.
+ * The listing keeps the ETag it came with, so refreshing sends
+ * {@code If-None-Match} and an unchanged catalog costs one bodiless 304.
+ */
+public final class CatalogListing {
+
+    /** One file on the sender; {@code root} is the manifest root hash, or null if the sender has not hashed it yet */
+    public record Item(String id, String path, long size, long lastModified, String contentType, String root) {
+    }
+
+    /** The diff that turned the listing at version {@code from} into this one */
+    public record Change(long from, List<Item> upserted, List<String> removed) {
+    }
+
+    private final long version;
+    private final long totalBytes;
+    private final List<Item> items;
+    private final String etag;
+    private final Change change;
+
+    CatalogListing(long version, long totalBytes, List<Item> items, String etag) {
+        this(version, totalBytes, items, etag, null);
+    }
+
+    private CatalogListing(long version, long totalBytes, List<Item> items, String etag, Change change) {
+        this.version = version;
+        this.totalBytes = totalBytes;
+        this.items = items;
+        this.etag = etag;
+        this.change = change;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    /** The files, in path order */
+    public List<Item> items() {
+        return items;
+    }
+
+    /** How this listing differs from the one it was applied to, or null if it was fetched whole */
+    public Change change() {
+        return change;
+    }
+
+    /**
+     * Fetch the whole catalog from {@code serverUrl}. Returns {@code previous}
+     * itself when the sender answers that nothing changed since.
+     */
+    public static CatalogListing fetch(String serverUrl, String pin, CatalogListing previous) throws IOException {
+        URL url = new URL(serverUrl + "/catalog?pin=" + URLEncoder.encode(pin, StandardCharsets.UTF_8));
+        HttpURLConnection connection = FileDownloader.open(url);
+        connection.setRequestProperty("Accept-Encoding", ContentCoding.ACCEPTED);
+        if (previous != null && previous.etag != null) {
+            connection.setRequestProperty("If-None-Match", previous.etag);
+        }
+
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            connection.disconnect();
+            return previous;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Server returned " + status + " for catalog");
+        }
+        String json;
+        try (InputStream in = ContentCoding.openDecoded(connection)) {
+            json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        return parse(json, connection.getHeaderField("ETag"));
+    }
+
+    /** Parse a {@code /catalog} body; fields this version does not know are skipped */
+    static CatalogListing parse(String json, String etag) throws IOException {
+        Parser parser = new Parser(json);
+        long version = -1;
+        long totalBytes = -1;
+        List<Item> items = new ArrayList<>();
+        parser.expect('{');
+        while (parser.nextMember()) {
+            String key = parser.string();
+            parser.expect(':');
+            switch (key) {
+                case "version" -> version = parser.number();
+                case "totalBytes" -> totalBytes = parser.number();
+                case "files" -> {
+                    parser.expect('[');
+                    while (parser.nextElement()) items.add(parseItem(parser));
+                }
+                default -> parser.skipValue();
+            }
+        }
+        return new CatalogListing(version, totalBytes, List.copyOf(items), etag);
+    }
+
+    /**
+     * This listing with one {@code /changes} diff applied, or null when the diff
+     * cannot be applied (the sender could not diff from this version, or it is
+     * from another one) and the whole catalog has to be fetched again. A diff
+     * this listing is already as new as is ignored.
+     */
+    CatalogListing apply(String json) throws IOException {
+        Parser parser = new Parser(json);
+        long from = -1;
+        long version = -1;
+        long total = -1;
+        boolean reset = false;
+        List<Item> upserted = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        parser.expect('{');
+        while (parser.nextMember()) {
+            String key = parser.string();
+            parser.expect(':');
+            switch (key) {
+                case "from" -> from = parser.number();
+                case "version" -> version = parser.number();
+                case "totalBytes" -> total = parser.number();
+                case "reset" -> reset = parser.bool();
+                case "upserted" -> {
+                    parser.expect('[');
+                    while (parser.nextElement()) upserted.add(parseItem(parser));
+                }
+                case "removed" -> {
+                    parser.expect('[');
+                    while (parser.nextElement()) removed.add(parser.string());
+                }
+                default -> parser.skipValue();
+            }
+        }
+        if (version <= this.version) return this;
+        if (reset || from != this.version) return null;
+
+        Map<String, Item> byPath = new TreeMap<>();
+        for (Item item : items) byPath.put(item.path(), item);
+        for (String path : removed) byPath.remove(path);
+        for (Item item : upserted) byPath.put(item.path(), item);
+        return new CatalogListing(version, total, List.copyOf(byPath.values()), null,
+                new Change(this.version, List.copyOf(upserted), List.copyOf(removed)));
+    }
+
+    private static Item parseItem(Parser parser) throws IOException {
+        String id = null;
+        String path = null;
+        long size = -1;
+        long mtime = 0;
+        String type = null;
+        String root = null;
+        parser.expect('{');
+        while (parser.nextMember()) {
+            String key = parser.string();
+            parser.expect(':');
+            switch (key) {
+                case "id" -> id = parser.string();
+                case "path" -> path = parser.string();
+                case "size" -> size = parser.number();
+                case "mtime" -> mtime = parser.number();
+                case "type" -> type = parser.string();
+                case "root" -> root = parser.string();
+                default -> parser.skipValue();
+            }
+        }
+        if (path == null) throw new IOException("Catalog entry without a path");
+        return new Item(id, path, size, mtime, type, root);
+    }
+
+    /** Just enough JSON for the catalog: objects, arrays, strings, integers, literals */
+    private static final class Parser {
+        private final String text;
+        private int pos;
+        private boolean first = true;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        void expect(char c) throws IOException {
+            if (peek() != c) throw error("expected '" + c + "'");
+            pos++;
+            if (c == '{' || c == '[') first = true;
+        }
+
+        /** Whether another member follows in the current object; consumes the separator or the closing brace */
+        boolean nextMember() throws IOException {
+            return next('}');
+        }
+
+        boolean nextElement() throws IOException {
+            return next(']');
+        }
+
+        private boolean next(char close) throws IOException {
+            char c = peek();
+            if (c == close) {
+                pos++;
+                first = false;
+                return false;
+            }
+            if (!first) {
+                if (c != ',') throw error("expected ',' or '" + close + "'");
+                pos++;
+            }
+            first = false;
+            return true;
+        }
+
+        String string() throws IOException {
+            if (peek() != '"') throw error("expected a string");
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) break;
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) throw error("bad escape");
+                        sb.append((char) Integer.parseInt(text, pos, pos + 4, 16));
+                        pos += 4;
+                    }
+                    default -> sb.append(escaped);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        long number() throws IOException {
+            peek();
+            int start = pos;
+            if (pos < text.length() && text.charAt(pos) == '-') pos++;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+            if (start == pos) throw error("expected a number");
+            return Long.parseLong(text, start, pos, 10);
+        }
+
+        boolean bool() throws IOException {
+            peek();
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return true;
+            }
+            if (text.startsWith("false", pos)) {
+                pos += 5;
+                return false;
+            }
+            throw error("expected true or false");
+        }
+
+        void skipValue() throws IOException {
+            char c = peek();
+            switch (c) {
+                case '"' -> string();
+                case '{' -> {
+                    expect('{');
+                    while (nextMember()) {
+                        string();
+                        expect(':');
+                        skipValue();
+                    }
+                }
+                case '[' -> {
+                    expect('[');
+                    while (nextElement()) skipValue();
+                }
+                default -> {
+                    // Numbers and literals: everything up to the next delimiter
+                    while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) pos++;
+                }
+            }
+        }
+
+        private char peek() throws IOException {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+            if (pos >= text.length()) throw error("unexpected end");
+            return text.charAt(pos);
+        }
+
+        private IOException error(String message) {
+            return new IOException("Bad catalog JSON at " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * ChunkManifest: SHA-256 of every fixed-size chunk of one version of a file,
+ * plus a root hash over the chunk hashes that stands for the whole file.
+ * The text form is what {@code /manifest} serves and what the sender persists:
+ * <pre>
+ * BYTESHARE-MANIFEST 1
+ * etag "&lt;validator&gt;"
+ * size &lt;bytes&gt;
+ * chunk &lt;chunk size&gt;
+ * root &lt;hex&gt;
+ * &lt;hex of chunk 0&gt;
+ * ...
+ * </pre>
+ */
+public final class ChunkManifest {
+
+    private static final String MAGIC = "BYTESHARE-MANIFEST 1";
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CHUNKS = 8192;
+
+    private final String etag;
+    private final long size;
+    private final int chunkSize;
+    private final byte[][] hashes;
+    private final byte[] root;
+
+    ChunkManifest(String etag, long size, int chunkSize, byte[][] hashes) {
+        this.etag = etag;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.hashes = hashes;
+        this.root = rootOf(hashes);
+    }
+
+    /** 1 MiB, doubled until the file has at most {@link #MAX_CHUNKS} chunks */
+    static int chunkSizeFor(long size) {
+        long chunk = MIN_CHUNK_SIZE;
+        while (size / chunk > MAX_CHUNKS && chunk < (1 << 30)) chunk <<= 1;
+        return (int) chunk;
+    }
+
+    public String etag() {
+        return etag;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public int chunkCount() {
+        return hashes.length;
+    }
+
+    public long chunkStart(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public int chunkLength(int index) {
+        return (int) Math.min(chunkSize, size - chunkStart(index));
+    }
+
+    /** Whole-file hash: SHA-256 over the concatenated chunk hashes */
+    public String rootHex() {
+        return HexFormat.of().formatHex(root);
+    }
+
+    boolean matches(int index, byte[] digest) {
+        return MessageDigest.isEqual(hashes[index], digest);
+    }
+
+    /** Whether a download response with validator {@code etag} carries this version, possibly content-encoded */
+    boolean describes(String responseEtag) {
+        if (responseEtag == null) return false;
+        if (responseEtag.equals(etag)) return true;
+        return etag.length() > 1 && responseEtag.startsWith(etag.substring(0, etag.length() - 1) + "-");
+    }
+
+    public byte[] toBytes() {
+        HexFormat hex = HexFormat.of();
+        StringBuilder sb = new StringBuilder(MAGIC).append('\n')
+                .append("etag ").append(etag).append('\n')
+                .append("size ").append(size).append('\n')
+                .append("chunk ").append(chunkSize).append('\n')
+                .append("root ").append(hex.formatHex(root)).append('\n');
+        for (byte[] hash : hashes) sb.append(hex.formatHex(hash)).append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Parse the text form, rejecting anything malformed or whose root does not match its chunks */
+    public static ChunkManifest parse(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine())) throw new IOException("Not a ByteShare manifest");
+            String etag = field(reader, "etag");
+            long size = Long.parseLong(field(reader, "size"));
+            int chunkSize = Integer.parseInt(field(reader, "chunk"));
+            byte[] root = HexFormat.of().parseHex(field(reader, "root"));
+            if (size < 0 || chunkSize <= 0) throw new IOException("Bad manifest geometry");
+
+            int count = (int) ((size + chunkSize - 1) / chunkSize);
+            byte[][] hashes = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                String line = reader.readLine();
+                if (line == null) throw new EOFException("Manifest truncated at chunk " + i);
+                hashes[i] = HexFormat.of().parseHex(line.trim());
+            }
+            ChunkManifest manifest = new ChunkManifest(etag, size, chunkSize, hashes);
+            if (!Arrays.equals(manifest.root, root)) throw new IOException("Manifest root hash mismatch");
+            return manifest;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed manifest", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed manifest hash", e);
+        }
+    }
+
+    private static String field(BufferedReader reader, String name) throws IOException {
+        String line = reader.readLine();
+        if (line == null || !line.startsWith(name + " ")) throw new IOException("Manifest is missing " + name);
+        return line.substring(name.length() + 1);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] rootOf(byte[][] hashes) {
+        MessageDigest digest = sha256();
+        for (byte[] hash : hashes) digest.update(hash);
+        return digest.digest();
+    }
+}
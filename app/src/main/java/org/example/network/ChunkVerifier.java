@@ -0,0 +1,137 @@
+package org.example.network;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * ChunkVerifier: checks downloaded bytes against a {@link ChunkManifest} while
+ * they are written, so no second read of the file is needed. A chunk counts as
+ * verified only when all of its bytes passed through one {@link Stream} in order;
+ * chunks that fail, or that a stream only partly covered, stay unverified and
+ * are listed by {@link #missingRanges()} for re-fetching. Progress is kept in the
+ * download's state properties so it survives a restart.
+ */
+final class ChunkVerifier {
+
+    private static final String MANIFEST_KEY = "manifest";
+    private static final String VERIFIED_KEY = "verified";
+
+    private final ChunkManifest manifest;
+    private final BitSet verified;
+    private int failures;
+
+    ChunkVerifier(ChunkManifest manifest, Properties state) {
+        this.manifest = manifest;
+        String encoded = state.getProperty(VERIFIED_KEY);
+        this.verified = encoded != null && manifest.etag().equals(state.getProperty(MANIFEST_KEY))
+                ? BitSet.valueOf(Base64.getDecoder().decode(encoded))
+                : new BitSet(manifest.chunkCount());
+    }
+
+    ChunkManifest manifest() {
+        return manifest;
+    }
+
+    /** Forget everything verified so far (the part file is being rewritten from scratch) */
+    synchronized void reset() {
+        verified.clear();
+    }
+
+    /** Offset below which every chunk is verified; a sequential resume should continue from here */
+    synchronized long verifiedPrefix() {
+        return manifest.chunkStart(verified.nextClearBit(0));
+    }
+
+    synchronized int failures() {
+        return failures;
+    }
+
+    /** A copy of which chunks are verified */
+    synchronized BitSet verifiedChunks() {
+        return (BitSet) verified.clone();
+    }
+
+    /** Mark chunk {@code index} verified: the caller hashed it against the manifest and wrote it out */
+    synchronized void verified(int index) {
+        verified.set(index);
+    }
+
+    /** Runs of unverified chunks as byte ranges, in file order */
+    synchronized List<ByteRange> missingRanges() {
+        List<ByteRange> ranges = new ArrayList<>();
+        int count = manifest.chunkCount();
+        int from = verified.nextClearBit(0);
+        while (from < count) {
+            int next = verified.nextSetBit(from);
+            int to = next < 0 ? count : Math.min(next, count);
+            long end = manifest.chunkStart(to - 1) + manifest.chunkLength(to - 1) - 1;
+            ranges.add(new ByteRange(manifest.chunkStart(from), end));
+            from = verified.nextClearBit(to);
+        }
+        return ranges;
+    }
+
+    /** Record progress in {@code state}; the caller persists it */
+    synchronized void save(Properties state) {
+        state.setProperty(MANIFEST_KEY, manifest.etag());
+        state.setProperty(VERIFIED_KEY, Base64.getEncoder().encodeToString(verified.toByteArray()));
+    }
+
+    /** A hasher for bytes written sequentially from {@code position} on */
+    Stream stream(long position) {
+        return new Stream(position);
+    }
+
+    private synchronized void invalidate(int index) {
+        verified.clear(index);
+    }
+
+    private synchronized void complete(int index, byte[] digest) {
+        if (manifest.matches(index, digest)) {
+            verified.set(index);
+        } else {
+            verified.clear(index);
+            failures++;
+            System.out.println("[ChunkVerifier] Chunk " + index + " failed verification");
+        }
+    }
+
+    /** Hashes one sequential run of bytes, completing each chunk as its last byte arrives */
+    final class Stream {
+        private final MessageDigest digest = ChunkManifest.sha256();
+        private long position;
+        private int index;
+        private long chunkEnd;
+        private boolean aligned;
+
+        private Stream(long position) {
+            this.position = position;
+            this.index = (int) (position / manifest.chunkSize());
+            this.aligned = position == manifest.chunkStart(index);
+            if (!aligned) invalidate(index);
+            this.chunkEnd = index < manifest.chunkCount() ? manifest.chunkStart(index) + manifest.chunkLength(index) : 0;
+        }
+
+        void update(byte[] data, int offset, int length) {
+            while (length > 0 && index < manifest.chunkCount()) {
+                int n = (int) Math.min(length, chunkEnd - position);
+                if (aligned) digest.update(data, offset, n);
+                position += n;
+                offset += n;
+                length -= n;
+                if (position == chunkEnd) {
+                    // A chunk joined midway cannot be judged; it stays unverified
+                    if (aligned) complete(index, digest.digest());
+                    digest.reset();
+                    aligned = true;
+                    index++;
+                    if (index < manifest.chunkCount()) chunkEnd = position + manifest.chunkLength(index);
+                }
+            }
+        }
+    }
+}
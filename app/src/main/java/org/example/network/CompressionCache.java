@@ -0,0 +1,275 @@
+package org.example.network;
+
+import java.io.*;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CompressionCache: decides which shared files are worth compressing and keeps
+ * a size-bounded on-disk cache of their gzip variants, evicting least recently
+ * used files first. The first compressed download of a file is teed into the
+ * cache, so later receivers get the stored bytes without recompressing.
+ */
+final class CompressionCache {
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "jar", "apk", "war",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "aac", "ogg", "opus", "flac", "m4a",
+            "mp4", "mkv", "webm", "avi", "mov", "m4v",
+            "docx", "xlsx", "pptx", "odt", "ods", "epub", "pdf");
+    private static final int SAMPLE_BYTES = 64 * 1024;
+    private static final double MAX_ENTROPY_BITS = 7.2;
+    private static final int MAX_DECISIONS = 100_000;
+
+    private final Path dir;
+    private volatile long maxBytes;
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final LinkedHashMap<String, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    CompressionCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        loadExisting();
+    }
+
+    void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        synchronized (lru) {
+            evict(0);
+        }
+    }
+
+    /**
+     * Content-type and entropy heuristic: skip formats that are already compressed,
+     * and anything whose first bytes look random. Decisions are remembered per file version.
+     */
+    boolean isCompressible(ShareCatalog.Entry entry) {
+        if (entry.size() < 1024) return false;
+        String key = key(entry);
+        Boolean known = decisions.get(key);
+        if (known != null) return known;
+
+        boolean compressible = decide(entry);
+        if (decisions.size() >= MAX_DECISIONS) decisions.clear();
+        decisions.put(key, compressible);
+        return compressible;
+    }
+
+    /** The cached gzip variant of {@code entry}, or null */
+    Path lookup(ShareCatalog.Entry entry) {
+        String key = key(entry);
+        synchronized (lru) {
+            if (lru.get(key) == null) return null;
+        }
+        Path cached = dir.resolve(key + ".gz");
+        if (!Files.exists(cached)) {
+            synchronized (lru) {
+                Long size = lru.remove(key);
+                if (size != null) totalBytes -= size;
+            }
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * Start teeing a compressed stream for {@code entry} into the cache. Returns null
+     * when another download is already filling it or the file could never fit.
+     */
+    Writer begin(ShareCatalog.Entry entry, OutputStream client) throws IOException {
+        if (entry.size() > maxBytes / 4) return null;
+        String key = key(entry);
+        if (!inFlight.add(key)) return null;
+        try {
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, key, ".tmp");
+            return new Writer(key, temp, client);
+        } catch (IOException e) {
+            inFlight.remove(key);
+            throw e;
+        }
+    }
+
+    private boolean decide(ShareCatalog.Entry entry) {
+        String name = entry.name().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1))) return false;
+
+        String type = URLConnection.guessContentTypeFromName(name);
+        if (type != null && (type.startsWith("text/") || type.endsWith("json") || type.endsWith("xml"))) {
+            return true;
+        }
+        if (type != null && (type.startsWith("image/") || type.startsWith("audio/") || type.startsWith("video/"))) {
+            return false;
+        }
+        return sampleEntropy(entry.file()) < MAX_ENTROPY_BITS;
+    }
+
+    /** Shannon entropy in bits per byte of the first {@link #SAMPLE_BYTES} of a file */
+    private static double sampleEntropy(File file) {
+        byte[] sample;
+        try (InputStream in = new FileInputStream(file)) {
+            sample = in.readNBytes(SAMPLE_BYTES);
+        } catch (IOException e) {
+            return 8.0;
+        }
+        if (sample.length == 0) return 8.0;
+        int[] counts = new int[256];
+        for (byte b : sample) counts[b & 0xff]++;
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / sample.length;
+            entropy -= p * (Math.log(p) / Math.log(2));
+        }
+        return entropy;
+    }
+
+    private static String key(ShareCatalog.Entry entry) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(entry.file().getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            digest.update(entry.etag().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void loadExisting() {
+        if (!Files.isDirectory(dir)) return;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) files.add(file);
+        } catch (IOException e) {
+            return;
+        }
+        files.sort(Comparator.comparingLong(CompressionCache::lastModified));
+        synchronized (lru) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(".gz")) {
+                        long size = Files.size(file);
+                        lru.put(name.substring(0, name.length() - 3), size);
+                        totalBytes += size;
+                    } else {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+            evict(0);
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /** Drop least recently used variants until {@code incoming} more bytes fit; caller holds the lock */
+    private void evict(long incoming) {
+        Iterator<Map.Entry<String, Long>> it = lru.entrySet().iterator();
+        while (totalBytes + incoming > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                Files.deleteIfExists(dir.resolve(eldest.getKey() + ".gz"));
+            } catch (IOException ignored) {
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /** Writes to the client and to a temp file; {@link #commit} publishes the temp file */
+    final class Writer extends OutputStream {
+        private final String key;
+        private final Path temp;
+        private final OutputStream client;
+        private final OutputStream file;
+        private boolean failed;
+        private boolean done;
+
+        private Writer(String key, Path temp, OutputStream client) throws IOException {
+            this.key = key;
+            this.temp = temp;
+            this.client = client;
+            this.file = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /** A cache write failing (disk full, say) only stops caching; the client still gets its bytes */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            client.write(b, off, len);
+            if (failed) return;
+            try {
+                file.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            client.flush();
+        }
+
+        /** Closing only finishes the client side; the exchange owns the client stream */
+        @Override
+        public void close() throws IOException {
+            client.flush();
+        }
+
+        void commit() throws IOException {
+            if (failed) abort();
+            if (done) return;
+            done = true;
+            try {
+                file.close();
+                long size = Files.size(temp);
+                synchronized (lru) {
+                    evict(size);
+                    Files.move(temp, dir.resolve(key + ".gz"), StandardCopyOption.REPLACE_EXISTING);
+                    // Another writer may have committed the same key first; its file was just replaced
+                    Long replaced = lru.put(key, size);
+                    totalBytes += size - (replaced != null ? replaced : 0);
+                }
+            } finally {
+                inFlight.remove(key);
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        void abort() {
+            if (done) return;
+            done = true;
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            } finally {
+                inFlight.remove(key);
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
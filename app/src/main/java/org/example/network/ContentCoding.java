@@ -0,0 +1,82 @@
+package org.example.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * ContentCoding: HTTP {@code Content-Encoding} negotiation and the matching
+ * stream wrappers, shared by the server and the receiver.
+ */
+public final class ContentCoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /** What the receiver advertises in {@code Accept-Encoding} */
+    public static final String ACCEPTED = "gzip, deflate";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentCoding() {
+    }
+
+    /** Pick gzip or deflate from an {@code Accept-Encoding} header, or null for identity */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        double gzip = 0, deflate = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] pieces = part.trim().split(";");
+            String coding = pieces[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < pieces.length; i++) {
+                String param = pieces[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) gzip = q;
+            else if (coding.equals(DEFLATE)) deflate = q;
+            else if (coding.equals("*")) {
+                if (gzip == 0) gzip = q;
+            }
+        }
+        if (gzip <= 0 && deflate <= 0) return null;
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /** Wrap {@code out} so bytes written are encoded with {@code coding}; call {@code finish()} at the end */
+    public static DeflaterOutputStream encode(String coding, OutputStream out) throws IOException {
+        return switch (coding) {
+            case GZIP -> new GZIPOutputStream(out, BUFFER_SIZE);
+            case DEFLATE -> new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE);
+            default -> throw new IllegalArgumentException("Unsupported coding: " + coding);
+        };
+    }
+
+    /** Wrap {@code in} to undo {@code coding}; identity when coding is null */
+    public static InputStream decode(String coding, InputStream in) throws IOException {
+        if (coding == null || coding.isEmpty() || coding.equalsIgnoreCase("identity")) return in;
+        return switch (coding.toLowerCase()) {
+            case GZIP, "x-gzip" -> new GZIPInputStream(in, BUFFER_SIZE);
+            case DEFLATE -> new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+            default -> throw new IOException("Unsupported Content-Encoding: " + coding);
+        };
+    }
+
+    /** The response body of {@code connection}, decompressed while it streams */
+    public static InputStream openDecoded(HttpURLConnection connection) throws IOException {
+        return decode(connection.getContentEncoding(), connection.getInputStream());
+    }
+}
@@ -0,0 +1,455 @@
+package org.example.network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * DeltaSync: rsync-style transfer of a new file version to a receiver that
+ * already holds an older one.
+ * <ol>
+ * <li>The receiver sends a signature of its copy: a rolling (weak) and a
+ *     truncated SHA-256 (strong) checksum per fixed-size block.</li>
+ * <li>The sender slides a window over the new version one byte at a time and
+ *     answers with "copy blocks i..j" for windows the receiver already has and
+ *     literal bytes for everything else, followed by the new file's SHA-256.</li>
+ * <li>The receiver rebuilds the new version from its old copy plus the literals.</li>
+ * </ol>
+ */
+public final class DeltaSync {
+
+    /** What one sync moved: {@code signatureBytes} up, {@code deltaBytes} down */
+    public record Result(Path file, long size, long copiedBytes, long literalBytes,
+                         long signatureBytes, long deltaBytes) {
+    }
+
+    private static final int SIGNATURE_MAGIC = 0x42535331; // "BSS1"
+    private static final int DELTA_MAGIC = 0x42534431;     // "BSD1"
+    private static final int STRONG_LENGTH = 16;
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    private static final int MAX_BLOCKS = 1 << 24;
+    private static final int MAX_LITERAL = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte OP_COPY = 'C';
+    private static final byte OP_LITERAL = 'L';
+    private static final byte OP_END = 'E';
+
+    private DeltaSync() {
+    }
+
+    /** Roughly the square root of the size, as a power of two, within [2 KiB, 1 MiB] */
+    static int blockSizeFor(long size) {
+        int block = MIN_BLOCK_SIZE;
+        while (block < MAX_BLOCK_SIZE && (long) block * block < size) block <<= 1;
+        return block;
+    }
+
+    /** Exact length of the signature {@link #writeSignature} produces for a file of {@code size} bytes */
+    static long signatureLength(long size) {
+        long blocks = (size + blockSizeFor(size) - 1) / blockSizeFor(size);
+        return 16 + blocks * (4 + STRONG_LENGTH);
+    }
+
+    // ------------------- Receiver: signature ------------------------
+
+    /** Stream the signature of {@code basis} to {@code out}; returns the bytes written */
+    static long writeSignature(Path basis, OutputStream out) throws IOException {
+        long size = Files.size(basis);
+        int blockSize = blockSizeFor(size);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeInt(SIGNATURE_MAGIC);
+        data.writeInt(blockSize);
+        data.writeLong(size);
+
+        MessageDigest strong = ChunkManifest.sha256();
+        byte[] block = new byte[blockSize];
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(basis), BUFFER_SIZE)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(blockSize, remaining);
+                in.readNBytes(block, 0, length);
+                data.writeInt(weak(block, 0, length));
+                strong.update(block, 0, length);
+                data.write(strong.digest(), 0, STRONG_LENGTH);
+                remaining -= length;
+            }
+        }
+        data.flush();
+        return data.size();
+    }
+
+    /** A receiver's signature as the sender sees it, indexed by weak checksum */
+    static final class Signature {
+        private final int blockSize;
+        private final long size;
+        private final int[] weak;
+        private final byte[] strong;
+        private final int[] firstByWeak;
+        private final int tableShift;
+        private final int[] nextWithWeak;
+        private final long[] filter;
+        private final int filterShift;
+        private final MessageDigest digest = ChunkManifest.sha256();
+
+        private Signature(int blockSize, long size, int[] weak, byte[] strong) {
+            this.blockSize = blockSize;
+            this.size = size;
+            this.weak = weak;
+            this.strong = strong;
+            this.nextWithWeak = new int[weak.length];
+
+            // Sized for at least one block: an empty basis would otherwise ask for the largest tables
+            int blocks = Math.max(1, weak.length);
+
+            // Almost every window misses: a bitmap with ~64 bits per block rejects those in one load
+            int filterBits = Math.max(16, Math.min(31, 64 - Long.numberOfLeadingZeros(blocks * 64L - 1)));
+            this.filter = new long[1 << (filterBits - 6)];
+            this.filterShift = 32 - filterBits;
+
+            // Open-addressed table (load <= 1/2) from weak sum to the first block with it
+            int tableBits = Math.max(4, Math.min(30, 64 - Long.numberOfLeadingZeros(blocks * 2L - 1)));
+            this.firstByWeak = new int[1 << tableBits];
+            this.tableShift = 32 - tableBits;
+            Arrays.fill(firstByWeak, -1);
+
+            // Chain blocks with equal weak sums; iterate backwards so chains run in file order
+            for (int i = weak.length - 1; i >= 0; i--) {
+                int bit = mix(weak[i]) >>> filterShift;
+                filter[bit >>> 6] |= 1L << bit;
+                int slot = slotOf(weak[i]);
+                nextWithWeak[i] = firstByWeak[slot];
+                firstByWeak[slot] = i;
+            }
+        }
+
+        private static int mix(int weakSum) {
+            return weakSum * 0x9E3779B9;
+        }
+
+        /** The table slot holding {@code weakSum}'s chain, or the empty slot where it belongs */
+        private int slotOf(int weakSum) {
+            int mask = firstByWeak.length - 1;
+            int slot = mix(weakSum) >>> tableShift;
+            while (firstByWeak[slot] >= 0 && weak[firstByWeak[slot]] != weakSum) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        int blockCount() {
+            return weak.length;
+        }
+
+        int blockLength(int index) {
+            return (int) Math.min(blockSize, size - (long) index * blockSize);
+        }
+
+        /** False when no block has this weak sum; true means "maybe" */
+        boolean mayContain(int weakSum) {
+            int bit = mix(weakSum) >>> filterShift;
+            return (filter[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        /** A block whose content equals {@code data[offset, offset+length)}, trying {@code preferred} first; -1 if none */
+        int find(int weakSum, byte[] data, int offset, int length, int preferred) {
+            if (!mayContain(weakSum)) return -1;
+            byte[] strongSum = null;
+            if (preferred >= 0 && preferred < weak.length && weak[preferred] == weakSum
+                    && blockLength(preferred) == length) {
+                strongSum = strong(data, offset, length);
+                if (strongEquals(preferred, strongSum)) return preferred;
+            }
+            for (int i = firstByWeak[slotOf(weakSum)]; i >= 0; i = nextWithWeak[i]) {
+                if (blockLength(i) != length) continue;
+                if (strongSum == null) strongSum = strong(data, offset, length);
+                if (strongEquals(i, strongSum)) return i;
+            }
+            return -1;
+        }
+
+        private byte[] strong(byte[] data, int offset, int length) {
+            digest.update(data, offset, length);
+            return digest.digest();
+        }
+
+        private boolean strongEquals(int index, byte[] sum) {
+            int from = index * STRONG_LENGTH;
+            return Arrays.equals(strong, from, from + STRONG_LENGTH, sum, 0, STRONG_LENGTH);
+        }
+    }
+
+    /**
+     * Read a signature of {@code length} bytes (the request's Content-Length),
+     * rejecting geometry no receiver of ours would send. The declared size must
+     * match both the block size and {@code length} before anything is allocated,
+     * so a client cannot make us reserve memory for blocks it never sends.
+     */
+    static Signature readSignature(InputStream in, long length) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (data.readInt() != SIGNATURE_MAGIC) throw new IOException("Not a delta signature");
+        int blockSize = data.readInt();
+        long size = data.readLong();
+        if (size < 0 || blockSize != blockSizeFor(size) || (size + blockSize - 1) / blockSize > MAX_BLOCKS
+                || length != signatureLength(size)) {
+            throw new IOException("Unsupported signature geometry");
+        }
+        int count = (int) ((size + blockSize - 1) / blockSize);
+        int[] weak = new int[count];
+        byte[] strong = new byte[count * STRONG_LENGTH];
+        for (int i = 0; i < count; i++) {
+            weak[i] = data.readInt();
+            data.readFully(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+        }
+        return new Signature(blockSize, size, weak, strong);
+    }
+
+    // ------------------- Sender: delta ------------------------
+
+    /**
+     * Stream the delta that turns the receiver's copy (described by {@code signature})
+     * into {@code file}. The file is read once; memory use is a few blocks.
+     */
+    static void writeDelta(File file, Signature signature, OutputStream out) throws IOException {
+        new DeltaWriter(signature, out).write(file);
+    }
+
+    private static final class DeltaWriter {
+        private final Signature signature;
+        private final DataOutputStream out;
+        private final int blockSize;
+        private final byte[] buffer;
+        private final MessageDigest whole = ChunkManifest.sha256();
+        private int length;
+        private int literalStart;
+        private int copyStart = -1;
+        private int copyCount;
+
+        DeltaWriter(Signature signature, OutputStream out) {
+            this.signature = signature;
+            this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            this.blockSize = signature.blockSize;
+            this.buffer = new byte[4 * (blockSize + MAX_LITERAL)];
+        }
+
+        void write(File file) throws IOException {
+            out.writeInt(DELTA_MAGIC);
+            out.writeLong(file.length());
+            try (InputStream in = new FileInputStream(file)) {
+                scan(in);
+            }
+            out.writeByte(OP_END);
+            out.write(whole.digest());
+            out.flush();
+        }
+
+        private void scan(InputStream in) throws IOException {
+            int p = 0;
+            int a = 0, b = 0;
+            boolean haveSum = false;
+            boolean eof = false;
+            int lastMatch = -2;
+
+            while (true) {
+                if (length - p <= blockSize && !eof) {
+                    int shift = Math.min(literalStart, p);
+                    System.arraycopy(buffer, shift, buffer, 0, length - shift);
+                    length -= shift;
+                    literalStart -= shift;
+                    p -= shift;
+                    eof = fill(in);
+                }
+                int available = length - p;
+                if (available == 0) break;
+
+                if (available < blockSize) {
+                    // Only the receiver's short last block can match a short tail
+                    int last = signature.blockCount() - 1;
+                    if (last >= 0 && signature.find(weak(buffer, p, available), buffer, p, available, last) == last) {
+                        flushLiteral(p);
+                        copy(last);
+                        literalStart = length;
+                    }
+                    p = length;
+                    break;
+                }
+
+                if (!haveSum) {
+                    int sum = weak(buffer, p, blockSize);
+                    a = sum & 0xffff;
+                    b = sum >>> 16;
+                    haveSum = true;
+                }
+                int match = signature.find((b << 16) | a, buffer, p, blockSize, lastMatch + 1);
+                if (match >= 0) {
+                    flushLiteral(p);
+                    copy(match);
+                    lastMatch = match;
+                    p += blockSize;
+                    literalStart = p;
+                    haveSum = false;
+                    continue;
+                }
+
+                if (p + blockSize >= length) {
+                    // End of file: no byte to roll in, the tail is handled above
+                    haveSum = false;
+                    p++;
+                    continue;
+                }
+
+                // Roll forward while the signature's bitmap rules each window out
+                int stop = Math.min(length - blockSize, literalStart + MAX_LITERAL);
+                do {
+                    int leaving = buffer[p] & 0xff;
+                    int entering = buffer[p + blockSize] & 0xff;
+                    a = (a - leaving + entering) & 0xffff;
+                    b = (b - blockSize * leaving + a) & 0xffff;
+                    p++;
+                } while (p < stop && !signature.mayContain((b << 16) | a));
+                if (p - literalStart >= MAX_LITERAL) flushLiteral(p);
+            }
+            flushLiteral(p);
+            flushCopy();
+        }
+
+        /** Read until the buffer is full or the file ends; true at end of file */
+        private boolean fill(InputStream in) throws IOException {
+            while (length < buffer.length) {
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n == -1) return true;
+                whole.update(buffer, length, n);
+                length += n;
+            }
+            return false;
+        }
+
+        private void copy(int block) throws IOException {
+            if (copyStart >= 0 && block == copyStart + copyCount) {
+                copyCount++;
+                return;
+            }
+            flushCopy();
+            copyStart = block;
+            copyCount = 1;
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyStart < 0) return;
+            out.writeByte(OP_COPY);
+            out.writeInt(copyStart);
+            out.writeInt(copyCount);
+            copyStart = -1;
+        }
+
+        private void flushLiteral(int end) throws IOException {
+            if (end <= literalStart) return;
+            flushCopy();
+            out.writeByte(OP_LITERAL);
+            out.writeInt(end - literalStart);
+            out.write(buffer, literalStart, end - literalStart);
+            literalStart = end;
+        }
+    }
+
+    // ------------------- Receiver: rebuild ------------------------
+
+    /**
+     * Rebuild the new version into {@code output} from {@code basis} and the delta
+     * stream, checking the result against the sender's whole-file SHA-256.
+     */
+    static Result apply(InputStream delta, Path basis, Path output, long signatureBytes) throws IOException {
+        CountingInputStream counted = new CountingInputStream(delta);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(counted, BUFFER_SIZE));
+        if (in.readInt() != DELTA_MAGIC) throw new IOException("Not a delta stream");
+        long size = in.readLong();
+
+        long basisSize = Files.size(basis);
+        int blockSize = blockSizeFor(basisSize);
+        MessageDigest digest = ChunkManifest.sha256();
+        long copied = 0, literal = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (FileChannel source = FileChannel.open(basis, StandardOpenOption.READ);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), BUFFER_SIZE)) {
+            while (true) {
+                byte op = in.readByte();
+                if (op == OP_END) break;
+                if (op == OP_COPY) {
+                    long position = (long) in.readInt() * blockSize;
+                    long end = Math.min(basisSize, position + (long) in.readInt() * blockSize);
+                    if (position < 0 || position >= end) throw new IOException("Bad copy instruction");
+                    while (position < end) {
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+                        int n = source.read(chunk, position);
+                        if (n < 0) throw new EOFException("Local copy changed during sync");
+                        digest.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        position += n;
+                        copied += n;
+                    }
+                } else if (op == OP_LITERAL) {
+                    int remaining = in.readInt();
+                    if (remaining < 0) throw new IOException("Bad literal length");
+                    while (remaining > 0) {
+                        int n = Math.min(buffer.length, remaining);
+                        in.readFully(buffer, 0, n);
+                        digest.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        remaining -= n;
+                        literal += n;
+                    }
+                } else {
+                    throw new IOException("Unknown delta instruction " + op);
+                }
+            }
+        }
+
+        byte[] expected = new byte[32];
+        in.readFully(expected);
+        if (copied + literal != size || !MessageDigest.isEqual(expected, digest.digest())) {
+            throw new IOException("Rebuilt file does not match the sender's copy");
+        }
+        return new Result(output, size, copied, literal, signatureBytes, counted.count);
+    }
+
+    // ------------------- Checksums ------------------------
+
+    /** rsync's weak checksum: two 16-bit sums, the second weighted by position */
+    static int weak(byte[] data, int offset, int length) {
+        int a = 0, b = 0;
+        for (int i = 0; i < length; i++) {
+            a += data[offset + i] & 0xff;
+            b += (length - i) * (data[offset + i] & 0xff);
+        }
+        return ((b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
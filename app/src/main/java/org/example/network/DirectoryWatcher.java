@@ -0,0 +1,227 @@
+package org.example.network;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DirectoryWatcher: keeps a {@link ShareCatalog} in step with the directories it
+ * shares. Every directory below a shared root is registered with a
+ * {@link WatchService}; events are collected until the tree has been quiet for
+ * {@link #DEBOUNCE_MS} (or {@link #MAX_DELAY_MS} at most, for files that keep
+ * growing) and then applied as one catalog version, touching only the paths that
+ * changed. When the OS drops events, the affected root is rescanned instead.
+ */
+public final class DirectoryWatcher implements Closeable {
+
+    private static final long DEBOUNCE_MS = 300;
+    private static final long MAX_DELAY_MS = 2_000;
+    private static final long POLL_MS = 250;
+
+    private final ShareCatalog catalog;
+    private final WatchService watchService;
+    private final Map<WatchKey, Watched> keys = new HashMap<>();
+    private final Map<String, Path> roots = new HashMap<>();
+    private final Map<Path, Root> pending = new HashMap<>();
+    private final Set<Root> rescans = new HashSet<>();
+    private final Runnable catalogListener = () -> rootsChanged = true;
+    private final Thread thread;
+    private volatile boolean rootsChanged = true;
+    private volatile boolean closed;
+
+    /** A shared directory and the catalog path its files are listed under */
+    private record Root(String base, Path dir) {
+        String pathOf(Path file) {
+            return base + "/" + dir.relativize(file).toString().replace(File.separatorChar, '/');
+        }
+    }
+
+    /** One registered directory somewhere below {@code root} */
+    private record Watched(Root root, Path dir) {
+    }
+
+    private DirectoryWatcher(ShareCatalog catalog) throws IOException {
+        this.catalog = catalog;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = Thread.ofPlatform().daemon().name("directory-watcher").unstarted(this::run);
+    }
+
+    /** Watch every directory {@code catalog} shares, now and as more are added */
+    public static DirectoryWatcher start(ShareCatalog catalog) throws IOException {
+        DirectoryWatcher watcher = new DirectoryWatcher(catalog);
+        catalog.addListener(watcher.catalogListener);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        catalog.removeListener(catalogListener);
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() {
+        long firstEvent = 0;
+        long lastEvent = 0;
+        try {
+            while (!closed) {
+                if (rootsChanged) {
+                    rootsChanged = false;
+                    addNewRoots();
+                }
+                WatchKey key = watchService.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (key != null) {
+                    do {
+                        handle(key);
+                    } while ((key = watchService.poll()) != null);
+                    if (firstEvent == 0) firstEvent = now;
+                    lastEvent = now;
+                }
+                if (firstEvent != 0 && (now - lastEvent >= DEBOUNCE_MS || now - firstEvent >= MAX_DELAY_MS)) {
+                    flush();
+                    firstEvent = 0;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /** Register directories the catalog started sharing since last time */
+    private void addNewRoots() {
+        for (Map.Entry<String, Path> shared : catalog.directories().entrySet()) {
+            if (shared.getValue().equals(roots.get(shared.getKey()))) continue;
+            roots.put(shared.getKey(), shared.getValue());
+            register(new Root(shared.getKey(), shared.getValue()), shared.getValue(), false);
+            System.out.println("[DirectoryWatcher] Watching " + shared.getValue());
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Watched watched = keys.get(key);
+        if (watched == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescans.add(watched.root());
+                continue;
+            }
+            Path child = watched.dir().resolve((Path) event.context());
+            pending.put(child, watched.root());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // Files can land in a new directory before it is registered; pick them up while registering
+                register(watched.root(), child, true);
+            }
+        }
+        if (!key.reset()) keys.remove(key);
+    }
+
+    /** Register {@code dir} and every directory below it; with {@code collect}, queue the files found too */
+    private void register(Root root, Path dir, boolean collect) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                    WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    keys.put(key, new Watched(root, path));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (collect && attrs.isRegularFile()) pending.put(file, root);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("[DirectoryWatcher] Could not watch " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /** Apply everything collected since the last flush to the catalog as one change */
+    private void flush() {
+        Map<String, File> updated = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        List<String> removedDirs = new ArrayList<>();
+        for (Map.Entry<Path, Root> change : pending.entrySet()) {
+            Path path = change.getKey();
+            String catalogPath = change.getValue().pathOf(path);
+            if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                updated.put(catalogPath, path.toFile());
+            } else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                // A file or a whole directory; the catalog only knows files
+                if (catalog.byPath(catalogPath) != null) removed.add(catalogPath);
+                else removedDirs.add(catalogPath + "/");
+            }
+        }
+        pending.clear();
+        for (Root root : rescans) {
+            rescan(root, updated, removed);
+        }
+        rescans.clear();
+        if (!removedDirs.isEmpty()) {
+            for (ShareCatalog.Entry entry : catalog.entries()) {
+                for (String prefix : removedDirs) {
+                    if (entry.path().startsWith(prefix)) removed.add(entry.path());
+                }
+            }
+        }
+        if (updated.isEmpty() && removed.isEmpty()) return;
+        long before = catalog.version();
+        catalog.apply(updated, removed);
+        if (catalog.version() != before) {
+            System.out.println("[DirectoryWatcher] Catalog v" + catalog.version() + ": "
+                    + updated.size() + " updated, " + removed.size() + " removed");
+        }
+    }
+
+    /** Events were lost under {@code root}: compare the whole tree with the catalog */
+    private void rescan(Root root, Map<String, File> updated, Set<String> removed) {
+        Set<String> present = new HashSet<>();
+        try {
+            Files.walkFileTree(root.dir(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        String path = root.pathOf(file);
+                        present.add(path);
+                        updated.put(path, file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("[DirectoryWatcher] Could not rescan " + root.dir() + ": " + e.getMessage());
+        }
+        String prefix = root.base() + "/";
+        for (ShareCatalog.Entry entry : catalog.entries()) {
+            if (entry.path().startsWith(prefix) && !present.contains(entry.path())) removed.add(entry.path());
+        }
+        // Directories created while events were being dropped are not registered yet
+        register(root, root.dir(), false);
+    }
+}
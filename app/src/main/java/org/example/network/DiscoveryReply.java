@@ -0,0 +1,135 @@
+package org.example.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * DiscoveryReply: what a sender tells a scanning receiver, in one small binary
+ * datagram. The receiver takes the address from the packet itself, so the
+ * reply only carries the HTTP port. Big-endian layout:
+ * <pre>
+ *  0  magic "BSDR"
+ *  4  version          u8   (1)
+ *  5  flags            u8   (bit 0: multicast group follows; bit 1: HTTPS; bit 2: swarm peer)
+ *  6  HTTP port        u16
+ *  8  file count       i32
+ * 12  total bytes      i64
+ * 20  catalog version  i64
+ * 28  content digest   i64  (same files shared => same digest)
+ * 36  active transfers u16
+ * 38  spare capacity   u16  (transfers it can take before queueing)
+ * 40  [multicast IPv4 address, u16 port]
+ * </pre>
+ * Later versions may append fields; readers ignore bytes they do not know.
+ * A field a sender cannot report is -1. A swarm peer (a receiver re-serving
+ * chunks it holds, see {@link Swarm}) reports its chunk server's port, how many
+ * files and bytes it holds, and its upload slots as transfers and capacity.
+ */
+public record DiscoveryReply(int port, InetSocketAddress multicastGroup, int fileCount, long totalBytes,
+                             long catalogVersion, long contentDigest, int activeTransfers, int spareCapacity,
+                             boolean secure, boolean peer) {
+
+    static final byte VERSION = 1;
+    private static final byte[] MAGIC = {'B', 'S', 'D', 'R'};
+    private static final int FIXED_LENGTH = 40;
+    private static final int FLAG_MULTICAST = 1;
+    private static final int FLAG_SECURE = 2;
+    private static final int FLAG_PEER = 4;
+    private static final int MAX_U16 = 0xFFFF;
+    private static final String LEGACY_PREFIX = "BYTESHARE::";
+
+    byte[] toBytes() {
+        boolean multicast = multicastGroup != null && multicastGroup.getAddress() instanceof Inet4Address;
+        ByteBuffer out = ByteBuffer.allocate(FIXED_LENGTH + (multicast ? 6 : 0))
+                .put(MAGIC)
+                .put(VERSION)
+                .put((byte) ((multicast ? FLAG_MULTICAST : 0) | (secure ? FLAG_SECURE : 0)
+                        | (peer ? FLAG_PEER : 0)))
+                .putShort((short) port)
+                .putInt(fileCount)
+                .putLong(totalBytes)
+                .putLong(catalogVersion)
+                .putLong(contentDigest)
+                .putShort((short) Math.min(activeTransfers, MAX_U16))
+                .putShort((short) Math.max(0, Math.min(spareCapacity, MAX_U16)));
+        if (multicast) {
+            out.put(multicastGroup.getAddress().getAddress()).putShort((short) multicastGroup.getPort());
+        }
+        return out.array();
+    }
+
+    /** Parse a reply datagram, binary or the older {@code BYTESHARE::ip:port} text; null if it is neither */
+    static DiscoveryReply parse(ByteBuffer packet) {
+        if (packet.remaining() >= FIXED_LENGTH && packet.get(packet.position()) == MAGIC[0]
+                && packet.get(packet.position() + 1) == MAGIC[1]
+                && packet.get(packet.position() + 2) == MAGIC[2]
+                && packet.get(packet.position() + 3) == MAGIC[3]) {
+            return parseBinary(packet.position(packet.position() + MAGIC.length));
+        }
+        String text = StandardCharsets.UTF_8.decode(packet).toString().trim();
+        return text.startsWith(LEGACY_PREFIX) ? parseLegacy(text.substring(LEGACY_PREFIX.length())) : null;
+    }
+
+    private static DiscoveryReply parseBinary(ByteBuffer in) {
+        if (in.get() < 1) return null;
+        int flags = in.get();
+        int port = in.getShort() & MAX_U16;
+        int fileCount = in.getInt();
+        long totalBytes = in.getLong();
+        long catalogVersion = in.getLong();
+        long contentDigest = in.getLong();
+        int active = in.getShort() & MAX_U16;
+        int spare = in.getShort() & MAX_U16;
+        InetSocketAddress group = null;
+        if ((flags & FLAG_MULTICAST) != 0 && in.remaining() >= 6) {
+            byte[] address = new byte[4];
+            in.get(address);
+            try {
+                group = new InetSocketAddress(InetAddress.getByAddress(address), in.getShort() & MAX_U16);
+            } catch (UnknownHostException e) {
+                // Four bytes are always a valid IPv4 address
+            }
+        }
+        return new DiscoveryReply(port, group, fileCount, totalBytes, catalogVersion, contentDigest, active, spare,
+                (flags & FLAG_SECURE) != 0, (flags & FLAG_PEER) != 0);
+    }
+
+    /** Old senders: {@code ip:port}, nothing else known */
+    private static DiscoveryReply parseLegacy(String body) {
+        int fields = body.indexOf("::");
+        if (fields >= 0) body = body.substring(0, fields);
+        try {
+            int port = Integer.parseInt(body.substring(body.lastIndexOf(':') + 1).trim());
+            return new DiscoveryReply(port, null, -1, -1, -1, -1, -1, -1, false, false);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Digest of the shared paths and sizes: senders sharing the same files report the same value */
+    static long contentDigest(ShareCatalog catalog) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer size = ByteBuffer.allocate(Long.BYTES);
+            for (ShareCatalog.Entry entry : catalog.entries()) {
+                digest.update(entry.path().getBytes(StandardCharsets.UTF_8));
+                digest.update(size.clear().putLong(entry.size()).array());
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Whether this sender is less busy than {@code other}: more spare capacity, then fewer transfers */
+    public boolean isLessLoadedThan(DiscoveryReply other) {
+        if (spareCapacity != other.spareCapacity) return spareCapacity > other.spareCapacity;
+        return activeTransfers < other.activeTransfers;
+    }
+}
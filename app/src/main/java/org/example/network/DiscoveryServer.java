@@ -0,0 +1,67 @@
+package org.example.network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Discovery UDP server: answers every {@code DISCOVER_BYTESHARE} probe with the
+ * current {@link DiscoveryReply}. The port is bound with {@code SO_REUSEADDR}, so
+ * several senders and swarm peers on one host can all listen; probes are
+ * broadcast, and a broadcast reaches every socket sharing the port.
+ */
+final class DiscoveryServer extends Thread {
+
+    static final int PORT = 60000; // Fixed port for discovery
+
+    private final String name;
+    private volatile boolean running = true;
+    private volatile byte[] reply;
+    private DatagramSocket socket;
+
+    /** {@code name} prefixes log lines, e.g. the owner's class */
+    DiscoveryServer(String name, DiscoveryReply reply) {
+        this.name = name;
+        this.reply = reply.toBytes();
+    }
+
+    /** Replace the reply; probes are answered from these bytes until the next change */
+    void update(DiscoveryReply reply) {
+        this.reply = reply.toBytes();
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = new DatagramSocket(null);
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(PORT));
+            System.out.println("[" + name + "] Listening for discovery on port " + PORT);
+
+            byte[] buffer = new byte[512];
+            byte[] probe = "DISCOVER_BYTESHARE".getBytes(StandardCharsets.US_ASCII);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (running) {
+                packet.setData(buffer);
+                socket.receive(packet);
+
+                if (Arrays.equals(buffer, 0, packet.getLength(), probe, 0, probe.length)) {
+                    byte[] replyData = reply;
+                    socket.send(new DatagramPacket(replyData, replyData.length,
+                            packet.getAddress(), packet.getPort()));
+                    Metrics.shared().discoveryAnswered();
+                }
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    void stopServer() {
+        running = false;
+        if (socket != null && !socket.isClosed()) socket.close();
+    }
+}
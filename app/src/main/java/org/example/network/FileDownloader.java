@@ -0,0 +1,690 @@
+package org.example.network;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * FileDownloader: fetches files from a ByteShare sender into a local directory.
+ * Bytes land in {@code <name>.part} next to the target; an interrupted transfer
+ * resumes from the last offset recorded next to it with a {@code Range} request
+ * guarded by {@code If-Range}, so a changed file on the sender restarts cleanly.
+ * Part files are sized from {@code Content-Length} up front and written through
+ * a {@link WriteEngine}, which also decides when they are synced to disk.
+ * In segmented mode large files are fetched as parallel byte ranges instead
+ * (see {@link SegmentedDownload}). Fresh sequential fetches accept gzip/deflate
+ * and are decompressed as they stream to disk. When the sender publishes a
+ * {@link ChunkManifest}, every chunk is checked as it is written and only
+ * chunks that fail are fetched again. With a {@link Swarm}, large verified files
+ * are fetched from the sender and from peers at once (see {@link SwarmDownload})
+ * and re-served once they are in. A sender at capacity answers 503; the download
+ * waits as long as it says and tries again, without spending one of its attempts.
+ */
+public class FileDownloader {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SEGMENTED_THRESHOLD = 32L * 1024 * 1024;
+    private static final long STATE_SAVE_INTERVAL = 64L * 1024 * 1024;
+    private static final String RECEIVED_KEY = "received";
+    private static final int MAX_REPAIR_ROUNDS = 3;
+    private static final long MAX_BUSY_WAIT_MS = 10 * 60_000;
+
+    private final String serverUrl;
+    private final String pin;
+    private boolean segmented;
+    private int maxConnections = 8;
+    private boolean verify = true;
+    private TransferProgress.Transfer progress = TransferProgress.Transfer.NONE;
+    private WriteEngine writeEngine = WriteEngine.shared();
+    private Swarm swarm;
+
+    public FileDownloader(String serverUrl, String pin) {
+        this.serverUrl = serverUrl;
+        this.pin = pin;
+    }
+
+    /** The sender's address, as given in its URL */
+    InetAddress senderAddress() throws IOException {
+        return InetAddress.getByName(new URL(serverUrl).getHost());
+    }
+
+    /** Fetch large files as parallel byte-range segments */
+    public void setSegmented(boolean segmented) {
+        this.segmented = segmented;
+    }
+
+    /** Upper bound for concurrent connections per file in segmented mode */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /** Report bytes received to {@code progress} as they arrive */
+    public void setProgress(TransferProgress.Transfer progress) {
+        this.progress = progress;
+    }
+
+    /** Buffers and sync policy for writing files; {@link WriteEngine#shared()} unless set */
+    public void setWriteEngine(WriteEngine writeEngine) {
+        this.writeEngine = writeEngine;
+    }
+
+    /**
+     * Fetch chunks from swarm peers too, and offer what is downloaded to them in
+     * turn. Not used for HTTPS senders, whose files should not leave their encryption.
+     */
+    public void setSwarm(Swarm swarm) {
+        this.swarm = swarm;
+    }
+
+    /** Check chunks against the sender's manifest (on by default) */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Ask the sender whether the PIN is right. The sender only confirms or refuses;
+     * senders from before that change answer with the PIN itself, which is compared here.
+     */
+    public boolean checkPin() throws IOException {
+        HttpURLConnection connection = open(new URL(serverUrl + "/pin?pin="
+                + URLEncoder.encode(pin, StandardCharsets.UTF_8)));
+        try {
+            int status = connection.getResponseCode();
+            if (status == 204) return true;
+            if (status == 403) return false;
+            if (status != 200) throw new IOException("Server returned HTTP " + status);
+            try (InputStream in = connection.getInputStream()) {
+                return pin.equals(new String(in.readAllBytes(), StandardCharsets.UTF_8).trim());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Download one file (by its catalog path, which may contain folders) into
+     * {@code targetDir}, resuming any earlier partial copy.
+     */
+    public Path download(String fileName, Path targetDir) throws IOException {
+        Path target = resolveTarget(targetDir.toAbsolutePath().normalize(), fileName);
+        Files.createDirectories(target.getParent());
+        Path part = partFile(target);
+        Path meta = metaFile(target);
+
+        IOException lastError = null;
+        long busyWaited = 0;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                Properties state = loadState(meta);
+                ChunkVerifier verifier = verify ? fetchManifest(fileName, state) : null;
+                if (useSwarm(verifier)) {
+                    new SwarmDownload(swarm, downloadUrl(fileName), part, meta, state, verifier, maxConnections,
+                            progress, writeEngine).run();
+                } else if (segmented && prepareSegmented(fileName, state)) {
+                    new SegmentedDownload(downloadUrl(fileName), part, meta, state, maxConnections, verifier, progress,
+                            writeEngine).run();
+                } else {
+                    fetchInto(fileName, part, meta, state, verifier);
+                }
+                if (verifier != null) {
+                    repair(fileName, part, meta, state, verifier);
+                }
+                writeEngine.commit(part, target);
+                Files.deleteIfExists(meta);
+                if (swarm != null && verifier != null && !serverUrl.startsWith("https:")) {
+                    swarm.seed(verifier.manifest(), target);
+                }
+                return target;
+            } catch (SenderBusyException e) {
+                lastError = e;
+                if (busyWaited + e.retryAfterMs > MAX_BUSY_WAIT_MS) break;
+                System.out.println("[FileDownloader] " + fileName + ": sender busy, retrying in "
+                        + e.retryAfterMs / 1000 + " s");
+                busyWaited += e.retryAfterMs;
+                attempt--;
+                try {
+                    Thread.sleep(e.retryAfterMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted while the sender was busy");
+                }
+            } catch (IOException e) {
+                lastError = e;
+                System.out.println("[FileDownloader] " + fileName + " interrupted (attempt "
+                        + attempt + "): " + e.getMessage());
+                sleepBeforeRetry(attempt);
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * Receive a file the sender is still writing (a log, a recording) and keep
+     * appending what is added to it, until the sender ends the stream because the
+     * file has not grown for {@code idleSeconds}. Bytes go to the part file as
+     * they arrive; it is moved into place when the stream ends. A dropped
+     * connection picks up again from the bytes already here. Senders without
+     * follow mode get a plain {@link #download}.
+     */
+    public Path follow(String fileName, Path targetDir, int idleSeconds) throws IOException {
+        Path target = resolveTarget(targetDir.toAbsolutePath().normalize(), fileName);
+        Files.createDirectories(target.getParent());
+        Path part = partFile(target);
+        Path meta = metaFile(target);
+        if (Files.exists(meta)) {
+            // Left by a regular download: its part file may be preallocated, so it says nothing about progress
+            Files.deleteIfExists(part);
+            Files.delete(meta);
+        }
+        long offset = Files.exists(part) ? Files.size(part) : 0;
+        progress.begin(-1, offset);
+
+        IOException lastError = null;
+        long busyWaited = 0;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                if (!followInto(fileName, part, offset, idleSeconds)) {
+                    System.out.println("[FileDownloader] Sender cannot follow " + fileName + "; downloading it as is");
+                    return download(fileName, targetDir);
+                }
+                writeEngine.commit(part, target);
+                return target;
+            } catch (SenderBusyException e) {
+                lastError = e;
+                if (busyWaited + e.retryAfterMs > MAX_BUSY_WAIT_MS) break;
+                busyWaited += e.retryAfterMs;
+                attempt--;
+                try {
+                    Thread.sleep(e.retryAfterMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Follow interrupted while the sender was busy");
+                }
+            } catch (IOException e) {
+                lastError = e;
+                long received = Files.exists(part) ? Files.size(part) : 0;
+                // Only attempts that get nothing count; a long follow may reconnect many times
+                if (received > offset) attempt = 0;
+                offset = received;
+                System.out.println("[FileDownloader] " + fileName + " follow interrupted at " + offset
+                        + " bytes: " + e.getMessage());
+                sleepBeforeRetry(Math.max(1, attempt));
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * One follow request from {@code offset}: append everything the sender streams
+     * until it ends the body. Returns false, having written nothing, if the sender
+     * does not know follow mode.
+     */
+    private boolean followInto(String fileName, Path part, long offset, int idleSeconds) throws IOException {
+        HttpURLConnection connection = open(new URL(downloadUrl(fileName) + "&follow=" + idleSeconds
+                + "&offset=" + offset));
+        // Nothing arrives while the file is idle, and the sender only ends the body after the idle period
+        connection.setReadTimeout(idleSeconds * 1000 + READ_TIMEOUT_MS);
+        try {
+            int status = connection.getResponseCode();
+            rejectIfBusy(connection, status);
+            if (status == 416) {
+                // Shorter than what we already have: the file was replaced, start over
+                Files.deleteIfExists(part);
+                throw new IOException("File on sender is shorter than the part received");
+            }
+            if (status != 200) throw new IOException("Server returned HTTP " + status);
+            if (!Long.toString(offset).equals(connection.getHeaderField("X-Follow-Offset"))) return false;
+
+            FileChannel channel = writeEngine.open(part, -1, offset == 0);
+            WriteEngine.Writer out = writeEngine.writer(channel, offset);
+            try (channel; out; InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    progress.add(n);
+                    // Caught up with the sender: make what arrived visible before waiting for more
+                    if (in.available() == 0) out.flush();
+                }
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Fetch the missing tail of the file into the part file */
+    private void fetchInto(String fileName, Path part, Path meta, Properties state, ChunkVerifier verifier)
+            throws IOException {
+        if (state.containsKey(SegmentedDownload.SEGMENT_SIZE_KEY) || state.containsKey(SwarmDownload.SWARM_KEY)) {
+            // A segmented or swarmed part file is preallocated, so its length says nothing about progress
+            Files.deleteIfExists(part);
+            state.clear();
+            if (verifier != null) verifier.reset();
+        }
+        String etag = state.getProperty("etag");
+        long offset = 0;
+        if (etag != null && !etag.isEmpty() && Files.exists(part)) {
+            // The part file is preallocated, so progress is the recorded offset (or its length, for older part files)
+            String received = state.getProperty(RECEIVED_KEY);
+            offset = received != null ? Math.min(Long.parseLong(received), Files.size(part)) : Files.size(part);
+        }
+        if (verifier != null && offset > verifier.verifiedPrefix()) {
+            // Resume on a chunk boundary so the chunk being continued can still be hashed
+            offset = verifier.verifiedPrefix();
+        }
+
+        HttpURLConnection connection = open(downloadUrl(fileName));
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            connection.setRequestProperty("If-Range", etag);
+        } else {
+            connection.setRequestProperty("Accept-Encoding", ContentCoding.ACCEPTED);
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            rejectIfBusy(connection, status);
+            if (status == 416 && offset > 0) {
+                // Part already holds every byte when its length matches the total
+                long total = ByteRange.contentRangeTotal(connection.getHeaderField("Content-Range"));
+                if (total == offset) return;
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(meta);
+                throw new IOException("Partial file no longer matches sender, restarting");
+            }
+
+            boolean encoded = connection.getContentEncoding() != null;
+            boolean append;
+            if (status == 206) {
+                ByteRange range = ByteRange.parseContentRange(connection.getHeaderField("Content-Range"));
+                if (range == null || range.start() != offset) {
+                    throw new IOException("Unexpected Content-Range: " + connection.getHeaderField("Content-Range"));
+                }
+                append = true;
+            } else if (status == 200) {
+                // Fresh transfer, or the validator changed and the sender sent everything.
+                // Decoded bytes cannot be resumed by range, so an encoded body keeps no validator.
+                append = false;
+                String validator = connection.getHeaderField("ETag");
+                if (verifier != null) {
+                    if (!verifier.manifest().describes(validator)) {
+                        throw new IOException("File changed on sender since its manifest was fetched");
+                    }
+                    verifier.reset();
+                }
+                state.setProperty("etag", validator != null && !encoded ? validator : "");
+                state.setProperty(RECEIVED_KEY, "0");
+                saveState(meta, state);
+            } else {
+                throw new IOException("Server returned HTTP " + status);
+            }
+
+            long expected = connection.getContentLengthLong();
+            long start = append ? offset : 0;
+            long total = encoded || expected < 0 ? -1 : start + expected;
+            progress.begin(total, start);
+            long received = 0;
+            long unsaved = 0;
+            ChunkVerifier.Stream hashes = verifier != null ? verifier.stream(start) : null;
+            // Decoded length is unknown up front, so an encoded body grows the file as it goes
+            FileChannel channel = writeEngine.open(part, total, !append);
+            WriteEngine.Writer out = writeEngine.writer(channel, start);
+            try (channel; out; InputStream in = ContentCoding.openDecoded(connection)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    if (hashes != null) hashes.update(buffer, 0, n);
+                    progress.add(n);
+                    received += n;
+                    unsaved += n;
+                    if (unsaved >= STATE_SAVE_INTERVAL) {
+                        out.flush();
+                        saveProgress(meta, state, verifier, out.flushed());
+                        unsaved = 0;
+                    }
+                }
+                out.flush();
+                // Drop anything past the data, e.g. a preallocation for a longer earlier version
+                channel.truncate(out.flushed());
+            } finally {
+                saveProgress(meta, state, verifier, out.flushed());
+            }
+            // Content-Length counts encoded bytes; the gzip/deflate trailer checks an encoded body instead
+            if (!encoded && expected >= 0 && received != expected) {
+                throw new EOFException("Connection closed after " + received + " of " + expected + " bytes");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Bring an existing local copy of {@code fileName} up to date by transferring only
+     * what changed (see {@link DeltaSync}). The new version is rebuilt next to the old
+     * one and then moved over it. Without a local copy, or when the sender does not
+     * support delta sync, this is a plain {@link #download}.
+     */
+    public DeltaSync.Result syncDelta(String fileName, Path targetDir) throws IOException {
+        Path target = resolveTarget(targetDir.toAbsolutePath().normalize(), fileName);
+        if (!Files.isRegularFile(target)) {
+            return fullTransfer(fileName, targetDir);
+        }
+
+        long signatureBytes = DeltaSync.signatureLength(Files.size(target));
+        HttpURLConnection connection = open(new URL(serverUrl + "/delta?file="
+                + URLEncoder.encode(fileName, StandardCharsets.UTF_8)
+                + "&pin=" + URLEncoder.encode(pin, StandardCharsets.UTF_8)));
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(signatureBytes);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        Path rebuilt = target.resolveSibling(target.getFileName() + ".delta");
+        try {
+            try (OutputStream out = connection.getOutputStream()) {
+                DeltaSync.writeSignature(target, out);
+            }
+            int status = connection.getResponseCode();
+            rejectIfBusy(connection, status);
+            if (status == 404 || status == 405) {
+                connection.disconnect();
+                return fullTransfer(fileName, targetDir);
+            }
+            if (status != 200) throw new IOException("Server returned HTTP " + status);
+
+            DeltaSync.Result result;
+            try (InputStream in = progress.count(connection.getInputStream())) {
+                result = DeltaSync.apply(in, target, rebuilt, signatureBytes);
+            }
+            writeEngine.commit(rebuilt, target);
+            System.out.println("[FileDownloader] Delta-synced " + fileName + ": " + result.copiedBytes()
+                    + " bytes reused, " + result.literalBytes() + " bytes sent");
+            return new DeltaSync.Result(target, result.size(), result.copiedBytes(), result.literalBytes(),
+                    result.signatureBytes(), result.deltaBytes());
+        } finally {
+            Files.deleteIfExists(rebuilt);
+            connection.disconnect();
+        }
+    }
+
+    private DeltaSync.Result fullTransfer(String fileName, Path targetDir) throws IOException {
+        Path saved = download(fileName, targetDir);
+        long size = Files.size(saved);
+        return new DeltaSync.Result(saved, size, 0, size, 0, size);
+    }
+
+    /**
+     * Fetch the sender's chunk manifest for {@code fileName}; null when the sender
+     * has none (an older version) so the download simply goes unverified.
+     */
+    private ChunkVerifier fetchManifest(String fileName, Properties state) throws IOException {
+        ChunkManifest manifest = manifest(fileName);
+        if (manifest == null) {
+            System.out.println("[FileDownloader] No manifest for " + fileName + ", not verifying");
+            return null;
+        }
+        return new ChunkVerifier(manifest, state);
+    }
+
+    /** The sender's chunk manifest for {@code fileName}, fetched with the PIN; null if it has none */
+    ChunkManifest manifest(String fileName) throws IOException {
+        HttpURLConnection connection = open(new URL(serverUrl + "/manifest?file="
+                + URLEncoder.encode(fileName, StandardCharsets.UTF_8)
+                + "&pin=" + URLEncoder.encode(pin, StandardCharsets.UTF_8)));
+        connection.setRequestProperty("Accept-Encoding", ContentCoding.ACCEPTED);
+        try {
+            int status = connection.getResponseCode();
+            if (status == 404 || status == 405) return null;
+            if (status != 200) throw new IOException("Manifest request returned HTTP " + status);
+            try (InputStream in = ContentCoding.openDecoded(connection)) {
+                return ChunkManifest.parse(in);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Re-fetch every chunk that is not verified yet, as byte ranges pinned to the
+     * manifest's version, until all chunks check out.
+     */
+    private void repair(String fileName, Path part, Path meta, Properties state, ChunkVerifier verifier)
+            throws IOException {
+        ChunkManifest manifest = verifier.manifest();
+        for (int round = 1; ; round++) {
+            List<ByteRange> missing = verifier.missingRanges();
+            if (missing.isEmpty()) {
+                System.out.println("[FileDownloader] " + fileName + " verified (root " + manifest.rootHex() + ")");
+                return;
+            }
+            if (round > MAX_REPAIR_ROUNDS) {
+                throw new IOException(fileName + ": chunks still corrupt after " + MAX_REPAIR_ROUNDS + " re-fetches");
+            }
+            System.out.println("[FileDownloader] Re-fetching " + missing.size() + " damaged range(s) of " + fileName);
+
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                for (ByteRange range : missing) {
+                    fetchRange(fileName, part, meta, manifest.etag(), range, channel, verifier.stream(range.start()));
+                }
+            } finally {
+                verifier.save(state);
+                saveState(meta, state);
+            }
+        }
+    }
+
+    private void fetchRange(String fileName, Path part, Path meta, String etag, ByteRange range,
+                            FileChannel channel, ChunkVerifier.Stream hashes) throws IOException {
+        HttpURLConnection connection = open(downloadUrl(fileName));
+        connection.setRequestProperty("Range", range.toRangeHeader());
+        connection.setRequestProperty("If-Range", etag);
+        try {
+            int status = connection.getResponseCode();
+            rejectIfBusy(connection, status);
+            if (status == 200) {
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(meta);
+                throw new IOException("File changed on sender, restarting download");
+            }
+            ByteRange received = ByteRange.parseContentRange(connection.getHeaderField("Content-Range"));
+            if (status != 206 || !range.equals(received)) {
+                throw new IOException("Unexpected response " + status + " re-fetching " + range.toRangeHeader());
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (WriteEngine.Writer out = writeEngine.writer(channel, range.start());
+                 InputStream in = connection.getInputStream()) {
+                int n;
+                while (out.position() <= range.end()
+                        && (n = in.read(buffer, 0, (int) Math.min(buffer.length, range.end() + 1 - out.position()))) != -1) {
+                    hashes.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Download several files as one streamed TAR from {@code /archive} and unpack
+     * each entry as it arrives. Entries are written to part files and moved into
+     * place once complete; names that would escape {@code targetDir} are rejected.
+     */
+    public List<Path> downloadArchive(List<String> fileNames, Path targetDir) throws IOException {
+        StringBuilder url = new StringBuilder(serverUrl).append("/archive?format=tar&pin=")
+                .append(URLEncoder.encode(pin, StandardCharsets.UTF_8));
+        for (String name : fileNames) {
+            url.append("&file=").append(URLEncoder.encode(name, StandardCharsets.UTF_8));
+        }
+
+        Path root = targetDir.toAbsolutePath().normalize();
+        List<Path> saved = new ArrayList<>();
+        HttpURLConnection connection = open(new URL(url.toString()));
+        try {
+            int status = connection.getResponseCode();
+            rejectIfBusy(connection, status);
+            if (status != 200) throw new IOException("Server returned HTTP " + status);
+
+            try (InputStream in = new BufferedInputStream(progress.count(connection.getInputStream()), BUFFER_SIZE)) {
+                TarFormat.Reader archive = new TarFormat.Reader(in);
+                TarFormat.Entry entry;
+                while ((entry = archive.next()) != null) {
+                    Path target = resolveTarget(root, entry.name());
+                    Files.createDirectories(target.getParent());
+                    Path part = partFile(target);
+                    try (FileChannel channel = writeEngine.open(part, entry.size(), true);
+                         WriteEngine.Writer out = writeEngine.writer(channel, 0);
+                         InputStream data = archive.entryStream()) {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int n;
+                        while ((n = data.read(buffer)) != -1) out.write(buffer, 0, n);
+                    }
+                    writeEngine.commit(part, target);
+                    saved.add(target);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return saved;
+    }
+
+    /**
+     * Decide whether a file is worth segmenting: resume an earlier segmented
+     * attempt, or probe with HEAD for size, validator and range support.
+     */
+    private boolean prepareSegmented(String fileName, Properties state) throws IOException {
+        if (state.containsKey(SegmentedDownload.SEGMENT_SIZE_KEY)) return true;
+
+        HttpURLConnection connection = open(downloadUrl(fileName));
+        connection.setRequestMethod("HEAD");
+        try {
+            if (connection.getResponseCode() != 200) return false;
+            long size = connection.getContentLengthLong();
+            String etag = connection.getHeaderField("ETag");
+            boolean ranges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+            if (!ranges || etag == null || size < SEGMENTED_THRESHOLD) return false;
+
+            state.clear();
+            SegmentedDownload.describe(state, etag, size);
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Swarm only files big enough to be worth it, whose chunks can be checked, from plain-HTTP senders */
+    private boolean useSwarm(ChunkVerifier verifier) {
+        return swarm != null && verifier != null && !serverUrl.startsWith("https:")
+                && verifier.manifest().size() >= SEGMENTED_THRESHOLD;
+    }
+
+    private URL downloadUrl(String fileName) throws IOException {
+        return new URL(serverUrl + "/download?file=" + URLEncoder.encode(fileName, StandardCharsets.UTF_8)
+                + "&pin=" + URLEncoder.encode(pin, StandardCharsets.UTF_8));
+    }
+
+    static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        TlsContext.secure(connection);
+        return connection;
+    }
+
+    /** Throw {@link SenderBusyException} if {@code status} says every transfer slot on the sender is taken */
+    static void rejectIfBusy(HttpURLConnection connection, int status) throws SenderBusyException {
+        if (status == 503) throw new SenderBusyException(retryAfterMs(connection));
+    }
+
+    /** The sender's {@code Retry-After} in milliseconds (seconds form only), one second if it sent none */
+    static long retryAfterMs(HttpURLConnection connection) {
+        try {
+            return Math.max(1, Long.parseLong(connection.getHeaderField("Retry-After").trim())) * 1000;
+        } catch (NullPointerException | NumberFormatException e) {
+            return 1000;
+        }
+    }
+
+    static void commit(Path part, Path target) throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Resolve a sender-supplied relative path, refusing anything that escapes {@code root} */
+    static Path resolveTarget(Path root, String relativePath) throws IOException {
+        Path target = root.resolve(relativePath).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("Refusing path outside download folder: " + relativePath);
+        }
+        return target;
+    }
+
+    static Path partFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    static Path metaFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part.meta");
+    }
+
+    private static Properties loadState(Path meta) {
+        Properties state = new Properties();
+        if (Files.exists(meta)) {
+            try (InputStream in = Files.newInputStream(meta)) {
+                state.load(in);
+            } catch (IOException ignored) {
+                // Unreadable state just means starting over
+            }
+        }
+        return state;
+    }
+
+    /** Record that the part file holds every byte before {@code received} */
+    private static void saveProgress(Path meta, Properties state, ChunkVerifier verifier, long received)
+            throws IOException {
+        state.setProperty(RECEIVED_KEY, Long.toString(received));
+        if (verifier != null) verifier.save(state);
+        saveState(meta, state);
+    }
+
+    private static void saveState(Path meta, Properties state) throws IOException {
+        try (OutputStream out = Files.newOutputStream(meta)) {
+            state.store(out, "ByteShare partial download");
+        }
+    }
+
+    /** Every transfer slot on the sender is taken; worth asking again after {@link #retryAfterMs} */
+    static final class SenderBusyException extends IOException {
+        final long retryAfterMs;
+
+        SenderBusyException(long retryAfterMs) {
+            super("Sender busy, retry after " + retryAfterMs / 1000 + " s");
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    private static void sleepBeforeRetry(int attempt) {
+        try {
+            Thread.sleep(Math.min(500L * attempt, 3_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,15 +1,40 @@
 package org.example.network;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsServer;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * FileServer: Serves selected files and responds to discovery requests.
@@ -17,16 +42,74 @@ import java.util.concurrent.Executors;
  */
 public class FileServer {
 
-    private static final int DISCOVERY_PORT = 60000; // Fixed port for discovery
+    private static final int WEB_PAGE_SIZE = 500;
+    private static final int MIN_COMPRESSED_LISTING = 1024;
+    private static final long DEFAULT_COMPRESSION_CACHE_BYTES = 256L * 1024 * 1024;
+    private static final long DEFAULT_HOT_CACHE_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_TRANSFER_CAPACITY = 8;
+    private static final int DEFAULT_TRANSFER_QUEUE = 64;
+    private static final long MAX_QUEUE_WAIT_MS = 20_000;
+    private static final long CHANGES_HEARTBEAT_MS = 15_000;
+    private static final long MAX_LONG_POLL_MS = 25_000;
+    private static final int DEFAULT_FOLLOW_IDLE_SECONDS = 30;
+    private static final int MAX_FOLLOW_IDLE_SECONDS = 3_600;
+    private static final int MAX_FOLLOWERS = 32;
+    private static final int MAX_PIN_FAILURES = 10;
+    private static final long PIN_LOCKOUT_MS = 60_000;
     private final int fileServerPort;
+    private ServingEngine engine;
+    private TlsContext tls;
 
     private HttpServer server;
+    private ExecutorService executor;
     private DiscoveryServer discoveryServer;
-    private final List<File> files;
+    private DirectoryWatcher directoryWatcher;
+    private GrowthWatcher growthWatcher;
+    private MulticastSender multicastSender;
+    private final ShareCatalog catalog;
+    private final ListingCache listings;
+    private final CompressionCache compressionCache;
+    private final HotFileCache hotCache = new HotFileCache(DEFAULT_HOT_CACHE_BYTES);
+    private ManifestStore manifests = new ManifestStore();
+    private BandwidthManager bandwidth = new BandwidthManager();
     private final String pin;
+    private final Map<InetAddress, PinFailures> pinFailures = new ConcurrentHashMap<>();
+    private final AdmissionControl admission = new AdmissionControl(DEFAULT_TRANSFER_CAPACITY, DEFAULT_TRANSFER_QUEUE);
+    private final Semaphore followers = new Semaphore(MAX_FOLLOWERS);
+    private final Metrics metrics = Metrics.shared();
+    private final Runnable catalogListener = this::refreshDiscovery;
+    private volatile int transferCapacity = DEFAULT_TRANSFER_CAPACITY;
+    private long digestVersion = -1;
+    private long contentDigest;
+    private volatile ChangeBody lastChange;
+
+    /** The {@code /changes} body from one version to another, kept for the next client asking the same */
+    private record ChangeBody(long from, long version, byte[] json) {
+    }
+
+    static {
+        // The JDK server leaves Nagle on, so a small response on a kept-alive connection waits out the
+        // client's delayed ACK (~40 ms). Must be set before the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
 
     public FileServer(List<File> files) throws IOException {
-        this.files = files;
+        this(files, ServingEngine.STANDARD);
+    }
+
+    public FileServer(List<File> files, ServingEngine engine) throws IOException {
+        this(new ShareCatalog(files), engine);
+    }
+
+    public FileServer(ShareCatalog catalog, ServingEngine engine) throws IOException {
+        this.catalog = catalog;
+        this.listings = new ListingCache(catalog);
+        this.compressionCache = new CompressionCache(
+                Path.of(System.getProperty("java.io.tmpdir"), "byteshare-gzip-cache"),
+                DEFAULT_COMPRESSION_CACHE_BYTES);
+        this.engine = engine;
         this.fileServerPort = findFreePort();
         this.pin = generatePin();
     }
@@ -34,39 +117,163 @@ public class FileServer {
     /** Start both file server and discovery server */
     public void start() throws IOException {
         // Start HTTP file server
-        server = HttpServer.create(new InetSocketAddress(fileServerPort), 0);
-        server.createContext("/", new RootHandler());
-        server.createContext("/files", new FileListHandler());
-        server.createContext("/download", new FileDownloadHandler());
-        server.createContext("/web", new WebHandler());
-        server.createContext("/pin", new PinHandler());
-        server.setExecutor(Executors.newCachedThreadPool());
+        InetSocketAddress address = new InetSocketAddress(fileServerPort);
+        if (tls != null) {
+            HttpsServer https = HttpsServer.create(address, 0);
+            https.setHttpsConfigurator(tls.configurator());
+            server = https;
+        } else {
+            server = engine == ServingEngine.ZERO_COPY
+                    ? new ZeroCopyHttpServer(address)
+                    : HttpServer.create(address, 0);
+        }
+        context("/", new RootHandler(), false);
+        context("/files", new FileListHandler(), false);
+        context("/catalog", new CatalogHandler(), false);
+        context("/changes", new ChangesHandler(), false);
+        context("/download", new FileDownloadHandler(), true);
+        context("/web", new WebHandler(), false);
+        context("/pin", new PinHandler(), false);
+        context("/archive", new ArchiveHandler(), true);
+        context("/manifest", new ManifestHandler(), false);
+        context("/delta", new DeltaHandler(), true);
+        context("/metrics", new MetricsHandler(), false);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
         server.start();
-        System.out.println("[FileServer] Running at: " + getAccessUrl());
+        System.out.println("[FileServer] Running at: " + getAccessUrl() + " (" + engine
+                + (tls != null ? ", TLS " + tls.fingerprint() : "") + ")");
 
         // Start discovery responder
-        discoveryServer = new DiscoveryServer(fileServerPort);
+        discoveryServer = new DiscoveryServer("DiscoveryServer", discoveryReply());
         discoveryServer.start();
+        catalog.addListener(catalogListener);
+        directoryWatcher = DirectoryWatcher.start(catalog);
+        growthWatcher = new GrowthWatcher();
     }
 
     /** Stop servers */
     public void stop() {
+        if (directoryWatcher != null) {
+            directoryWatcher.close();
+        }
+        if (growthWatcher != null) {
+            growthWatcher.close();
+        }
         if (server != null) {
             server.stop(0);
+            executor.shutdownNow();
+            System.out.println("[FileServer] Hot cache: " + hotCache.stats());
             System.out.println("[FileServer] Stopped.");
         }
+        if (multicastSender != null) {
+            multicastSender.close();
+        }
         if (discoveryServer != null) {
+            catalog.removeListener(catalogListener);
             discoveryServer.stopServer();
             System.out.println("[DiscoveryServer] Stopped.");
         }
     }
 
+    /**
+     * Serve over HTTPS with {@code tls}; call before {@link #start()}. Encryption
+     * happens in the JVM, so file bytes cannot go straight from the page cache to
+     * the socket: a ZERO_COPY server falls back to the standard engine.
+     */
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+        if (tls != null && engine == ServingEngine.ZERO_COPY) {
+            System.out.println("[FileServer] ZERO_COPY cannot encrypt; serving HTTPS with STANDARD");
+            engine = ServingEngine.STANDARD;
+        }
+    }
+
+    /** Fingerprint receivers must trust, or null when serving plain HTTP */
+    public String getTlsFingerprint() {
+        return tls != null ? tls.fingerprint() : null;
+    }
+
+    public ServingEngine getEngine() {
+        return engine;
+    }
+
+    public ShareCatalog getCatalog() {
+        return catalog;
+    }
+
+    /** Disk budget for precompressed gzip copies of shared files */
+    public void setCompressionCacheLimit(long bytes) {
+        compressionCache.setMaxBytes(bytes);
+    }
+
+    /** Memory budget for hot file regions shared between concurrent downloads; 0 turns the cache off */
+    public void setHotCacheLimit(long bytes) {
+        hotCache.setBudget(bytes);
+    }
+
+    public HotFileCache.Stats getHotCacheStats() {
+        return hotCache.stats();
+    }
+
+    /**
+     * How many downloads, archives and deltas this sender runs at once. Further
+     * requests queue in arrival order; discovery advertises what is left.
+     */
+    public void setTransferCapacity(int transferCapacity) {
+        if (transferCapacity < 1) throw new IllegalArgumentException("transferCapacity must be >= 1");
+        this.transferCapacity = transferCapacity;
+        admission.setMaxActive(transferCapacity);
+        refreshDiscovery();
+    }
+
+    /** How many transfer requests may wait for a slot before the rest are answered 503 */
+    public void setTransferQueueLimit(int queueLimit) {
+        admission.setMaxQueued(queueLimit);
+    }
+
+    public int getActiveTransfers() {
+        return admission.active();
+    }
+
+    public int getQueuedTransfers() {
+        return admission.queued();
+    }
+
+    /** Offer files over multicast as well; call before {@link #start()} so discovery advertises the group */
+    public void setMulticastSender(MulticastSender multicastSender) {
+        this.multicastSender = multicastSender;
+    }
+
+    /** Send every shared file to the multicast group, one after another */
+    public CompletableFuture<Void> multicastAll() {
+        if (multicastSender == null) throw new IllegalStateException("Multicast is not enabled");
+        CompletableFuture<?>[] sends = catalog.entries().stream()
+                .map(multicastSender::send)
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(sends);
+    }
+
+    /** Share chunk manifests with whoever selected the files, so hashing started there is reused */
+    public void setManifestStore(ManifestStore manifests) {
+        this.manifests = manifests;
+    }
+
+    /** Upload limits for downloads, archives and deltas; shared so they can be changed while serving */
+    public void setBandwidthManager(BandwidthManager bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    public BandwidthManager getBandwidthManager() {
+        return bandwidth;
+    }
+
     public String getPin() {
         return pin;
     }
 
     public String getAccessUrl() throws UnknownHostException {
-        return "http://" + InetAddress.getLocalHost().getHostAddress() + ":" + fileServerPort;
+        return (tls != null ? "https://" : "http://") + InetAddress.getLocalHost().getHostAddress() + ":" + fileServerPort;
     }
 
     // ------------------- Internal Handlers ------------------------
@@ -102,61 +309,235 @@ public class FileServer {
         }
     }
 
-    /** Handler for listing files as plain text (API use) */
+    /**
+     * Handler for listing files as plain text (API use). Optional {@code cursor} and
+     * {@code limit} page through the catalog; the next cursor comes back in
+     * {@code X-Next-Cursor}. Each page is built once per catalog version.
+     */
     private class FileListHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String query = exchange.getRequestURI().getQuery();
-            String providedPin = null;
-            if (query != null) {
-                for (String param : query.split("&")) {
-                    if (param.startsWith("pin=")) {
-                        providedPin = URLDecoder.decode(param.substring(4), "UTF-8");
-                        break;
-                    }
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
+            }
+
+            boolean withSizes = "true".equals(params.get("sizes"));
+            String cursor = params.get("cursor");
+            int limit = parseLimit(params.get("limit"), Integer.MAX_VALUE);
+
+            // Return list of files as plain text, optionally "path<TAB>size" for scheduling
+            ListingCache.Listing listing = listings.get("files", withSizes + "|" + limit + "|" + cursor, () -> {
+                ShareCatalog.Page page = catalog.page(cursor, limit);
+                StringBuilder sb = new StringBuilder();
+                for (ShareCatalog.Entry entry : page.entries()) {
+                    sb.append(entry.path());
+                    if (withSizes) sb.append('\t').append(entry.size());
+                    sb.append("\n");
                 }
+                return new ListingCache.Listing(sb.toString().getBytes(StandardCharsets.UTF_8), page.nextCursor());
+            });
+
+            if (listing.nextCursor() != null) {
+                exchange.getResponseHeaders().set("X-Next-Cursor",
+                        URLEncoder.encode(listing.nextCursor(), StandardCharsets.UTF_8));
             }
+            sendListing(exchange, "files", withSizes + "|" + limit + "|" + cursor, listing,
+                    "text/plain; charset=UTF-8");
+        }
+    }
 
-            if (providedPin == null || !providedPin.equals(pin)) {
-                exchange.sendResponseHeaders(403, 0);
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write("Invalid PIN".getBytes());
+    /**
+     * Handler for structured listings: one JSON object per page with every file's
+     * id, path, size, mtime, content type and, once it has been hashed, the
+     * manifest root. Paged like {@code /files}; pages carry an ETag, so a client
+     * polling with {@code If-None-Match} gets a bodiless 304 until something changes.
+     * <pre>
+     * {"version":7,"count":2,"totalBytes":1048600,"next":null,"files":[
+     *   {"id":"..","path":"a.txt","size":24,"mtime":1700000000000,"type":"text/plain","root":".."}, ...]}
+     * </pre>
+     */
+    private class CatalogHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
+            }
+
+            String cursor = params.get("cursor");
+            int limit = parseLimit(params.get("limit"), Integer.MAX_VALUE);
+            // Root hashes appear as hashing finishes, without a catalog change
+            String variant = limit + "|" + cursor + "|" + manifests.version();
+            ListingCache.Listing listing = listings.get("catalog", variant, () -> {
+                ShareCatalog.Page page = catalog.page(cursor, limit);
+                StringBuilder sb = new StringBuilder(64 + page.entries().size() * 160);
+                sb.append("{\"version\":").append(catalog.version())
+                  .append(",\"count\":").append(catalog.size())
+                  .append(",\"totalBytes\":").append(catalog.totalBytes())
+                  .append(",\"next\":").append(page.nextCursor() == null ? "null" : jsonString(page.nextCursor()))
+                  .append(",\"files\":[");
+                for (ShareCatalog.Entry entry : page.entries()) {
+                    if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+                    appendItem(sb.append('\n'), entry);
                 }
+                sb.append("]}\n");
+                return new ListingCache.Listing(sb.toString().getBytes(StandardCharsets.UTF_8), page.nextCursor());
+            });
+
+            sendListing(exchange, "catalog", variant, listing, "application/json; charset=UTF-8");
+        }
+    }
+
+    /** One file as a {@code /catalog} and {@code /changes} item */
+    private void appendItem(StringBuilder sb, ShareCatalog.Entry entry) {
+        sb.append("{\"id\":").append(jsonString(entry.id()))
+          .append(",\"path\":").append(jsonString(entry.path()))
+          .append(",\"size\":").append(entry.size())
+          .append(",\"mtime\":").append(entry.lastModified())
+          .append(",\"type\":").append(jsonString(entry.contentType()));
+        ChunkManifest manifest = manifests.peek(entry.file(), entry.size(), entry.lastModified());
+        if (manifest != null) sb.append(",\"root\":\"").append(manifest.rootHex()).append('"');
+        sb.append('}');
+    }
+
+    /**
+     * Handler pushing catalog changes since {@code since} (a catalog version), so
+     * clients follow a live share without re-reading it. With
+     * {@code Accept: text/event-stream} it is a server-sent event stream: one event
+     * per change, its id the new version (so a reconnect's {@code Last-Event-ID}
+     * resumes), and a comment every {@link #CHANGES_HEARTBEAT_MS} to keep the
+     * connection alive. Otherwise it long-polls: 200 with the changes as soon as
+     * there are any, 204 after {@code timeout} seconds (25 at most) without.
+     * A {@code since} the server can no longer diff from gets {@code "reset":true}:
+     * fetch {@code /catalog} again and follow on from its version.
+     * <pre>
+     * {"from":7,"version":9,"count":120,"totalBytes":1048600,"reset":false,
+     *  "upserted":[{..as in /catalog..}, ...],"removed":["old/a.txt", ...]}
+     * </pre>
+     */
+    private class ChangesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
                 return;
             }
+            String resume = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            long since;
+            try {
+                since = Long.parseLong(resume != null ? resume.trim() : params.get("since", "-1"));
+            } catch (NumberFormatException e) {
+                since = -1;
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            try {
+                if (accept != null && accept.contains("text/event-stream")) {
+                    streamChanges(exchange, since);
+                } else {
+                    long timeout = Math.min(MAX_LONG_POLL_MS, parseLimit(params.get("timeout"), 25) * 1000L);
+                    pollChanges(exchange, since, timeout);
+                }
+            } catch (InterruptedException e) {
+                // Server stopping
+                Thread.currentThread().interrupt();
+                exchange.close();
+            }
+        }
 
-            // Return list of files as plain text
-            StringBuilder sb = new StringBuilder();
-            for (File file : files) {
-                sb.append(file.getName()).append("\n");
+        private void pollChanges(HttpExchange exchange, long since, long timeout)
+                throws IOException, InterruptedException {
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (catalog.awaitChange(since, timeout) == since) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = changesSince(since).json();
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
             }
+        }
 
-            byte[] response = sb.toString().getBytes();
-            exchange.getResponseHeaders().add("Content-Type", "text/plain");
-            exchange.sendResponseHeaders(200, response.length);
+        private void streamChanges(HttpExchange exchange, long since) throws IOException, InterruptedException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "text/event-stream; charset=UTF-8");
+            headers.set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
             try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response);
+                // Tell the client where it stands right away, even if nothing changed
+                ChangeBody change = changesSince(since);
+                writeEvent(os, change);
+                since = change.version();
+                while (true) {
+                    if (catalog.awaitChange(since, CHANGES_HEARTBEAT_MS) == since) {
+                        os.write(":\n\n".getBytes(StandardCharsets.UTF_8));
+                        os.flush();
+                        continue;
+                    }
+                    change = changesSince(since);
+                    writeEvent(os, change);
+                    since = change.version();
+                }
+            } catch (IOException e) {
+                // The client went away
+            }
+        }
+
+        private void writeEvent(OutputStream os, ChangeBody change) throws IOException {
+            os.write(("id: " + change.version() + "\ndata: ").getBytes(StandardCharsets.UTF_8));
+            os.write(change.json());
+            os.write("\n\n".getBytes(StandardCharsets.UTF_8));
+            os.flush();
+        }
+    }
+
+    /** The {@code /changes} JSON from {@code since} to now, shared by every client at the same version */
+    private ChangeBody changesSince(long since) {
+        ChangeBody cached = lastChange;
+        if (cached != null && cached.from() == since && cached.version() == catalog.version()) return cached;
+
+        ShareCatalog.Changes changes = catalog.changesSince(since);
+        StringBuilder sb = new StringBuilder(128);
+        long version = changes != null ? changes.version() : catalog.version();
+        sb.append("{\"from\":").append(since)
+          .append(",\"version\":").append(version)
+          .append(",\"count\":").append(catalog.size())
+          .append(",\"totalBytes\":").append(catalog.totalBytes())
+          .append(",\"reset\":").append(changes == null)
+          .append(",\"upserted\":[");
+        if (changes != null) {
+            for (ShareCatalog.Entry entry : changes.upserted()) {
+                if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+                appendItem(sb, entry);
+            }
+        }
+        sb.append("],\"removed\":[");
+        if (changes != null) {
+            for (String path : changes.removed()) {
+                if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+                sb.append(jsonString(path));
             }
         }
+        sb.append("]}");
+        ChangeBody body = new ChangeBody(since, version, sb.toString().getBytes(StandardCharsets.UTF_8));
+        lastChange = body;
+        return body;
     }
 
     /** Handler for listing files with clickable links (Web UI) */
     private class WebHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String query = exchange.getRequestURI().getQuery();
-            String providedPin = null;
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            String providedPin = params.get("pin");
 
-            if (query != null) {
-                for (String param : query.split("&")) {
-                    if (param.startsWith("pin=")) {
-                        providedPin = URLDecoder.decode(param.substring(4), "UTF-8");
-                        break;
-                    }
-                }
-            }
-
-            if (providedPin == null || !providedPin.equals(pin)) {
+            if (!pinMatches(exchange, providedPin)) {
                 String errorHtml = """
                     <html><body>
                     <h3>Invalid PIN!</h3>
@@ -172,130 +553,844 @@ public class FileServer {
                 return;
             }
 
-            // Show list of files with download links
-            StringBuilder sb = new StringBuilder("""
-                <html><head><title>ByteShare Files</title></head><body>
-                <h2>Available Files</h2><ul>
-            """);
-            for (File file : files) {
-                sb.append("<li><a href='/download?file=")
-                  .append(URLEncoder.encode(file.getName(), "UTF-8"))
-                  .append("&pin=").append(pin)
-                  .append("'>").append(file.getName()).append("</a></li>");
-            }
-            sb.append("</ul></body></html>");
+            // Show a page of files with download links
+            String cursor = params.get("cursor");
+            int limit = parseLimit(params.get("limit"), WEB_PAGE_SIZE);
+            ListingCache.Listing listing = listings.get("web", limit + "|" + cursor, () -> {
+                ShareCatalog.Page page = catalog.page(cursor, limit);
+                StringBuilder sb = new StringBuilder("""
+                    <html><head><meta charset="UTF-8"><title>ByteShare Files</title></head><body>
+                    <h2>Available Files</h2>
+                """);
+                sb.append("<p><span id='count'>").append(catalog.size())
+                  .append("</span> files. <a href='/archive?format=zip&pin=")
+                  .append(pin).append("'>Download all (ZIP)</a> <span id='note'></span></p><ul id='files'>");
+                for (ShareCatalog.Entry entry : page.entries()) {
+                    sb.append("<li data-path='").append(escapeHtml(entry.path()))
+                      .append("'><a href='/download?id=").append(entry.id())
+                      .append("&pin=").append(pin)
+                      .append("'>").append(escapeHtml(entry.path())).append("</a></li>");
+                }
+                sb.append("</ul>");
+                if (page.nextCursor() != null) {
+                    sb.append("<p><a href='/web?pin=").append(pin)
+                      .append("&limit=").append(limit)
+                      .append("&cursor=").append(URLEncoder.encode(page.nextCursor(), StandardCharsets.UTF_8))
+                      .append("'>Next page</a></p>");
+                }
+                sb.append(liveScript(catalog.version(), cursor == null && page.nextCursor() == null));
+                sb.append("</body></html>");
+                return new ListingCache.Listing(sb.toString().getBytes(StandardCharsets.UTF_8), page.nextCursor());
+            });
 
-            byte[] response = sb.toString().getBytes();
-            exchange.getResponseHeaders().add("Content-Type", "text/html");
-            exchange.sendResponseHeaders(200, response.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response);
-            }
+            sendListing(exchange, "web", limit + "|" + cursor, listing, "text/html; charset=UTF-8");
         }
     }
 
+    /**
+     * Script keeping a {@code /web} page current from {@code /changes}: a page
+     * showing the whole catalog is patched in place, any other page just says
+     * that it is out of date.
+     */
+    private String liveScript(long version, boolean whole) {
+        return """
+            <script>
+            (function () {
+              var pin = %s, whole = %s;
+              var list = document.getElementById('files'), note = document.getElementById('note');
+              var feed = new EventSource('/changes?pin=' + encodeURIComponent(pin) + '&since=%d');
+              feed.onmessage = function (event) {
+                var change = JSON.parse(event.data);
+                if (change.reset) { location.reload(); return; }
+                if (change.upserted.length === 0 && change.removed.length === 0) return;
+                document.getElementById('count').textContent = change.count;
+                if (!whole) { note.innerHTML = 'Files changed: <a href="">reload</a>'; return; }
+                var items = {};
+                list.querySelectorAll('li').forEach(function (li) { items[li.dataset.path] = li; });
+                change.removed.forEach(function (path) { if (items[path]) items[path].remove(); });
+                change.upserted.forEach(function (file) {
+                  var li = items[file.path] || document.createElement('li');
+                  var link = document.createElement('a');
+                  link.href = '/download?id=' + encodeURIComponent(file.id) + '&pin=' + encodeURIComponent(pin);
+                  link.textContent = file.path;
+                  li.dataset.path = file.path;
+                  li.replaceChildren(link);
+                  if (li.parentNode) return;
+                  var next = Array.prototype.find.call(list.children, function (other) {
+                    return other.dataset.path > file.path;
+                  });
+                  list.insertBefore(li, next || null);
+                });
+              };
+            })();
+            </script>
+            """.formatted(jsonString(pin), whole, version);
+    }
+
+    /**
+     * Send a cached listing, gzip/deflate encoded when the client accepts it and it is worth it.
+     * A client that already holds this listing ({@code If-None-Match}) gets 304 and no body.
+     */
+    private void sendListing(HttpExchange exchange, String kind, String variant, ListingCache.Listing listing,
+                             String contentType) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Vary", "Accept-Encoding");
+        // Revalidate every time: the catalog can change at any moment
+        headers.set("Cache-Control", "no-cache");
+
+        String coding = ContentCoding.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        boolean encode = coding != null && listing.body().length >= MIN_COMPRESSED_LISTING;
+        String etag = listing.etag();
+        String sentTag = encode ? etag.substring(0, etag.length() - 1) + "-" + coding + "\"" : etag;
+        headers.set("ETag", sentTag);
+        if (listing.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), sentTag)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        headers.add("Content-Type", contentType);
+        byte[] body = listing.body();
+        if (encode) {
+            body = listings.get(kind, variant + "|" + coding, () -> new ListingCache.Listing(
+                    compress(coding, listing.body()), listing.nextCursor(), etag)).body();
+            headers.set("Content-Encoding", coding);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static byte[] compress(String coding, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try {
+            DeflaterOutputStream encoded = ContentCoding.encode(coding, out);
+            encoded.write(data);
+            encoded.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
     /** Handler for downloading files with PIN validation */
     private class FileDownloadHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String query = exchange.getRequestURI().getQuery();
-            if (query == null) {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!params.has("file") && !params.has("id")) {
                 exchange.sendResponseHeaders(400, -1);
                 exchange.close();
                 return;
             }
 
-            String requestedFileName = null;
-            String providedPin = null;
-            for (String param : query.split("&")) {
-                if (param.startsWith("file=")) {
-                    requestedFileName = URLDecoder.decode(param.substring(5), "UTF-8");
-                } else if (param.startsWith("pin=")) {
-                    providedPin = URLDecoder.decode(param.substring(4), "UTF-8");
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
+            }
+
+            ShareCatalog.Entry entry = catalog.find(params.get("id"), params.get("file"));
+            if (entry != null) {
+                entry = refreshIfChanged(entry);
+            }
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (params.has("follow")) {
+                sendFollow(exchange, entry, params);
+                return;
+            }
+            ShareCatalog.Entry found = entry;
+            admit(exchange, () -> sendDownload(exchange, found));
+        }
+
+        private void sendDownload(HttpExchange exchange, ShareCatalog.Entry entry) throws IOException {
+            long size = entry.size();
+            String etag = entry.etag();
+            String lastModified = httpDate(entry.lastModified());
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Content-Disposition", "attachment; filename=\"" + entry.name() + "\"");
+            headers.set("Accept-Ranges", "bytes");
+            headers.set("ETag", etag);
+            headers.set("Last-Modified", lastModified);
+            headers.set("Vary", "Accept-Encoding");
+
+            // Honour Range only while the client's validator still matches (If-Range)
+            ByteRange range = ByteRange.parse(exchange.getRequestHeaders().getFirst("Range"), size);
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range != null && ifRange != null
+                    && !ifRange.equals(etag) && !ifRange.equals(lastModified)) {
+                range = null;
+            }
+
+            if (range == ByteRange.UNSATISFIABLE) {
+                headers.set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+
+            long position = range != null ? range.start() : 0;
+            long count = range != null ? range.length() : size;
+            if (range != null) {
+                headers.set("Content-Range", range.toContentRange(size));
+            }
+            int status = range != null ? 206 : 200;
+
+            if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+                headers.set("Content-Length", Long.toString(count));
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+
+            // Whole-file requests for compressible content go out encoded; ranges always address identity bytes
+            String coding = range == null
+                    ? ContentCoding.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"))
+                    : null;
+            if (coding != null && compressionCache.isCompressible(entry)) {
+                sendEncoded(exchange, entry, coding);
+                return;
+            }
+
+            exchange.sendResponseHeaders(status, count);
+            try (OutputStream os = exchange.getResponseBody()) {
+                sendEntry(exchange, os, entry, position, count);
+            }
+        }
+    }
+
+    /**
+     * Follow mode ({@code follow=<idle seconds>}, {@code offset=<n>}) for files
+     * still being written: everything from {@code offset} on goes out chunked, and
+     * whatever is appended afterwards follows as it lands. The body ends once the
+     * file has not grown for the idle period (default
+     * {@value #DEFAULT_FOLLOW_IDLE_SECONDS} s; a writer closing the file looks the
+     * same from here), or when it is deleted or truncated. A receiver that loses
+     * the connection asks again from the offset it has.
+     * <p>
+     * Followers can stay connected for up to {@value #MAX_FOLLOW_IDLE_SECONDS} s
+     * while mostly idle, so they skip admission control and use their own pool of
+     * {@value #MAX_FOLLOWERS} instead of holding transfer slots; a full pool answers
+     * 503. What they send is still shaped by the bandwidth limits.
+     */
+    private void sendFollow(HttpExchange exchange, ShareCatalog.Entry entry, QueryParams params) throws IOException {
+        if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            follow(exchange, entry, params);
+            return;
+        }
+        if (!followers.tryAcquire()) {
+            byte[] body = ("Sender busy: " + MAX_FOLLOWERS + " files followed. Try again shortly.")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(DEFAULT_FOLLOW_IDLE_SECONDS));
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(503, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+            return;
+        }
+        BandwidthManager.Flow flow = bandwidth.open(exchange);
+        try {
+            follow(exchange, entry, params);
+        } finally {
+            flow.close();
+            followers.release();
+        }
+    }
+
+    private void follow(HttpExchange exchange, ShareCatalog.Entry entry, QueryParams params) throws IOException {
+        long idleMs = Math.min(MAX_FOLLOW_IDLE_SECONDS, parseLimit(params.get("follow"), DEFAULT_FOLLOW_IDLE_SECONDS))
+                * 1000L;
+        long position;
+        try {
+            position = Long.parseLong(params.get("offset", "0"));
+        } catch (NumberFormatException e) {
+            position = -1;
+        }
+        Path file = entry.file().toPath();
+        try (GrowthWatcher.Signal signal = growthWatcher.watch(file);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Headers headers = exchange.getResponseHeaders();
+            if (position < 0 || position > channel.size()) {
+                headers.set("Content-Range", "bytes */" + channel.size());
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            headers.add("Content-Disposition", "attachment; filename=\"" + entry.name() + "\"");
+            headers.set("Cache-Control", "no-store");
+            headers.set("X-Follow-Offset", Long.toString(position));
+            if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                long lastGrowth = System.currentTimeMillis();
+                while (true) {
+                    // Read the change count first, so a write landing after the size check still wakes us
+                    long seen = signal.changes();
+                    long size = channel.size();
+                    if (size < position) {
+                        System.out.println("[FileServer] " + entry.path() + " was truncated while followed");
+                        break;
+                    }
+                    if (size > position) {
+                        sendChannel(exchange, os, channel, position, size - position);
+                        os.flush();
+                        position = size;
+                        lastGrowth = System.currentTimeMillis();
+                        continue;
+                    }
+                    long idle = System.currentTimeMillis() - lastGrowth;
+                    if (idle >= idleMs || !Files.exists(file)) break;
+                    signal.await(seen, idleMs - idle);
                 }
             }
+        } catch (NoSuchFileException e) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        } catch (InterruptedException e) {
+            // Server stopping
+            Thread.currentThread().interrupt();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send a whole file with {@code coding}. Gzip bodies come from the compression
+     * cache when present (with a Content-Length, and via sendfile on the zero-copy
+     * engine); otherwise the file is compressed on the fly and teed into the cache.
+     */
+    private void sendEncoded(HttpExchange exchange, ShareCatalog.Entry entry, String coding) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Encoding", coding);
+        // A different representation needs its own validator
+        String etag = entry.etag();
+        headers.set("ETag", etag.substring(0, etag.length() - 1) + "-" + coding + "\"");
 
-            if (providedPin == null || !providedPin.equals(pin)) {
-                exchange.sendResponseHeaders(403, 0);
+        Path cached = coding.equals(ContentCoding.GZIP) ? compressionCache.lookup(entry) : null;
+        if (cached != null) {
+            try (FileChannel channel = FileChannel.open(cached, StandardOpenOption.READ)) {
+                long length = channel.size();
+                exchange.sendResponseHeaders(200, length);
                 try (OutputStream os = exchange.getResponseBody()) {
-                    os.write("Invalid PIN".getBytes());
+                    sendChannel(exchange, os, channel, 0, length);
                 }
                 return;
+            } catch (NoSuchFileException e) {
+                // Evicted between lookup and open; compress afresh below
             }
+        }
 
-            final String targetFile = requestedFileName;
-            File file = files.stream()
-                    .filter(f -> f.getName().equals(targetFile))
-                    .findFirst()
-                    .orElse(null);
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            CompressionCache.Writer writer = coding.equals(ContentCoding.GZIP) ? compressionCache.begin(entry, os) : null;
+            try {
+                DeflaterOutputStream encoded = ContentCoding.encode(coding, writer != null ? writer : os);
+                Files.copy(entry.file().toPath(), encoded);
+                encoded.finish();
+                File file = entry.file();
+                if (writer != null && file.length() == entry.size() && file.lastModified() == entry.lastModified()) {
+                    writer.commit();
+                }
+            } finally {
+                if (writer != null) writer.abort();
+            }
+        }
+    }
 
-            if (file == null) {
-                exchange.sendResponseHeaders(404, -1);
+    /**
+     * Write part of a shared file region by region from the hot-file cache, so
+     * receivers pulling the same file at once share one disk read. Falls back to
+     * the disk when the cache is off, the file is too large for it, or all of its
+     * buffers are in use.
+     */
+    private void sendEntry(HttpExchange exchange, OutputStream os, ShareCatalog.Entry entry, long position, long count)
+            throws IOException {
+        if (!hotCache.admits(entry)) {
+            sendFile(exchange, os, entry.file(), position, count);
+            return;
+        }
+        long end = position + count;
+        byte[] buffer = null;
+        while (position < end) {
+            long index = position / HotFileCache.REGION_SIZE;
+            long regionStart = index * HotFileCache.REGION_SIZE;
+            int from = (int) (position - regionStart);
+            int to = (int) Math.min(HotFileCache.REGION_SIZE, end - regionStart);
+            HotFileCache.Region region = hotCache.acquire(entry, index);
+            if (region == null) {
+                sendFile(exchange, os, entry.file(), position, to - from);
+            } else {
+                try {
+                    ByteBuffer data = region.slice(from, to);
+                    if (exchange instanceof ZeroCopyHttpServer.ChannelExchange channelExchange) {
+                        BandwidthManager.Flow flow = BandwidthManager.flow(exchange);
+                        while (data.hasRemaining()) {
+                            int length = (int) flow.acquire(data.remaining());
+                            channelExchange.write(data.slice(data.position(), length));
+                            data.position(data.position() + length);
+                            Metrics.sent(exchange, length);
+                        }
+                    } else {
+                        if (buffer == null) buffer = new byte[64 * 1024];
+                        while (data.hasRemaining()) {
+                            int n = Math.min(buffer.length, data.remaining());
+                            data.get(buffer, 0, n);
+                            os.write(buffer, 0, n);
+                        }
+                    }
+                } finally {
+                    region.release();
+                }
+            }
+            position = regionStart + to;
+        }
+    }
+
+    /** Write part of the file body, using sendfile when the exchange exposes its socket channel */
+    private void sendFile(HttpExchange exchange, OutputStream os, File file, long position, long count)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            sendChannel(exchange, os, channel, position, count);
+        }
+    }
+
+    private void sendChannel(HttpExchange exchange, OutputStream os, FileChannel channel, long position, long count)
+            throws IOException {
+        if (exchange instanceof ZeroCopyHttpServer.ChannelExchange channelExchange) {
+            // Shaped transfers go out one granted chunk at a time; unshaped ones in a single call
+            BandwidthManager.Flow flow = BandwidthManager.flow(exchange);
+            while (count > 0) {
+                long length = flow.acquire(count);
+                channelExchange.transferFrom(channel, position, length);
+                Metrics.sent(exchange, length);
+                position += length;
+                count -= length;
+            }
+            return;
+        }
+        channel.position(position);
+        InputStream in = Channels.newInputStream(channel);
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = count;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) throw new EOFException("File truncated while sending");
+            os.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /** Re-index an entry whose file changed on disk since it was catalogued; null if it is gone */
+    private ShareCatalog.Entry refreshIfChanged(ShareCatalog.Entry entry) {
+        File file = entry.file();
+        if (!file.isFile()) return null;
+        if (file.length() == entry.size() && file.lastModified() == entry.lastModified()) return entry;
+        return catalog.update(entry.path(), file);
+    }
+
+    /**
+     * Whether {@code provided} is the PIN. An address that keeps guessing wrong is
+     * refused for {@link #PIN_LOCKOUT_MS}, right guesses included, so the 9000
+     * possible PINs cannot be tried in any useful time.
+     */
+    private boolean pinMatches(HttpExchange exchange, String provided) {
+        InetAddress client = exchange.getRemoteAddress().getAddress();
+        long now = System.currentTimeMillis();
+        PinFailures failures = pinFailures.get(client);
+        if (failures != null && now - failures.since() > PIN_LOCKOUT_MS) {
+            pinFailures.remove(client, failures);
+            failures = null;
+        }
+        if (failures != null && failures.count() >= MAX_PIN_FAILURES) return false;
+        if (provided != null && MessageDigest.isEqual(provided.getBytes(StandardCharsets.UTF_8),
+                pin.getBytes(StandardCharsets.UTF_8))) {
+            return true;
+        }
+        pinFailures.merge(client, new PinFailures(1, now),
+                (previous, first) -> new PinFailures(previous.count() + 1, previous.since()));
+        return false;
+    }
+
+    private record PinFailures(int count, long since) {
+    }
+
+    /** Answer a missing or wrong PIN */
+    private static void sendInvalidPin(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(403, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write("Invalid PIN".getBytes());
+        }
+    }
+
+    /** The request's declared body length, or -1 when it has none (chunked or missing) */
+    private static long contentLength(HttpExchange exchange) {
+        String value = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int parseLimit(String value, int defaultLimit) {
+        if (value == null) return defaultLimit;
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return defaultLimit;
+        }
+    }
+
+    /** {@code text} as a quoted JSON string */
+    private static String jsonString(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("'", "&#39;").replace("\"", "&quot;");
+    }
+
+    private static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * Handler streaming several files as one archive. Query: {@code format=zip|store|tar}
+     * plus repeated {@code file=} names (all files when none are given). Nothing is
+     * buffered beyond one copy buffer, and no temp file is written.
+     */
+    private class ArchiveHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
+            }
+
+            String format = params.get("format", "zip");
+            if (!format.equals("zip") && !format.equals("store") && !format.equals("tar")) {
+                exchange.sendResponseHeaders(400, -1);
                 exchange.close();
                 return;
             }
 
-            exchange.getResponseHeaders().add("Content-Disposition",
-                    "attachment; filename=\"" + file.getName() + "\"");
-            exchange.sendResponseHeaders(200, file.length());
+            // Resolve the selection up front so a bad name fails before any bytes go out
+            List<ShareCatalog.Entry> selection = new ArrayList<>();
+            List<String> requested = params.getAll("file");
+            if (requested.isEmpty()) {
+                selection.addAll(catalog.entries());
+            } else {
+                for (String path : new LinkedHashSet<>(requested)) {
+                    ShareCatalog.Entry entry = catalog.byPath(path);
+                    if (entry == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                        return;
+                    }
+                    selection.add(entry);
+                }
+            }
+
+            boolean tar = format.equals("tar");
+            admit(exchange, () -> {
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("Content-Type", tar ? "application/x-tar" : "application/zip");
+                headers.set("Content-Disposition",
+                        "attachment; filename=\"byteshare." + (tar ? "tar" : "zip") + "\"");
+                if (tar) {
+                    sendTar(exchange, selection);
+                } else {
+                    sendZip(exchange, selection, format.equals("store"));
+                }
+            });
+        }
+
+        /** TAR has a known length up front, and file bodies can still go out via sendfile */
+        private void sendTar(HttpExchange exchange, List<ShareCatalog.Entry> selection) throws IOException {
+            long total = TarFormat.trailer().length;
+            for (ShareCatalog.Entry entry : selection) {
+                total += TarFormat.entryLength(entry.path(), entry.size());
+            }
+
+            exchange.sendResponseHeaders(200, total);
             try (OutputStream os = exchange.getResponseBody()) {
-                Files.copy(file.toPath(), os);
+                for (ShareCatalog.Entry entry : selection) {
+                    os.write(TarFormat.header(entry.path(), entry.size(), entry.lastModified()));
+                    sendEntry(exchange, os, entry, 0, entry.size());
+                    os.write(new byte[TarFormat.padding(entry.size())]);
+                }
+                os.write(TarFormat.trailer());
+            }
+        }
+
+        /**
+         * ZIP entries use data descriptors so nothing is read twice. "store" uses
+         * deflate level 0: true STORED entries would need each CRC before the data.
+         */
+        private void sendZip(HttpExchange exchange, List<ShareCatalog.Entry> selection, boolean store) throws IOException {
+            exchange.sendResponseHeaders(200, 0);
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024))) {
+                zip.setLevel(store ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+                for (ShareCatalog.Entry entry : selection) {
+                    ZipEntry zipEntry = new ZipEntry(entry.path());
+                    zipEntry.setTime(entry.lastModified());
+                    zip.putNextEntry(zipEntry);
+                    Files.copy(entry.file().toPath(), zip);
+                    zip.closeEntry();
+                }
             }
         }
     }
 
-    /** Handler for verifying PIN (for API use) */
-    private class PinHandler implements HttpHandler {
+    /**
+     * Handler serving the {@link ChunkManifest} of one file ({@code id} or {@code file}).
+     * Blocks while the manifest is still being hashed; 503 if the file changed meanwhile.
+     */
+    private class ManifestHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            byte[] response = pin.getBytes();
-            exchange.sendResponseHeaders(200, response.length);
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
+            }
+
+            ShareCatalog.Entry entry = catalog.find(params.get("id"), params.get("file"));
+            if (entry != null) {
+                entry = refreshIfChanged(entry);
+            }
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            ChunkManifest manifest;
+            try {
+                manifest = manifests.get(entry.file(), entry.size(), entry.lastModified()).join();
+            } catch (CompletionException e) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = manifest.toBytes();
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "text/plain; charset=UTF-8");
+            headers.set("ETag", entry.etag());
+            String coding = ContentCoding.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            if (coding != null && body.length >= MIN_COMPRESSED_LISTING) {
+                body = compress(coding, body);
+                headers.set("Content-Encoding", coding);
+            }
+            headers.set("Vary", "Accept-Encoding");
+            exchange.sendResponseHeaders(200, body.length);
             try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response);
+                os.write(body);
+            }
+        }
+    }
+
+    /**
+     * Handler for delta sync: the receiver POSTs the signature of its old copy of
+     * {@code file} (or {@code id}) and gets back copy/literal instructions for the current one.
+     */
+    private class DeltaHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
+            }
+
+            ShareCatalog.Entry entry = catalog.find(params.get("id"), params.get("file"));
+            if (entry != null) {
+                entry = refreshIfChanged(entry);
+            }
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
             }
+
+            DeltaSync.Signature signature;
+            try (InputStream in = exchange.getRequestBody()) {
+                signature = DeltaSync.readSignature(in, contentLength(exchange));
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(400, -1);
+                exchange.close();
+                return;
+            }
+
+            ShareCatalog.Entry found = entry;
+            admit(exchange, () -> {
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().set("ETag", found.etag());
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    DeltaSync.writeDelta(found.file(), signature, os);
+                }
+            });
         }
     }
 
-    /** Discovery UDP server */
-    private static class DiscoveryServer extends Thread {
-        private volatile boolean running = true;
-        private DatagramSocket socket;
-        private final int fileServerPort;
+    /**
+     * Prometheus scrape target: the process-wide {@link Metrics} plus this server's
+     * own gauges. Counts only, no file names, so it needs no PIN.
+     */
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StringBuilder sb = new StringBuilder(8192);
+            metrics.render(sb);
+            Metrics.gauge(sb, "byteshare_active_transfers", "Downloads, archives and deltas in progress",
+                    admission.active());
+            Metrics.gauge(sb, "byteshare_queued_transfers", "Transfer requests waiting for a slot",
+                    admission.queued());
+            Metrics.gauge(sb, "byteshare_catalog_files", "Files shared", catalog.size());
+            Metrics.gauge(sb, "byteshare_catalog_bytes", "Bytes shared", catalog.totalBytes());
+            if (server instanceof ZeroCopyHttpServer zeroCopy) {
+                // The JDK server does not expose its connections
+                Metrics.gauge(sb, "byteshare_open_connections", "Client connections held open",
+                        zeroCopy.openConnections());
+            }
+            HotFileCache.Stats hot = hotCache.stats();
+            Metrics.gauge(sb, "byteshare_hot_cache_hits", "Hot cache region hits", hot.hits());
+            Metrics.gauge(sb, "byteshare_hot_cache_misses", "Hot cache region misses", hot.misses());
+            Metrics.gauge(sb, "byteshare_hot_cache_resident_bytes", "Bytes held by the hot cache", hot.residentBytes());
 
-        public DiscoveryServer(int fileServerPort) {
-            this.fileServerPort = fileServerPort;
+            byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
         }
+    }
 
+    /** Handler for verifying PIN (for API use): 204 when {@code ?pin=} is right, 403 otherwise */
+    private class PinHandler implements HttpHandler {
         @Override
-        public void run() {
-            try {
-                socket = new DatagramSocket(DISCOVERY_PORT, InetAddress.getByName("0.0.0.0"));
-                System.out.println("[DiscoveryServer] Listening for discovery on port " + DISCOVERY_PORT);
-
-                byte[] buffer = new byte[512];
-                while (running) {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-
-                    String message = new String(packet.getData(), 0, packet.getLength()).trim();
-                    if (message.equals("DISCOVER_BYTESHARE")) {
-                        String reply = "BYTESHARE::" + InetAddress.getLocalHost().getHostAddress() + ":" + fileServerPort;
-                        byte[] replyData = reply.getBytes();
-                        DatagramPacket response = new DatagramPacket(replyData, replyData.length,
-                                packet.getAddress(), packet.getPort());
-                        socket.send(response);
-                        System.out.println("[DiscoveryServer] Responded to " + packet.getAddress());
-                    }
-                }
-            } catch (IOException e) {
-                if (running) e.printStackTrace();
+        public void handle(HttpExchange exchange) throws IOException {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if (!pinMatches(exchange, params.get("pin"))) {
+                sendInvalidPin(exchange);
+                return;
             }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        }
+    }
+
+    /** Register {@code handler} at {@code path}, instrumented; {@code transfer} marks endpoints that send file data */
+    private void context(String path, HttpHandler handler, boolean transfer) {
+        server.createContext(path, handler).getFilters().add(metrics.filter(path, transfer));
+    }
+
+    /** The part of a transfer request that moves file data, run once it is admitted */
+    private interface TransferBody {
+        void send() throws IOException;
+    }
+
+    /**
+     * Send {@code body} through admission control and the bandwidth limits, and
+     * count it so discovery replies report the load. Handlers call this only once
+     * the PIN is checked and the request resolved, so bad requests never take a
+     * slot or a place in the queue. Listings, PIN checks and HEAD requests never
+     * queue behind bulk transfers.
+     */
+    private void admit(HttpExchange exchange, TransferBody body) throws IOException {
+        if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            body.send();
+            return;
         }
+        boolean admittedNow;
+        try {
+            admittedNow = admission.acquire(MAX_QUEUE_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+        if (!admittedNow) {
+            sendBusy(exchange);
+            return;
+        }
+        long started = System.nanoTime();
+        BandwidthManager.Flow flow = bandwidth.open(exchange);
+        refreshDiscovery();
+        try {
+            body.send();
+        } finally {
+            flow.close();
+            admission.release(System.nanoTime() - started);
+            refreshDiscovery();
+        }
+    }
+
+    /** Every transfer slot is taken and the queue is full, or the wait ran out */
+    private void sendBusy(HttpExchange exchange) throws IOException {
+        byte[] body = ("Sender busy: " + admission.active() + " transfers running, " + admission.queued()
+                + " waiting. Try again shortly.").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Retry-After", Long.toString(admission.retryAfterSeconds()));
+        exchange.getResponseHeaders().set("X-Queue-Length", Integer.toString(admission.queued()));
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /** Rebuild the discovery reply after the catalog or the load changed */
+    private synchronized void refreshDiscovery() {
+        DiscoveryServer discovery = discoveryServer;
+        if (discovery != null) discovery.update(discoveryReply());
+    }
 
-        public void stopServer() {
-            running = false;
-            if (socket != null && !socket.isClosed()) socket.close();
+    private synchronized DiscoveryReply discoveryReply() {
+        if (digestVersion != catalog.version()) {
+            digestVersion = catalog.version();
+            contentDigest = DiscoveryReply.contentDigest(catalog);
         }
+        int active = admission.active();
+        return new DiscoveryReply(fileServerPort, multicastSender != null ? multicastSender.getGroup() : null,
+                catalog.size(), catalog.totalBytes(), digestVersion, contentDigest,
+                active, Math.max(0, transferCapacity - active), tls != null, false);
     }
 
     /** Find a free port */
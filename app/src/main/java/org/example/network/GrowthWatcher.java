@@ -0,0 +1,146 @@
+package org.example.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GrowthWatcher: wakes transfers that follow files still being written. The
+ * folder of each followed file is registered with one shared {@link WatchService}
+ * (inotify on Linux), so a follower sleeps until its file is written to instead
+ * of polling it. Followers still look again every {@link #FALLBACK_POLL_MS}, for
+ * file systems that report no events (network mounts).
+ */
+final class GrowthWatcher implements Closeable {
+
+    static final long FALLBACK_POLL_MS = 1_000;
+
+    private final WatchService watchService;
+    private final Thread thread;
+    private final Map<Path, WatchKey> folders = new HashMap<>();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, Signal> signals = new HashMap<>();
+    private volatile boolean closed;
+
+    /** Changes to one followed file; shared by everyone following it */
+    final class Signal implements Closeable {
+        private final Path file;
+        private int users = 1;
+        private long changes;
+
+        private Signal(Path file) {
+            this.file = file;
+        }
+
+        /** How many changes were seen so far; pass it to {@link #await} after reading the file */
+        synchronized long changes() {
+            return changes;
+        }
+
+        /** Wait up to {@code timeoutMs} for a change after the {@code seen}th, or {@link #FALLBACK_POLL_MS} at most */
+        synchronized void await(long seen, long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMs, FALLBACK_POLL_MS));
+            while (changes == seen) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return;
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+
+        private synchronized void changed() {
+            changes++;
+            notifyAll();
+        }
+
+        /** Stop following; the folder is unregistered once nobody follows a file in it */
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    GrowthWatcher() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        thread = Thread.ofPlatform().daemon().name("growth-watcher").unstarted(this::run);
+        thread.start();
+    }
+
+    /** Follow {@code file}; close the signal when done */
+    synchronized Signal watch(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        Signal signal = signals.get(path);
+        if (signal != null) {
+            signal.users++;
+            return signal;
+        }
+        Path folder = path.getParent();
+        if (!folders.containsKey(folder)) {
+            WatchKey key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            folders.put(folder, key);
+            keys.put(key, folder);
+        }
+        signal = new Signal(path);
+        signals.put(path, signal);
+        return signal;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void release(Signal signal) {
+        if (--signal.users > 0) return;
+        signals.remove(signal.file);
+        Path folder = signal.file.getParent();
+        for (Path other : signals.keySet()) {
+            if (other.getParent().equals(folder)) return;
+        }
+        WatchKey key = folders.remove(folder);
+        if (key != null) {
+            keys.remove(key);
+            key.cancel();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                synchronized (this) {
+                    Path folder = keys.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (folder == null) continue;
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were dropped: wake everyone following a file here
+                            for (Signal signal : signals.values()) {
+                                if (signal.file.getParent().equals(folder)) signal.changed();
+                            }
+                            continue;
+                        }
+                        Signal signal = signals.get(folder.resolve((Path) event.context()));
+                        if (signal != null) signal.changed();
+                    }
+                    key.reset();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.example.network;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HotFileCache: keeps recently served 1 MiB regions of shared files in off-heap
+ * buffers so many receivers fetching the same file are fed from one disk read.
+ * A region being loaded is shared: requests that arrive meanwhile wait for that
+ * read instead of starting their own.
+ * <p>
+ * Eviction is segmented LRU, sized in bytes: new regions enter a probation
+ * segment and move to a protected segment when hit again, so one large one-off
+ * download cannot flush the files a whole classroom is pulling. Buffers are
+ * pooled and never exceed the budget; a buffer still being sent when its
+ * region is evicted is only reused once the last reader releases it.
+ */
+public final class HotFileCache {
+
+    static final int REGION_SIZE = 1024 * 1024;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    /** Counters since start; {@code residentBytes} is what the cached regions hold now */
+    public record Stats(long hits, long misses, long sharedReads, long bypassed, long evictions,
+                        long residentBytes, long budgetBytes) {
+
+        public double hitRatio() {
+            long total = hits + sharedReads + misses;
+            return total == 0 ? 0 : (double) (hits + sharedReads) / total;
+        }
+    }
+
+    private record Key(String path, String etag, long index) {
+    }
+
+    /** One cached region, shared read-only by every request sending it */
+    static final class Region {
+        private final ByteBuffer buffer;
+        private final ByteBuffer data;
+        private final int length;
+        private final AtomicInteger refs = new AtomicInteger();
+        private volatile boolean evicted;
+        private final HotFileCache owner;
+
+        private Region(HotFileCache owner, ByteBuffer buffer, int length) {
+            this.owner = owner;
+            this.buffer = buffer;
+            this.data = buffer.asReadOnlyBuffer();
+            this.length = length;
+        }
+
+        /** A private view of bytes [from, to) of this region */
+        ByteBuffer slice(int from, int to) {
+            return data.duplicate().limit(to).position(from);
+        }
+
+        int length() {
+            return length;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int current = refs.get();
+                if (current < 0) return false;
+                if (refs.compareAndSet(current, current + 1)) return true;
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0 && evicted && refs.compareAndSet(0, -1)) {
+                owner.recycle(buffer);
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (refs.compareAndSet(0, -1)) owner.recycle(buffer);
+        }
+    }
+
+    private final LinkedHashMap<Key, Region> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Region> protectedRegions = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<Region>> loading = new HashMap<>();
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private long budget;
+    private long allocated;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sharedReads = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    HotFileCache(long budget) {
+        this.budget = budget;
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        while (probationBytes + protectedBytes > budget && evictOne()) {
+            // keep evicting
+        }
+        // Drop pooled buffers the smaller budget no longer allows
+        while (allocated > budget && !pool.isEmpty()) {
+            pool.poll();
+            allocated -= REGION_SIZE;
+        }
+    }
+
+    /** Files over a quarter of the budget would only churn the cache; they are sent from disk */
+    synchronized boolean admits(ShareCatalog.Entry entry) {
+        return budget >= REGION_SIZE && entry.size() <= budget / 4;
+    }
+
+    Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), misses.sum(), sharedReads.sum(), bypassed.sum(), evictions.sum(),
+                    probationBytes + protectedBytes, budget);
+        }
+    }
+
+    /**
+     * The region {@code index} of {@code entry}, retained for the caller, who must
+     * {@link Region#release()} it. Returns null when every buffer is busy, in which
+     * case the caller reads the file itself.
+     */
+    Region acquire(ShareCatalog.Entry entry, long index) throws IOException {
+        Key key = new Key(entry.file().getAbsolutePath(), entry.etag(), index);
+        while (true) {
+            CompletableFuture<Region> pending;
+            ByteBuffer buffer = null;
+            synchronized (this) {
+                Region region = protectedRegions.get(key);
+                if (region == null) {
+                    region = probation.remove(key);
+                    if (region != null) promote(key, region);
+                }
+                if (region != null && region.retain()) {
+                    hits.increment();
+                    return region;
+                }
+                pending = loading.get(key);
+                if (pending == null) {
+                    buffer = takeBuffer();
+                    if (buffer == null) {
+                        bypassed.increment();
+                        return null;
+                    }
+                    pending = new CompletableFuture<>();
+                    loading.put(key, pending);
+                    misses.increment();
+                } else {
+                    sharedReads.increment();
+                }
+            }
+            if (buffer != null) {
+                return load(entry, key, buffer, pending);
+            }
+            Region region;
+            try {
+                region = pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                throw e;
+            }
+            if (region.retain()) return region;
+            // Evicted before we could take it; look again
+        }
+    }
+
+    /** Read a region outside the lock; whoever joined {@code pending} meanwhile gets the same buffer */
+    private Region load(ShareCatalog.Entry entry, Key key, ByteBuffer buffer, CompletableFuture<Region> pending)
+            throws IOException {
+        Region region;
+        try {
+            region = read(entry, key.index(), buffer);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key);
+                pool.push(buffer.clear());
+            }
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        region.retain();
+        synchronized (this) {
+            loading.remove(key);
+            probation.put(key, region);
+            probationBytes += region.length();
+        }
+        pending.complete(region);
+        return region;
+    }
+
+    private void promote(Key key, Region region) {
+        probationBytes -= region.length();
+        protectedRegions.put(key, region);
+        protectedBytes += region.length();
+        // Keep room in probation: the protected segment's oldest regions get a second chance there
+        Iterator<Map.Entry<Key, Region>> it = protectedRegions.entrySet().iterator();
+        while (protectedBytes > budget * PROTECTED_SHARE && it.hasNext()) {
+            Map.Entry<Key, Region> eldest = it.next();
+            if (eldest.getKey().equals(key)) break;
+            it.remove();
+            protectedBytes -= eldest.getValue().length();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().length();
+        }
+    }
+
+    /** A free buffer: pooled, newly allocated within budget, or freed by evicting; null if all are busy */
+    private ByteBuffer takeBuffer() {
+        while (true) {
+            ByteBuffer buffer = pool.poll();
+            if (buffer != null) return buffer;
+            if (allocated + REGION_SIZE <= budget) {
+                allocated += REGION_SIZE;
+                return ByteBuffer.allocateDirect(REGION_SIZE);
+            }
+            // An evicted region that is still being sent frees its buffer later; keep going
+            if (!evictOne()) return null;
+        }
+    }
+
+    /** Evict the least valuable region; false if nothing is left to evict */
+    private boolean evictOne() {
+        LinkedHashMap<Key, Region> from = !probation.isEmpty() ? probation : protectedRegions;
+        Iterator<Map.Entry<Key, Region>> it = from.entrySet().iterator();
+        if (!it.hasNext()) return false;
+        Region region = it.next().getValue();
+        it.remove();
+        if (from == probation) probationBytes -= region.length();
+        else protectedBytes -= region.length();
+        evictions.increment();
+        region.evict();
+        return true;
+    }
+
+    private synchronized void recycle(ByteBuffer buffer) {
+        if (allocated > budget) {
+            allocated -= REGION_SIZE;
+            return;
+        }
+        pool.push(buffer.clear());
+    }
+
+    private Region read(ShareCatalog.Entry entry, long index, ByteBuffer buffer) throws IOException {
+        File file = entry.file();
+        long position = index * REGION_SIZE;
+        int length = (int) Math.min(REGION_SIZE, entry.size() - position);
+        buffer.clear().limit(length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File truncated while caching");
+                }
+            }
+        }
+        // Bytes from a newer version must not be cached under the old validator
+        if (file.length() != entry.size() || file.lastModified() != entry.lastModified()) {
+            throw new IOException("File changed while caching: " + file.getName());
+        }
+        buffer.flip();
+        return new Region(this, buffer, length);
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.network;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * ListingCache: rendered listing responses, keyed by the catalog version they were
+ * built from. A catalog change makes every cached page unreachable, so listings
+ * are only rebuilt after the catalog actually changed.
+ */
+final class ListingCache {
+
+    /** A rendered response body, the cursor of the page after it, and a strong validator of the body */
+    record Listing(byte[] body, String nextCursor, String etag) {
+
+        Listing(byte[] body, String nextCursor) {
+            this(body, nextCursor, etagOf(body));
+        }
+
+        /** Whether an {@code If-None-Match} header names this listing ({@code encodedTag} is the tag it was sent under) */
+        boolean matches(String ifNoneMatch, String encodedTag) {
+            if (ifNoneMatch == null) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // Weak comparison, as If-None-Match requires
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag) || tag.equals(encodedTag)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static final int MAX_ENTRIES = 1024;
+
+    private final ShareCatalog catalog;
+    private final Map<String, Listing> cache = new ConcurrentHashMap<>();
+    private volatile long version = -1;
+
+    ListingCache(ShareCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    Listing get(String kind, String variant, Supplier<Listing> builder) {
+        long current = catalog.version();
+        if (current != version || cache.size() >= MAX_ENTRIES) {
+            synchronized (this) {
+                if (current != version || cache.size() >= MAX_ENTRIES) {
+                    cache.clear();
+                    version = current;
+                }
+            }
+        }
+        // The version in the key keeps a page built during a change from outliving it
+        return cache.computeIfAbsent(current + "|" + kind + "|" + variant, key -> builder.get());
+    }
+
+    /** Content hash, so a rebuilt page that came out the same keeps its tag across catalog versions */
+    private static String etagOf(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 12) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ManifestStore: computes {@link ChunkManifest}s in the background and keeps them.
+ * Chunks of a file are hashed in parallel on a fork-join pool; finished manifests
+ * are persisted under the file's absolute path, so sharing the same unchanged
+ * file again needs no hashing at all.
+ */
+public class ManifestStore {
+
+    private static final int LEAF_CHUNKS = 2;
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int MAX_CACHED = 1024;
+
+    private final Path dir;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final Map<String, CompletableFuture<ChunkManifest>> manifests =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<ChunkManifest>> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+    private final AtomicLong version = new AtomicLong();
+
+    public ManifestStore() {
+        this(Path.of(System.getProperty("user.home"), ".byteshare", "manifests"));
+    }
+
+    public ManifestStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /** Start hashing {@code files} now so manifests are ready before anyone asks */
+    public void prepare(List<File> files) {
+        for (File file : files) {
+            if (file.isFile()) get(file, file.length(), file.lastModified());
+        }
+    }
+
+    /**
+     * The manifest of {@code file} as it was at {@code size}/{@code lastModified}:
+     * from memory, from disk, or hashed now. Fails if the file changes while hashing.
+     */
+    public CompletableFuture<ChunkManifest> get(File file, long size, long lastModified) {
+        String etag = ShareCatalog.etagFor(size, lastModified);
+        String key = file.getAbsolutePath() + "\0" + etag;
+        synchronized (manifests) {
+            CompletableFuture<ChunkManifest> existing = manifests.get(key);
+            if (existing != null && !existing.isCompletedExceptionally()) return existing;
+
+            CompletableFuture<ChunkManifest> future = new CompletableFuture<>();
+            manifests.put(key, future);
+            pool.execute(() -> {
+                try {
+                    future.complete(loadOrCompute(file, etag, size, lastModified));
+                    version.incrementAndGet();
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+    }
+
+    /** The manifest of {@code file} at {@code size}/{@code lastModified} if it is already known, without hashing */
+    public ChunkManifest peek(File file, long size, long lastModified) {
+        String key = file.getAbsolutePath() + "\0" + ShareCatalog.etagFor(size, lastModified);
+        CompletableFuture<ChunkManifest> existing;
+        synchronized (manifests) {
+            existing = manifests.get(key);
+        }
+        return existing != null && existing.isDone() && !existing.isCompletedExceptionally()
+                ? existing.join()
+                : null;
+    }
+
+    /** Bumped whenever a manifest becomes known, so anything listing root hashes knows to rebuild */
+    public long version() {
+        return version.get();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private ChunkManifest loadOrCompute(File file, String etag, long size, long lastModified) throws IOException {
+        Path stored = dir.resolve(storedName(file));
+        if (Files.exists(stored)) {
+            try (InputStream in = Files.newInputStream(stored)) {
+                ChunkManifest manifest = ChunkManifest.parse(in);
+                if (manifest.etag().equals(etag)) return manifest;
+            } catch (IOException e) {
+                // Corrupt or outdated: hash again and overwrite
+            }
+        }
+
+        long started = System.nanoTime();
+        Metrics.HashEvent event = new Metrics.HashEvent();
+        event.begin();
+        ChunkManifest manifest = compute(file, etag, size);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file.getPath();
+            event.size = size;
+            event.chunks = manifest.chunkCount();
+            event.commit();
+        }
+        if (file.length() != size || file.lastModified() != lastModified) {
+            throw new IOException("File changed while hashing: " + file);
+        }
+        System.out.println("[ManifestStore] Hashed " + file.getName() + " (" + manifest.chunkCount()
+                + " chunks) in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        save(stored, manifest);
+        return manifest;
+    }
+
+    private static ChunkManifest compute(File file, String etag, long size) throws IOException {
+        int chunkSize = ChunkManifest.chunkSizeFor(size);
+        byte[][] hashes = new byte[(int) ((size + chunkSize - 1) / chunkSize)][];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            HashChunks task = new HashChunks(channel, size, chunkSize, hashes, 0, hashes.length);
+            task.invoke();
+            if (task.failure != null) throw task.failure;
+        }
+        return new ChunkManifest(etag, size, chunkSize, hashes);
+    }
+
+    private void save(Path stored, ChunkManifest manifest) {
+        try {
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, "manifest", ".tmp");
+            Files.write(temp, manifest.toBytes());
+            Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("[ManifestStore] Could not persist manifest: " + e.getMessage());
+        }
+    }
+
+    private static String storedName(File file) {
+        byte[] hash = ChunkManifest.sha256().digest(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash, 0, 16) + ".manifest";
+    }
+
+    /** Hash chunks [from, to), splitting the range until each leaf has a couple of chunks */
+    private static final class HashChunks extends RecursiveAction {
+        private final FileChannel channel;
+        private final long size;
+        private final int chunkSize;
+        private final byte[][] hashes;
+        private final int from;
+        private final int to;
+        private IOException failure;
+
+        HashChunks(FileChannel channel, long size, int chunkSize, byte[][] hashes, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_CHUNKS) {
+                int mid = (from + to) >>> 1;
+                HashChunks left = new HashChunks(channel, size, chunkSize, hashes, from, mid);
+                HashChunks right = new HashChunks(channel, size, chunkSize, hashes, mid, to);
+                invokeAll(left, right);
+                failure = left.failure != null ? left.failure : right.failure;
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+            MessageDigest digest = ChunkManifest.sha256();
+            try {
+                for (int i = from; i < to; i++) {
+                    long position = (long) i * chunkSize;
+                    long end = Math.min(size, position + chunkSize);
+                    while (position < end) {
+                        buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                        int n = channel.read(buffer, position);
+                        if (n < 0) throw new EOFException("File shrank while hashing");
+                        buffer.flip();
+                        digest.update(buffer);
+                        position += n;
+                    }
+                    hashes[i] = digest.digest();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
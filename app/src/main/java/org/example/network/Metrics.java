@@ -0,0 +1,320 @@
+package org.example.network;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics: process-wide counters and histograms for transfers, handlers and
+ * discovery, rendered in the Prometheus text format for {@code /metrics}.
+ * <p>
+ * Every HTTP context gets a {@link #filter} that times the handler and counts
+ * the body bytes it sends, including bytes the zero-copy engine writes straight
+ * to the socket (reported through {@link #sent}). The same points also emit
+ * JFR events, which cost nothing unless a recording is running:
+ * {@code java -XX:StartFlightRecording ...} and look under "ByteShare".
+ */
+public final class Metrics {
+
+    private static final double[] SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+    private static final double[] BYTES = {1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10};
+    private static final double[] BYTES_PER_SECOND = {1e5, 1e6, 1e7, 5e7, 1e8, 2.5e8, 5e8, 1e9, 2.5e9, 5e9, 1e10};
+    private static final String PROBE_ATTRIBUTE = Probe.class.getName();
+    private static final Metrics SHARED = new Metrics();
+
+    /** Bytes, duration, throughput and time to first byte of one transfer endpoint */
+    private static final class Transfers {
+        final LongAdder count = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final Histogram size = new Histogram(BYTES);
+        final Histogram duration = new Histogram(SECONDS);
+        final Histogram throughput = new Histogram(BYTES_PER_SECOND);
+        final Histogram firstByte = new Histogram(SECONDS);
+    }
+
+    private final Map<String, Histogram> handlerLatency = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+    private final Map<String, Transfers> transfers = new ConcurrentHashMap<>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final LongAdder discoveryRequests = new LongAdder();
+    private final Histogram discoveryRtt = new Histogram(SECONDS);
+
+    /** The registry everything in this process reports to */
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Filter for the context at {@code path}: handler latency and response codes
+     * always; bytes, duration, throughput and time to first byte when {@code transfer}.
+     */
+    Filter filter(String path, boolean transfer) {
+        Histogram latency = handlerLatency.computeIfAbsent(path, p -> new Histogram(SECONDS));
+        Transfers stats = transfer ? transfers.computeIfAbsent(path, p -> new Transfers()) : null;
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                TransferEvent event = new TransferEvent();
+                event.begin();
+                Probe probe = new Probe(System.nanoTime());
+                exchange.setAttribute(PROBE_ATTRIBUTE, probe);
+                exchange.setStreams(null, probe.wrap(exchange.getResponseBody()));
+                activeRequests.incrementAndGet();
+                try {
+                    chain.doFilter(exchange);
+                } finally {
+                    activeRequests.decrementAndGet();
+                    long elapsed = System.nanoTime() - probe.start;
+                    long ttfb = probe.firstByte != 0 ? probe.firstByte - probe.start : elapsed;
+                    int status = exchange.getResponseCode();
+                    latency.observe(elapsed / 1e9);
+                    responses.computeIfAbsent(path + "|" + status, key -> new LongAdder()).increment();
+                    if (stats != null && status >= 200 && status < 300) {
+                        stats.count.increment();
+                        stats.bytes.add(probe.bytes);
+                        stats.size.observe(probe.bytes);
+                        stats.duration.observe(elapsed / 1e9);
+                        stats.firstByte.observe(ttfb / 1e9);
+                        if (elapsed > 0) stats.throughput.observe(probe.bytes * 1e9 / elapsed);
+                    }
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.context = path;
+                        event.status = status;
+                        event.bytes = probe.bytes;
+                        event.timeToFirstByte = ttfb;
+                        event.commit();
+                    }
+                }
+            }
+
+            @Override
+            public String description() {
+                return "metrics for " + path;
+            }
+        };
+    }
+
+    /** Count {@code bytes} a handler wrote to {@code exchange} around its response stream */
+    static void sent(HttpExchange exchange, long bytes) {
+        if (exchange.getAttribute(PROBE_ATTRIBUTE) instanceof Probe probe) probe.sent(bytes);
+    }
+
+    /** Body bytes sent so far by completed transfers on {@code path}, e.g. {@code /download} */
+    public long transferBytes(String path) {
+        Transfers stats = transfers.get(path);
+        return stats != null ? stats.bytes.sum() : 0;
+    }
+
+    /** A discovery request answered by this process's DiscoveryServer */
+    void discoveryAnswered() {
+        discoveryRequests.increment();
+    }
+
+    /** Time from a discovery probe to a sender's reply, as seen by the scanner */
+    void discoveryReply(String address, long rttNanos) {
+        discoveryRtt.observe(rttNanos / 1e9);
+        DiscoveryEvent event = new DiscoveryEvent();
+        if (event.shouldCommit()) {
+            event.address = address;
+            event.roundTrip = rttNanos;
+            event.commit();
+        }
+    }
+
+    /** Render every metric in the Prometheus text exposition format (0.0.4) */
+    public void render(StringBuilder out) {
+        gauge(out, "byteshare_active_requests", "HTTP requests being handled", activeRequests.get());
+
+        header(out, "byteshare_responses_total", "counter", "HTTP responses by context and status");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(responses).entrySet()) {
+            String[] key = entry.getKey().split("\\|");
+            sample(out, "byteshare_responses_total",
+                    "{context=\"" + key[0] + "\",code=\"" + key[1] + "\"}", entry.getValue().sum());
+        }
+
+        header(out, "byteshare_handler_latency_seconds", "histogram", "Time spent in each HTTP handler");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(handlerLatency).entrySet()) {
+            entry.getValue().write(out, "byteshare_handler_latency_seconds", context(entry.getKey()));
+        }
+
+        Map<String, Transfers> sorted = new TreeMap<>(transfers);
+        header(out, "byteshare_transfers_total", "counter", "Completed successful transfers");
+        sorted.forEach((path, stats) -> sample(out, "byteshare_transfers_total", "{" + context(path) + "}",
+                stats.count.sum()));
+        header(out, "byteshare_transfer_bytes_total", "counter", "Body bytes sent by transfers");
+        sorted.forEach((path, stats) -> sample(out, "byteshare_transfer_bytes_total", "{" + context(path) + "}",
+                stats.bytes.sum()));
+        header(out, "byteshare_transfer_size_bytes", "histogram", "Body bytes per transfer");
+        sorted.forEach((path, stats) -> stats.size.write(out, "byteshare_transfer_size_bytes", context(path)));
+        header(out, "byteshare_transfer_duration_seconds", "histogram", "Duration of each transfer");
+        sorted.forEach((path, stats) ->
+                stats.duration.write(out, "byteshare_transfer_duration_seconds", context(path)));
+        header(out, "byteshare_transfer_throughput_bytes_per_second", "histogram", "Average rate of each transfer");
+        sorted.forEach((path, stats) ->
+                stats.throughput.write(out, "byteshare_transfer_throughput_bytes_per_second", context(path)));
+        header(out, "byteshare_transfer_first_byte_seconds", "histogram", "Time from request to first body byte");
+        sorted.forEach((path, stats) ->
+                stats.firstByte.write(out, "byteshare_transfer_first_byte_seconds", context(path)));
+
+        header(out, "byteshare_discovery_requests_total", "counter", "Discovery probes answered");
+        sample(out, "byteshare_discovery_requests_total", "", discoveryRequests.sum());
+        header(out, "byteshare_discovery_rtt_seconds", "histogram", "Discovery probe to reply round trip");
+        discoveryRtt.write(out, "byteshare_discovery_rtt_seconds", "");
+    }
+
+    static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, "gauge", help);
+        sample(out, name, "", value);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ').append(format(value)).append('\n');
+    }
+
+    private static String context(String path) {
+        return "context=\"" + path + "\"";
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /** Cumulative-bucket histogram with fixed upper bounds */
+    private static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+        }
+
+        void observe(double value) {
+            int i = Arrays.binarySearch(bounds, value);
+            counts[i >= 0 ? i : -i - 1].increment();
+            sum.add(value);
+        }
+
+        void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i].sum();
+                sample(out, name + "_bucket", prefix + "le=\"" + format(bounds[i]) + "\"}", cumulative);
+            }
+            cumulative += counts[bounds.length].sum();
+            sample(out, name + "_bucket", prefix + "le=\"+Inf\"}", cumulative);
+            String plain = labels.isEmpty() ? "" : "{" + labels + "}";
+            sample(out, name + "_sum", plain, sum.sum());
+            sample(out, name + "_count", plain, cumulative);
+        }
+    }
+
+    /** Per-exchange byte count and first-byte time; an exchange runs on one thread */
+    private static final class Probe {
+        final long start;
+        long firstByte;
+        long bytes;
+
+        Probe(long start) {
+            this.start = start;
+        }
+
+        void sent(long count) {
+            if (count > 0 && firstByte == 0) firstByte = System.nanoTime();
+            bytes += count;
+        }
+
+        OutputStream wrap(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    sent(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    sent(len);
+                }
+            };
+        }
+    }
+
+    @Name("byteshare.Transfer")
+    @Label("HTTP Exchange")
+    @Category("ByteShare")
+    @Description("One request handled by a FileServer context")
+    static final class TransferEvent extends Event {
+        @Label("Context")
+        String context;
+
+        @Label("Status")
+        int status;
+
+        @Label("Body Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Time to First Byte")
+        @Timespan
+        long timeToFirstByte;
+    }
+
+    @Name("byteshare.Discovery")
+    @Label("Discovery Reply")
+    @Category("ByteShare")
+    @Description("A sender answered a discovery probe")
+    static final class DiscoveryEvent extends Event {
+        @Label("Sender")
+        String address;
+
+        @Label("Round Trip")
+        @Timespan
+        long roundTrip;
+    }
+
+    @Name("byteshare.ManifestHash")
+    @Label("Manifest Hash")
+    @Category("ByteShare")
+    @Description("Hashing a file's chunk manifest")
+    static final class HashEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Chunks")
+        int chunks;
+    }
+}
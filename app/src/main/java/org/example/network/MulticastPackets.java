@@ -0,0 +1,121 @@
+package org.example.network;
+
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MulticastPackets: the datagram format shared by {@link MulticastSender} and
+ * {@link MulticastReceiver}. Every packet starts with a type byte and the
+ * session id; integers are big-endian.
+ * <pre>
+ * ANNOUNCE  'A' session:int size:long payload:int nameLength:short name:utf8
+ * DATA      'D' session:int seq:int bytes...
+ * END       'E' session:int round:int
+ * NACK      'N' session:int count:short (first:int length:int)*count
+ * </pre>
+ * DATA packet {@code seq} carries file bytes from {@code seq * payload}. END
+ * closes each send or repair round and invites NACKs for what is still missing.
+ */
+final class MulticastPackets {
+
+    static final byte ANNOUNCE = 'A';
+    static final byte DATA = 'D';
+    static final byte END = 'E';
+    static final byte NACK = 'N';
+
+    static final int DEFAULT_PORT = 60001;
+    /** Keeps DATA packets under a 1500-byte Ethernet MTU with IP and UDP headers */
+    static final int DEFAULT_PAYLOAD = 1400;
+    static final int DATA_HEADER = 9;
+    static final int MAX_PACKET = 65507;
+    private static final int MAX_NACK_RANGES = (DEFAULT_PAYLOAD - 7) / 8;
+
+    private MulticastPackets() {
+    }
+
+    /** Administratively scoped group used unless the sender picks another */
+    static InetSocketAddress defaultGroup() {
+        try {
+            return new InetSocketAddress(InetAddress.getByName("239.255.42.99"), DEFAULT_PORT);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** First up, multicast-capable, non-loopback interface; loopback if there is none */
+    static NetworkInterface defaultInterface() throws SocketException {
+        NetworkInterface loopback = null;
+        for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!nif.isUp() || nif.inetAddresses().noneMatch(a -> a instanceof Inet4Address)) continue;
+            if (nif.isLoopback()) {
+                loopback = nif;
+            } else if (nif.supportsMulticast() && !nif.isVirtual()) {
+                return nif;
+            }
+        }
+        if (loopback == null) throw new SocketException("No network interface for multicast");
+        return loopback;
+    }
+
+    static int packetCount(long size, int payload) {
+        return (int) Math.max(1, (size + payload - 1) / payload);
+    }
+
+    static ByteBuffer announce(int session, long size, int payload, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(19 + nameBytes.length)
+                .put(ANNOUNCE).putInt(session).putLong(size).putInt(payload)
+                .putShort((short) nameBytes.length).put(nameBytes)
+                .flip();
+    }
+
+    static ByteBuffer end(int session, int round) {
+        return ByteBuffer.allocate(9).put(END).putInt(session).putInt(round).flip();
+    }
+
+    /** A NACK for the first runs of clear bits below {@code count}; null if nothing is missing */
+    static ByteBuffer nack(int session, BitSet received, int count) {
+        List<int[]> ranges = new ArrayList<>();
+        int from = received.nextClearBit(0);
+        while (from < count && ranges.size() < MAX_NACK_RANGES) {
+            int to = Math.min(count, received.nextSetBit(from) < 0 ? count : received.nextSetBit(from));
+            ranges.add(new int[]{from, to - from});
+            from = received.nextClearBit(to);
+        }
+        if (ranges.isEmpty()) return null;
+        ByteBuffer packet = ByteBuffer.allocate(7 + ranges.size() * 8)
+                .put(NACK).putInt(session).putShort((short) ranges.size());
+        for (int[] range : ranges) {
+            packet.putInt(range[0]).putInt(range[1]);
+        }
+        return packet.flip();
+    }
+
+    /** Sequence numbers named by a NACK body (positioned after the session id), clipped to {@code count} */
+    static BitSet readNack(ByteBuffer packet, int count) {
+        BitSet missing = new BitSet(count);
+        int ranges = packet.getShort() & 0xFFFF;
+        for (int i = 0; i < ranges && packet.remaining() >= 8; i++) {
+            int first = packet.getInt();
+            int length = packet.getInt();
+            if (first < 0 || length <= 0 || first >= count) continue;
+            missing.set(first, (int) Math.min(count, (long) first + length));
+        }
+        return missing;
+    }
+
+    /** The name at the end of an ANNOUNCE; null if the packet ends before the name does */
+    static String readName(ByteBuffer packet) {
+        if (packet.remaining() < 2) return null;
+        int length = packet.getShort() & 0xFFFF;
+        if (length > packet.remaining()) return null;
+        byte[] name = new byte[length];
+        packet.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
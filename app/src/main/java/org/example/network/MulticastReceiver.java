@@ -0,0 +1,223 @@
+package org.example.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * MulticastReceiver: joins a {@link MulticastSender}'s group and writes the
+ * announced file as DATA packets arrive, each at its own offset, so loss and
+ * reordering need no buffering. After every END marker it NACKs the packets it
+ * still lacks. NACKs leave from a separate unicast socket, which is also where
+ * unicast repairs come back: several receivers on one host share the group
+ * port, and the kernel would hand a unicast repair to only one of them.
+ * <p>
+ * The group is open to anyone on the network, so packets are only taken from
+ * the address of the sender the receiver is connected to. An announced file is
+ * only accepted when the sender's PIN-protected {@code /manifest} describes a
+ * file of that size, and it is checked chunk by chunk against that manifest
+ * before it is moved into place.
+ */
+public class MulticastReceiver implements Closeable {
+
+    private static final int RECEIVE_BUFFER = 8 * 1024 * 1024;
+
+    private final DatagramChannel groupChannel;
+    private final DatagramChannel unicastChannel;
+    private final Selector selector;
+
+    public MulticastReceiver(InetSocketAddress group) throws IOException {
+        this(group, MulticastPackets.defaultInterface());
+    }
+
+    public MulticastReceiver(InetSocketAddress group, NetworkInterface nif) throws IOException {
+        selector = Selector.open();
+        groupChannel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                .setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER)
+                .bind(new InetSocketAddress(group.getPort()));
+        groupChannel.join(group.getAddress(), nif);
+        unicastChannel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER)
+                .bind(new InetSocketAddress(0));
+        groupChannel.configureBlocking(false).register(selector, SelectionKey.OP_READ);
+        unicastChannel.configureBlocking(false).register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Receive the next file that {@code sender} announces with path {@code name}
+     * (any of its files when null) into {@code targetDir}. Fails if nothing is
+     * heard from it for {@code idleTimeoutMs}, e.g. the sender stopped before every
+     * packet arrived, or if the file does not match the sender's manifest.
+     */
+    public Path receive(FileDownloader sender, String name, Path targetDir, long idleTimeoutMs) throws IOException {
+        Path root = targetDir.toAbsolutePath().normalize();
+        InetAddress senderAddress = sender.senderAddress();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MulticastPackets.MAX_PACKET);
+        Set<Integer> refused = new HashSet<>();
+        Transfer transfer = null;
+        long lastHeard = System.nanoTime();
+        try {
+            while (true) {
+                long idleMs = (System.nanoTime() - lastHeard) / 1_000_000;
+                if (idleMs >= idleTimeoutMs) {
+                    throw new SocketTimeoutException(transfer == null
+                            ? "No multicast file announced"
+                            : "Multicast sender went quiet with " + transfer.missing
+                            + " of " + transfer.count + " packets missing");
+                }
+                selector.select(idleTimeoutMs - idleMs);
+                selector.selectedKeys().clear();
+
+                for (DatagramChannel channel : new DatagramChannel[]{groupChannel, unicastChannel}) {
+                    SocketAddress from;
+                    while ((from = channel.receive(buffer.clear())) != null) {
+                        buffer.flip();
+                        if (buffer.remaining() < 5 || !isFrom(from, senderAddress)) continue;
+                        byte type = buffer.get();
+                        int session = buffer.getInt();
+                        if (transfer == null) {
+                            if (type == MulticastPackets.ANNOUNCE && buffer.remaining() >= 14
+                                    && !refused.contains(session)) {
+                                long size = buffer.getLong();
+                                int payload = buffer.getInt();
+                                String path = MulticastPackets.readName(buffer);
+                                if (path != null && (name == null || name.equals(path)) && size >= 0 && payload > 0) {
+                                    ChunkManifest manifest = sender.manifest(path);
+                                    if (manifest == null || manifest.size() != size) {
+                                        // Not a file the sender vouches for: ignore the whole session
+                                        System.out.println("[MulticastReceiver] Ignoring " + path
+                                                + ": the sender's manifest does not describe it");
+                                        refused.add(session);
+                                        continue;
+                                    }
+                                    transfer = new Transfer(session, FileDownloader.resolveTarget(root, path), size,
+                                            payload, manifest);
+                                    System.out.println("[MulticastReceiver] Receiving " + path + " (" + size + " bytes)");
+                                    lastHeard = System.nanoTime();
+                                }
+                            }
+                            continue;
+                        }
+                        if (session != transfer.id) continue;
+                        lastHeard = System.nanoTime();
+                        if (type == MulticastPackets.DATA && buffer.remaining() >= 4) {
+                            transfer.write(buffer.getInt(), buffer);
+                        } else if (type == MulticastPackets.END) {
+                            ByteBuffer nack = MulticastPackets.nack(transfer.id, transfer.received, transfer.count);
+                            if (nack != null) unicastChannel.send(nack, from);
+                        }
+                        if (transfer.isComplete()) {
+                            Path saved = transfer.commit();
+                            transfer = null;
+                            return saved;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (transfer != null) transfer.abort();
+        }
+    }
+
+    /** Whether a packet from {@code from} comes from the sender; on its own host any local address will do */
+    private static boolean isFrom(SocketAddress from, InetAddress sender) {
+        if (!(from instanceof InetSocketAddress socket)) return false;
+        InetAddress address = socket.getAddress();
+        if (address.equals(sender)) return true;
+        try {
+            return sender.isLoopbackAddress() && NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        groupChannel.close();
+        unicastChannel.close();
+    }
+
+    /** One file being assembled in a part file next to its target */
+    private static final class Transfer {
+        private final int id;
+        private final Path target;
+        private final Path part;
+        private final long size;
+        private final int payload;
+        private final int count;
+        private final BitSet received;
+        private final FileChannel file;
+        private final ChunkManifest manifest;
+        private int missing;
+
+        Transfer(int id, Path target, long size, int payload, ChunkManifest manifest) throws IOException {
+            this.id = id;
+            this.target = target;
+            this.part = target.resolveSibling(target.getFileName() + ".mcast");
+            this.size = size;
+            this.payload = payload;
+            this.count = MulticastPackets.packetCount(size, payload);
+            this.received = new BitSet(count);
+            this.missing = count;
+            this.manifest = manifest;
+            Files.createDirectories(target.getParent());
+            this.file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void write(int seq, ByteBuffer data) throws IOException {
+            if (seq < 0 || seq >= count || received.get(seq)) return;
+            long position = (long) seq * payload;
+            if (data.remaining() != Math.min(payload, size - position)) return;
+            while (data.hasRemaining()) {
+                position += file.write(data, position);
+            }
+            received.set(seq);
+            missing--;
+        }
+
+        boolean isComplete() {
+            return missing == 0;
+        }
+
+        /** Check every chunk against the manifest, then move the file into place */
+        Path commit() throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(manifest.chunkSize());
+            for (int index = 0; index < manifest.chunkCount(); index++) {
+                chunk.clear().limit(manifest.chunkLength(index));
+                long position = manifest.chunkStart(index);
+                while (chunk.hasRemaining()) {
+                    if (file.read(chunk, position + chunk.position()) < 0) break;
+                }
+                MessageDigest digest = ChunkManifest.sha256();
+                digest.update(chunk.flip());
+                if (!manifest.matches(index, digest.digest())) {
+                    throw new IOException("Broadcast of " + target.getFileName() + " failed verification at chunk "
+                            + index + "; discarded");
+                }
+            }
+            file.close();
+            FileDownloader.commit(part, target);
+            return target;
+        }
+
+        void abort() throws IOException {
+            file.close();
+            Files.deleteIfExists(part);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package org.example.network;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MulticastSender: sends shared files once to a multicast group instead of once
+ * per receiver. Each file is a session: an announce, one paced pass of sequenced
+ * DATA packets, then rounds of END markers. Receivers answer an END with NACKs
+ * for what they lost; packets several receivers lost are multicast again, the
+ * rest go back by unicast only to whoever asked. A session finishes after a few
+ * rounds pass without any NACK. Files go out one session at a time so the rate
+ * limit holds for the whole group.
+ */
+public class MulticastSender implements Closeable {
+
+    private static final long DEFAULT_RATE_BITS = 100_000_000L;
+    private static final long ANNOUNCE_INTERVAL_NANOS = 500_000_000L;
+    private static final long NACK_WINDOW_MS = 300;
+    private static final int QUIET_ROUNDS = 3;
+    private static final int MAX_ROUNDS = 100;
+    private static final long MAX_BURST_NANOS = 10_000_000L;
+
+    private final InetSocketAddress group;
+    private final DatagramChannel channel;
+    private final int payload;
+    private final ExecutorService sessions = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("multicast-session-", 0).factory());
+    private final Map<Integer, Session> active = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private volatile long rateBits = DEFAULT_RATE_BITS;
+
+    public MulticastSender() throws IOException {
+        this(MulticastPackets.defaultGroup(), MulticastPackets.defaultInterface());
+    }
+
+    public MulticastSender(InetSocketAddress group, NetworkInterface nif) throws IOException {
+        this(group, nif, MulticastPackets.DEFAULT_PAYLOAD);
+    }
+
+    public MulticastSender(InetSocketAddress group, NetworkInterface nif, int payload) throws IOException {
+        if (payload < 1 || payload > MulticastPackets.MAX_PACKET - MulticastPackets.DATA_HEADER) {
+            throw new IllegalArgumentException("payload out of range: " + payload);
+        }
+        this.group = group;
+        this.payload = payload;
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.IP_MULTICAST_IF, nif)
+                .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true)
+                .setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1)
+                .bind(new InetSocketAddress(0));
+        Thread.ofVirtual().name("multicast-nacks").start(this::receiveNacks);
+        System.out.println("[MulticastSender] Sending to " + group.getAddress().getHostAddress()
+                + ":" + group.getPort() + " via " + nif.getName());
+    }
+
+    public InetSocketAddress getGroup() {
+        return group;
+    }
+
+    /** Cap on the data rate, in bits per second; takes effect immediately */
+    public void setRate(long bitsPerSecond) {
+        if (bitsPerSecond <= 0) throw new IllegalArgumentException("rate must be positive");
+        this.rateBits = bitsPerSecond;
+    }
+
+    /** Queue {@code entry} for sending; completes when no receiver reports anything missing */
+    public CompletableFuture<Void> send(ShareCatalog.Entry entry) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                new Session(entry).run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, sessions);
+    }
+
+    @Override
+    public void close() {
+        sessions.shutdownNow();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void receiveNacks() {
+        ByteBuffer buffer = ByteBuffer.allocate(MulticastPackets.MAX_PACKET);
+        try {
+            while (channel.isOpen()) {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                buffer.flip();
+                if (buffer.remaining() < 7 || buffer.get() != MulticastPackets.NACK) continue;
+                Session session = active.get(buffer.getInt());
+                if (session != null) {
+                    session.nack(from, MulticastPackets.readNack(buffer, session.count));
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Sender closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final class Session {
+        private final int id = random.nextInt();
+        private final ShareCatalog.Entry entry;
+        private final int count;
+        private final ByteBuffer packet = ByteBuffer.allocateDirect(MulticastPackets.DATA_HEADER + payload);
+        private final Map<SocketAddress, BitSet> nacks = new HashMap<>();
+        private long nextAnnounce;
+        private long paceStart;
+        private long pacedBytes;
+        private long pacedRate;
+        private long multicastRepairs;
+        private long unicastRepairs;
+
+        Session(ShareCatalog.Entry entry) {
+            this.entry = entry;
+            this.count = MulticastPackets.packetCount(entry.size(), payload);
+        }
+
+        void run() throws IOException {
+            active.put(id, this);
+            try (FileChannel file = FileChannel.open(entry.file().toPath(), StandardOpenOption.READ)) {
+                for (int seq = 0; seq < count; seq++) {
+                    announceIfDue();
+                    sendData(file, seq, group);
+                }
+
+                int quiet = 0;
+                int round = 0;
+                while (quiet < QUIET_ROUNDS) {
+                    if (++round > MAX_ROUNDS) {
+                        System.out.println("[MulticastSender] Giving up repairs for " + entry.path()
+                                + " after " + MAX_ROUNDS + " rounds");
+                        break;
+                    }
+                    announceIfDue();
+                    channel.send(MulticastPackets.end(id, round), group);
+                    try {
+                        Thread.sleep(NACK_WINDOW_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    Map<SocketAddress, BitSet> requests = takeNacks();
+                    if (requests.isEmpty()) {
+                        quiet++;
+                    } else {
+                        quiet = 0;
+                        repair(file, requests);
+                    }
+                }
+            } finally {
+                active.remove(id);
+            }
+            System.out.println("[MulticastSender] Sent " + entry.path() + ": " + count + " packets, "
+                    + multicastRepairs + " multicast and " + unicastRepairs + " unicast repairs");
+        }
+
+        synchronized void nack(SocketAddress from, BitSet missing) {
+            nacks.merge(from, missing, (a, b) -> {
+                a.or(b);
+                return a;
+            });
+        }
+
+        private synchronized Map<SocketAddress, BitSet> takeNacks() {
+            Map<SocketAddress, BitSet> taken = new HashMap<>(nacks);
+            nacks.clear();
+            return taken;
+        }
+
+        /** Packets lost by two or more receivers go to the group once; the rest go only to whoever lost them */
+        private void repair(FileChannel file, Map<SocketAddress, BitSet> requests) throws IOException {
+            BitSet seen = new BitSet(count);
+            BitSet shared = new BitSet(count);
+            for (BitSet missing : requests.values()) {
+                BitSet again = (BitSet) missing.clone();
+                again.and(seen);
+                shared.or(again);
+                seen.or(missing);
+            }
+            for (int seq = shared.nextSetBit(0); seq >= 0; seq = shared.nextSetBit(seq + 1)) {
+                sendData(file, seq, group);
+                multicastRepairs++;
+            }
+            for (Map.Entry<SocketAddress, BitSet> request : requests.entrySet()) {
+                BitSet own = request.getValue();
+                own.andNot(shared);
+                for (int seq = own.nextSetBit(0); seq >= 0; seq = own.nextSetBit(seq + 1)) {
+                    sendData(file, seq, request.getKey());
+                    unicastRepairs++;
+                }
+            }
+        }
+
+        private void announceIfDue() throws IOException {
+            long now = System.nanoTime();
+            if (now - nextAnnounce < 0) return;
+            nextAnnounce = now + ANNOUNCE_INTERVAL_NANOS;
+            channel.send(MulticastPackets.announce(id, entry.size(), payload, entry.path()), group);
+        }
+
+        private void sendData(FileChannel file, int seq, SocketAddress target) throws IOException {
+            long position = (long) seq * payload;
+            int length = (int) Math.min(payload, entry.size() - position);
+            packet.clear();
+            packet.put(MulticastPackets.DATA).putInt(id).putInt(seq);
+            packet.limit(MulticastPackets.DATA_HEADER + length);
+            while (packet.hasRemaining()) {
+                if (file.read(packet, position + packet.position() - MulticastPackets.DATA_HEADER) < 0) {
+                    throw new EOFException("File truncated while sending " + entry.path());
+                }
+            }
+            packet.flip();
+            channel.send(packet, target);
+            pace(MulticastPackets.DATA_HEADER + length);
+        }
+
+        /**
+         * Sleep off any lead over the rate limit, in slices of at least a millisecond.
+         * Credit left over from idle time (waiting for NACKs) is capped, so repairs
+         * do not go out as one unpaced burst.
+         */
+        private void pace(int bytes) {
+            long rate = rateBits;
+            if (rate != pacedRate) {
+                pacedRate = rate;
+                paceStart = System.nanoTime();
+                pacedBytes = 0;
+            }
+            pacedBytes += bytes;
+            long due = paceStart + (long) (pacedBytes * 8e9 / rate);
+            long now = System.nanoTime();
+            long lead = due - now;
+            if (lead > 1_000_000) {
+                LockSupport.parkNanos(lead);
+            } else if (lead < -MAX_BURST_NANOS) {
+                paceStart = now;
+                pacedBytes = 0;
+            }
+        }
+    }
+}
@@ -1,47 +1,223 @@
 package org.example.network;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * NetworkScanner that discovers ByteShare senders using UDP broadcast.
+ * <p>
+ * One non-blocking channel probes every interface's broadcast address and a
+ * selector loop handles replies as they arrive, so listeners hear about each
+ * sender immediately instead of after a fixed wait. Known senders are cached
+ * and re-probed in the background; one that stops answering for
+ * {@link #TTL_MS} is dropped. The cache is shared app-wide through
+ * {@link #shared()}, so a screen opened later starts with what is already known.
  */
-public class NetworkScanner {
+public class NetworkScanner implements Closeable {
 
     private static final int DISCOVERY_PORT = 60000; // Fixed discovery port
     private static final String DISCOVERY_MESSAGE = "DISCOVER_BYTESHARE";
-    private static final int TIMEOUT = 200; // ms per packet
-
-    public static List<String> scanNetwork() {
-        List<String> senders = new ArrayList<>();
-        try (DatagramSocket socket = new DatagramSocket()) {
-            socket.setBroadcast(true);
-            socket.setSoTimeout(TIMEOUT);
-
-            // Broadcast discovery message
-            byte[] data = DISCOVERY_MESSAGE.getBytes();
-            DatagramPacket packet = new DatagramPacket(data, data.length,
-                    InetAddress.getByName("255.255.255.255"), DISCOVERY_PORT);
-            socket.send(packet);
-
-            long start = System.currentTimeMillis();
-            while (System.currentTimeMillis() - start < 1000) { // Wait up to 1 sec
-                try {
-                    byte[] buffer = new byte[512];
-                    DatagramPacket response = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(response);
-
-                    String message = new String(response.getData(), 0, response.getLength()).trim();
-                    if (message.startsWith("BYTESHARE::")) {
-                        senders.add(message.substring("BYTESHARE::".length())); // Extract IP:Port
+    private static final long REFRESH_MS = 5_000;
+    private static final long TTL_MS = 15_000;
+
+    /** A sender that answered discovery, at {@code address} (IP:port) */
+    public record Sender(String address, DiscoveryReply reply) {
+
+        /** Base URL of the sender's HTTP(S) server */
+        public String url() {
+            return (reply.secure() ? "https://" : "http://") + address;
+        }
+
+        /** A receiver re-serving chunks (see {@link Swarm}), not a sender to connect to */
+        public boolean isPeer() {
+            return reply.peer();
+        }
+
+        /** Null unless the sender offers multicast */
+        public InetSocketAddress multicastGroup() {
+            return reply.multicastGroup();
+        }
+    }
+
+    /** Called on the discovery thread */
+    public interface Listener {
+        void senderFound(Sender sender);
+
+        void senderLost(Sender sender);
+    }
+
+    private record Seen(Sender sender, long lastSeen) {
+    }
+
+    private static NetworkScanner shared;
+
+    private final Map<String, Seen> senders = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean probeRequested = new AtomicBoolean();
+    private final ByteBuffer probe = ByteBuffer.wrap(DISCOVERY_MESSAGE.getBytes(StandardCharsets.US_ASCII));
+    private DatagramChannel channel;
+    private Selector selector;
+    private volatile boolean running;
+    private long probeSent;
+
+    /** The app-wide scanner, started on first use */
+    public static synchronized NetworkScanner shared() {
+        if (shared == null) {
+            shared = new NetworkScanner();
+            try {
+                shared.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return shared;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) return;
+        selector = Selector.open();
+        channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_BROADCAST, true)
+                .bind(new InetSocketAddress(0));
+        channel.configureBlocking(false).register(selector, SelectionKey.OP_READ);
+        running = true;
+        Thread.ofPlatform().daemon().name("network-scanner").start(this::run);
+    }
+
+    /** Probe now rather than at the next background refresh */
+    public void scan() {
+        probeRequested.set(true);
+        if (selector != null) selector.wakeup();
+    }
+
+    /** Senders heard from within the last {@link #TTL_MS}, in discovery order */
+    public List<Sender> senders() {
+        synchronized (senders) {
+            return senders.values().stream().map(Seen::sender).toList();
+        }
+    }
+
+    /** For each distinct set of shared files, the least loaded sender offering it, in discovery order */
+    public static List<Sender> leastLoaded(List<Sender> senders) {
+        Map<Object, Sender> best = new LinkedHashMap<>();
+        for (Sender sender : senders) {
+            if (sender.isPeer()) continue;
+            long digest = sender.reply().contentDigest();
+            // Senders that do not report their content cannot be matched with anyone
+            Object key = digest == -1 ? sender.address() : digest;
+            best.merge(key, sender, (current, candidate) ->
+                    candidate.reply().isLessLoadedThan(current.reply()) ? candidate : current);
+        }
+        return List.copyOf(best.values());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (selector != null) selector.close();
+        if (channel != null) channel.close();
+    }
+
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        long nextProbe = 0;
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                if (probeRequested.getAndSet(false) || now >= nextProbe) {
+                    probe();
+                    nextProbe = now + REFRESH_MS;
+                }
+                expire(now);
+
+                selector.select(Math.max(1, nextProbe - System.currentTimeMillis()));
+                selector.selectedKeys().clear();
+                SocketAddress from;
+                while ((from = channel.receive(buffer.clear())) != null) {
+                    DiscoveryReply reply = DiscoveryReply.parse(buffer.flip());
+                    if (reply != null && from instanceof InetSocketAddress address) {
+                        // The packet's source is where the sender is reachable from here
+                        Sender sender = new Sender(address.getAddress().getHostAddress() + ":" + reply.port(), reply);
+                        // Replies are matched to the latest probe; a straggler from an earlier one reads short
+                        Metrics.shared().discoveryReply(sender.address(), System.nanoTime() - probeSent);
+                        record(sender);
                     }
-                } catch (SocketTimeoutException ignored) {
                 }
             }
-        } catch (Exception e) {
+        } catch (ClosedSelectorException e) {
+            // Closed
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /** Send a probe to every interface's broadcast address, plus the limited broadcast address */
+    private void probe() {
+        Set<InetAddress> targets = new LinkedHashSet<>();
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp()) continue;
+                for (InterfaceAddress address : nif.getInterfaceAddresses()) {
+                    if (address.getBroadcast() != null) targets.add(address.getBroadcast());
+                }
+            }
+            targets.add(InetAddress.getByName("255.255.255.255"));
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        return senders;
+        probeSent = System.nanoTime();
+        for (InetAddress target : targets) {
+            try {
+                channel.send(probe.duplicate(), new InetSocketAddress(target, DISCOVERY_PORT));
+            } catch (IOException e) {
+                // An interface that went down between listing and sending; the others still count
+                System.out.println("[NetworkScanner] Could not probe " + target.getHostAddress() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void record(Sender sender) {
+        Seen previous;
+        synchronized (senders) {
+            previous = senders.put(sender.address(), new Seen(sender, System.currentTimeMillis()));
+        }
+        if (previous == null || !previous.sender().equals(sender)) {
+            for (Listener listener : listeners) listener.senderFound(sender);
+        }
+    }
+
+    private void expire(long now) {
+        List<Sender> lost = new ArrayList<>();
+        synchronized (senders) {
+            Iterator<Seen> it = senders.values().iterator();
+            while (it.hasNext()) {
+                Seen seen = it.next();
+                if (now - seen.lastSeen() > TTL_MS) {
+                    it.remove();
+                    lost.add(seen.sender());
+                }
+            }
+        }
+        for (Sender sender : lost) {
+            for (Listener listener : listeners) listener.senderLost(sender);
+        }
     }
 }
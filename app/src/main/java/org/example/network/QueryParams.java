@@ -0,0 +1,63 @@
+package org.example.network;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * QueryParams: decoded view of a raw URL query string. Parameters may repeat
+ * ({@code file=a&file=b}); {@link #get} returns the first value.
+ */
+public final class QueryParams {
+
+    private static final QueryParams EMPTY = new QueryParams(Map.of());
+
+    private final Map<String, List<String>> values;
+
+    private QueryParams(Map<String, List<String>> values) {
+        this.values = values;
+    }
+
+    /** Parse a raw (still percent-encoded) query, as from {@code URI.getRawQuery()} */
+    public static QueryParams parse(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) return EMPTY;
+        Map<String, List<String>> values = new HashMap<>();
+        int start = 0;
+        while (start <= rawQuery.length()) {
+            int end = rawQuery.indexOf('&', start);
+            if (end < 0) end = rawQuery.length();
+            if (end > start) {
+                String pair = rawQuery.substring(start, end);
+                int eq = pair.indexOf('=');
+                String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+                String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+                values.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+            }
+            start = end + 1;
+        }
+        return new QueryParams(values);
+    }
+
+    public String get(String name) {
+        List<String> list = values.get(name);
+        return list == null ? null : list.get(0);
+    }
+
+    public String get(String name, String defaultValue) {
+        String value = get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    public List<String> getAll(String name) {
+        return values.getOrDefault(name, List.of());
+    }
+
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    private static String decode(String s) {
+        if (s.indexOf('%') < 0 && s.indexOf('+') < 0) return s;
+        return URLDecoder.decode(s, StandardCharsets.UTF_8);
+    }
+}
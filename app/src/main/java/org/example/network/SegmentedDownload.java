@@ -0,0 +1,305 @@
+package org.example.network;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SegmentedDownload: fetches one file as byte-range segments over several
+ * concurrent connections, writing each segment at its offset in a preallocated
+ * part file so no reassembly pass is needed. The connection count starts small and
+ * climbs while each extra connection still raises measured throughput.
+ * Completed segments are recorded in the part's state file so a retry only
+ * fetches what is missing. With a {@link ChunkVerifier}, segments are aligned to
+ * manifest chunks and hashed as they stream in. A sender at capacity turning a
+ * segment away with 503 costs this download a connection rather than a failure;
+ * once it is down to one, the whole download backs off.
+ */
+final class SegmentedDownload {
+
+    static final String SEGMENT_SIZE_KEY = "segmentSize";
+    private static final String SIZE_KEY = "size";
+    private static final String DONE_KEY = "done";
+
+    private static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 4096;
+    private static final int INITIAL_CONNECTIONS = 2;
+    private static final long SAMPLE_WINDOW_MS = 1_000;
+    private static final double GAIN_THRESHOLD = 1.10;
+    private static final int HOLD_WINDOWS = 5;
+    // Failures in a row, across all connections, before the download gives up
+    private static final int MAX_CONSECUTIVE_FAILURES = 6;
+    private static final long MIN_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 8_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final URL url;
+    private final Path part;
+    private final Path meta;
+    private final Properties state;
+    private final String etag;
+    private final long size;
+    private final long segmentSize;
+    private final int segmentCount;
+    private final int maxConnections;
+    private final ChunkVerifier verifier;
+    private final TransferProgress.Transfer progress;
+    private final WriteEngine writeEngine;
+
+    private final BitSet done;
+    private final BlockingDeque<Integer> pending = new LinkedBlockingDeque<>();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicInteger targetConnections = new AtomicInteger(INITIAL_CONNECTIONS);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final LongAdder windowBytes = new LongAdder();
+    private CountDownLatch remaining;
+    private volatile IOException failure;
+
+    SegmentedDownload(URL url, Path part, Path meta, Properties state, int maxConnections, ChunkVerifier verifier,
+                      TransferProgress.Transfer progress, WriteEngine writeEngine) {
+        this.url = url;
+        this.part = part;
+        this.meta = meta;
+        this.state = state;
+        this.etag = state.getProperty("etag");
+        this.size = Long.parseLong(state.getProperty(SIZE_KEY));
+        this.verifier = verifier;
+        this.progress = progress;
+        this.writeEngine = writeEngine;
+        this.segmentSize = state.containsKey(SEGMENT_SIZE_KEY)
+                ? Long.parseLong(state.getProperty(SEGMENT_SIZE_KEY))
+                : alignToChunks(Math.max(MIN_SEGMENT_SIZE, (size + MAX_SEGMENTS - 1) / MAX_SEGMENTS), verifier);
+        this.segmentCount = (int) ((size + segmentSize - 1) / segmentSize);
+        this.maxConnections = Math.max(1, maxConnections);
+        this.done = state.containsKey(DONE_KEY)
+                ? BitSet.valueOf(Base64.getDecoder().decode(state.getProperty(DONE_KEY)))
+                : new BitSet(segmentCount);
+        state.setProperty(SEGMENT_SIZE_KEY, Long.toString(segmentSize));
+    }
+
+    /** Round a segment size up to whole manifest chunks, so every chunk lies in one segment */
+    private static long alignToChunks(long segmentSize, ChunkVerifier verifier) {
+        if (verifier == null) return segmentSize;
+        long chunk = verifier.manifest().chunkSize();
+        return (segmentSize + chunk - 1) / chunk * chunk;
+    }
+
+    /** Record what the sender reported so {@link #SegmentedDownload} can plan the segments */
+    static void describe(Properties state, String etag, long size) {
+        state.setProperty("etag", etag);
+        state.setProperty(SIZE_KEY, Long.toString(size));
+    }
+
+    void run() throws IOException {
+        for (int i = 0; i < segmentCount; i++) {
+            if (!done.get(i)) pending.add(i);
+        }
+        remaining = new CountDownLatch(pending.size());
+        long resumed = 0;
+        for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+            resumed += Math.min(size, (i + 1) * segmentSize) - i * segmentSize;
+        }
+        progress.begin(size, resumed);
+
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        try (FileChannel channel = writeEngine.open(part, size, false)) {
+            if (channel.size() > size) channel.truncate(size);
+            saveState();
+            for (int i = 0; i < Math.min(INITIAL_CONNECTIONS, maxConnections); i++) {
+                spawnWorker(workers, channel);
+            }
+            adaptConnections(workers, channel);
+        } finally {
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            saveState();
+        }
+
+        if (failure instanceof ValidatorChangedException) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(meta);
+        }
+        if (failure != null) throw failure;
+    }
+
+    /** Hill-climb the connection count on aggregate throughput until every segment is done */
+    private void adaptConnections(ExecutorService workers, FileChannel channel) throws IOException {
+        double previous = 0;
+        int lastChange = 0;
+        int hold = 0;
+        long windowStart = System.nanoTime();
+        try {
+            while (!remaining.await(SAMPLE_WINDOW_MS, TimeUnit.MILLISECONDS)) {
+                if (failure != null) return;
+                long now = System.nanoTime();
+                double throughput = windowBytes.sumThenReset() * 1e9 / (now - windowStart);
+                windowStart = now;
+
+                int target = targetConnections.get();
+                if (lastChange > 0 && throughput < previous * GAIN_THRESHOLD && target > 1) {
+                    // The last connection added did not pay for itself: step back and hold
+                    targetConnections.decrementAndGet();
+                    lastChange = -1;
+                    hold = HOLD_WINDOWS;
+                } else if (hold > 0) {
+                    hold--;
+                    lastChange = 0;
+                } else if (target < maxConnections && pending.size() > activeWorkers.get()) {
+                    targetConnections.incrementAndGet();
+                    spawnWorker(workers, channel);
+                    lastChange = 1;
+                } else {
+                    lastChange = 0;
+                }
+                previous = throughput;
+                saveState();
+
+                // Keep the pool at target if workers exited while segments were re-queued
+                while (failure == null && activeWorkers.get() < targetConnections.get() && !pending.isEmpty()) {
+                    spawnWorker(workers, channel);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Segmented download interrupted");
+        }
+    }
+
+    private void spawnWorker(ExecutorService workers, FileChannel channel) {
+        activeWorkers.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                work(channel);
+            } finally {
+                activeWorkers.decrementAndGet();
+            }
+        });
+    }
+
+    private void work(FileChannel channel) {
+        while (failure == null && !Thread.currentThread().isInterrupted()) {
+            if (activeWorkers.get() > targetConnections.get()) return;
+            Integer index = pending.pollFirst();
+            if (index == null) return;
+            try {
+                fetchSegment(channel, index);
+                failures.set(0);
+                markDone(index);
+            } catch (ValidatorChangedException e) {
+                failure = e;
+            } catch (FileDownloader.SenderBusyException e) {
+                pending.addFirst(index);
+                if (!giveUpConnection()) failure = e;
+                return;
+            } catch (IOException e) {
+                int inARow = failures.incrementAndGet();
+                if (inARow > MAX_CONSECUTIVE_FAILURES || Thread.currentThread().isInterrupted()) {
+                    failure = e;
+                    return;
+                }
+                pending.addFirst(index);
+                // Back off before trying again, longer the more attempts failed in a row
+                long backoff = Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << (inARow - 1));
+                System.out.println("[SegmentedDownload] Segment " + index + " failed (" + e.getMessage()
+                        + "); retrying in " + backoff + " ms");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Lower the target by one connection for a busy sender; false if this is the last one */
+    private boolean giveUpConnection() {
+        while (true) {
+            int target = targetConnections.get();
+            if (target <= 1 || activeWorkers.get() <= 1) return false;
+            if (targetConnections.compareAndSet(target, target - 1)) return true;
+        }
+    }
+
+    private void fetchSegment(FileChannel channel, int index) throws IOException {
+        long start = index * segmentSize;
+        long end = Math.min(size, start + segmentSize) - 1;
+
+        HttpURLConnection connection = FileDownloader.open(url);
+        connection.setRequestProperty("Range", new ByteRange(start, end).toRangeHeader());
+        connection.setRequestProperty("If-Range", etag);
+        try {
+            int status = connection.getResponseCode();
+            FileDownloader.rejectIfBusy(connection, status);
+            if (status == 200) {
+                throw new ValidatorChangedException();
+            }
+            ByteRange range = ByteRange.parseContentRange(connection.getHeaderField("Content-Range"));
+            if (status != 206 || range == null || range.start() != start || range.end() != end) {
+                throw new IOException("Unexpected segment response " + status + " for " + start + "-" + end);
+            }
+
+            long position = start;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ChunkVerifier.Stream hashes = verifier != null ? verifier.stream(start) : null;
+            boolean complete = false;
+            try (WriteEngine.Writer out = writeEngine.writer(channel, start);
+                 InputStream in = connection.getInputStream()) {
+                int n;
+                while (position <= end && (n = in.read(buffer, 0, (int) Math.min(buffer.length, end + 1 - position))) != -1) {
+                    if (hashes != null) hashes.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    position += n;
+                    windowBytes.add(n);
+                    progress.add(n);
+                }
+                if (position != end + 1) {
+                    throw new EOFException("Segment " + index + " ended at " + position + " of " + (end + 1));
+                }
+                complete = true;
+            } finally {
+                // The segment will be fetched again from its start
+                if (!complete) progress.add(start - position);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void markDone(int index) {
+        synchronized (done) {
+            done.set(index);
+        }
+        remaining.countDown();
+    }
+
+    private void saveState() throws IOException {
+        synchronized (done) {
+            state.setProperty(DONE_KEY, Base64.getEncoder().encodeToString(done.toByteArray()));
+        }
+        if (verifier != null) verifier.save(state);
+        try (OutputStream out = Files.newOutputStream(meta)) {
+            state.store(out, "ByteShare segmented download");
+        }
+    }
+
+    /** The sender's copy changed; the segments already written are useless */
+    private static final class ValidatorChangedException extends IOException {
+        ValidatorChangedException() {
+            super("File changed on sender, restarting download");
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.network;
+
+/**
+ * Selects how {@link FileServer} moves file bytes onto the wire.
+ */
+public enum ServingEngine {
+
+    /** JDK {@code com.sun.net.httpserver} server; file bodies are copied through the response stream. */
+    STANDARD,
+
+    /** NIO channel server; file bodies go out with {@code FileChannel.transferTo} (sendfile on Linux). */
+    ZERO_COPY
+}
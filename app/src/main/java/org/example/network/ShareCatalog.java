@@ -0,0 +1,393 @@
+package org.example.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShareCatalog: the set of files a sender offers, indexed by a stable id and by
+ * relative path, with each entry's size and mtime cached at index time.
+ * Every change bumps {@link #version()}, which handlers use to invalidate
+ * anything they precomputed from the catalog. A journal of the paths each
+ * version touched lets clients catch up with {@link #changesSince} instead of
+ * re-reading the whole catalog.
+ */
+public class ShareCatalog {
+
+    /** One shared file */
+    public record Entry(String id, String path, File file, long size, long lastModified) {
+
+        public String name() {
+            int slash = path.lastIndexOf('/');
+            return slash < 0 ? path : path.substring(slash + 1);
+        }
+
+        /** Strong validator built from size and modification time */
+        public String etag() {
+            return etagFor(size, lastModified);
+        }
+
+        /** MIME type guessed from the file name, {@code application/octet-stream} when unknown */
+        public String contentType() {
+            String type = URLConnection.guessContentTypeFromName(name());
+            return type != null ? type : "application/octet-stream";
+        }
+    }
+
+    /** A slice of the catalog in path order; {@code nextCursor} is null on the last page */
+    public record Page(List<Entry> entries, String nextCursor) {
+    }
+
+    /** What changed between versions {@code from} and {@code version}: entries added or updated, paths removed */
+    public record Changes(long from, long version, List<Entry> upserted, List<String> removed) {
+    }
+
+    /** The paths one version touched */
+    private record Change(long version, Set<String> paths) {
+    }
+
+    private static final int MAX_JOURNAL_PATHS = 100_000;
+
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byPath = new ConcurrentHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Path> directories = new LinkedHashMap<>();
+    // Entries under each top-level folder name ("a" for "a/b/c"), so a free name is found without a scan
+    private final Map<String, Integer> folderEntries = new HashMap<>();
+    private final ArrayDeque<Change> journal = new ArrayDeque<>();
+    private final Set<String> touched = new HashSet<>();
+    private final Object changeSignal = new Object();
+    private int journalPaths;
+    private volatile Entry[] sorted = new Entry[0];
+    private volatile long version;
+    private volatile long totalBytes;
+
+    public ShareCatalog() {
+    }
+
+    public ShareCatalog(List<File> files) {
+        for (File file : files) {
+            if (file.isDirectory()) indexDirectory(file);
+            else indexFile(file, uniquePath(file.getName(), file));
+        }
+        rebuild();
+    }
+
+    /** Add a single file under its own name (suffixed if that name is taken) */
+    public synchronized Entry addFile(File file) {
+        return addFiles(List.of(file)).get(0);
+    }
+
+    /** Add several files as one change, each under its own name; the catalog is re-sorted once */
+    public synchronized List<Entry> addFiles(List<File> files) {
+        List<Entry> added = new ArrayList<>(files.size());
+        for (File file : files) {
+            added.add(indexFile(file, uniquePath(file.getName(), file)));
+        }
+        rebuild();
+        return added;
+    }
+
+    /** Add every regular file below {@code dir}, under {@code <dirName>/<relative path>} */
+    public synchronized void addDirectory(File dir) {
+        indexDirectory(dir);
+        rebuild();
+    }
+
+    /** Re-read size and mtime of a file already in the catalog, or add it at {@code path} */
+    public synchronized Entry update(String path, File file) {
+        Entry entry = indexFile(file, path);
+        rebuild();
+        return entry;
+    }
+
+    public synchronized boolean remove(String path) {
+        if (!removeEntry(path)) return false;
+        rebuild();
+        return true;
+    }
+
+    /**
+     * Apply a batch of changes as one version: each of {@code updated} is re-read
+     * from its file (and added at that path if new), each of {@code removed} dropped.
+     * Files whose size and mtime did not change are left alone; a batch that changes
+     * nothing does not bump the version.
+     */
+    public synchronized void apply(Map<String, File> updated, Collection<String> removed) {
+        for (Map.Entry<String, File> update : updated.entrySet()) {
+            Entry existing = byPath.get(update.getKey());
+            File file = update.getValue();
+            if (existing == null || existing.size() != file.length() || existing.lastModified() != file.lastModified()
+                    || !existing.file().equals(file)) {
+                indexFile(file, update.getKey());
+            }
+        }
+        for (String path : removed) {
+            removeEntry(path);
+        }
+        if (!touched.isEmpty()) rebuild();
+    }
+
+    public synchronized void clear() {
+        touched.addAll(byPath.keySet());
+        byId.clear();
+        byPath.clear();
+        directories.clear();
+        folderEntries.clear();
+        rebuild();
+    }
+
+    /** Shared directories by the path prefix their files are listed under */
+    public synchronized Map<String, Path> directories() {
+        return Map.copyOf(directories);
+    }
+
+    /**
+     * What changed since version {@code since}, or null when that version is not
+     * this catalog's or too old for the journal: the client should start over
+     * from a full listing.
+     */
+    public synchronized Changes changesSince(long since) {
+        if (since < 0 || since > version) return null;
+        if (since < version) {
+            Change oldest = journal.peekFirst();
+            if (oldest == null || oldest.version() > since + 1) return null;
+        }
+        Set<String> paths = new TreeSet<>();
+        for (Change change : journal) {
+            if (change.version() > since) paths.addAll(change.paths());
+        }
+        List<Entry> upserted = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String path : paths) {
+            Entry entry = byPath.get(path);
+            if (entry != null) upserted.add(entry);
+            else removed.add(path);
+        }
+        return new Changes(since, version, upserted, removed);
+    }
+
+    /** Wait up to {@code timeoutMs} for the version to move past {@code since}; returns the version then */
+    public long awaitChange(long since, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (changeSignal) {
+            while (version == since) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                TimeUnit.NANOSECONDS.timedWait(changeSignal, left);
+            }
+        }
+        return version;
+    }
+
+    public Entry byId(String id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    public Entry byPath(String path) {
+        return path == null ? null : byPath.get(path);
+    }
+
+    /** Look a file up by id if given, otherwise by path */
+    public Entry find(String id, String path) {
+        return id != null ? byId(id) : byPath(path);
+    }
+
+    /** All entries in path order (a snapshot; do not modify) */
+    public List<Entry> entries() {
+        return List.of(sorted);
+    }
+
+    /** Up to {@code limit} entries whose path sorts after {@code cursor} (null for the first page) */
+    public Page page(String cursor, int limit) {
+        Entry[] snapshot = sorted;
+        int from = 0;
+        if (cursor != null) {
+            int lo = 0, hi = snapshot.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (snapshot[mid].path().compareTo(cursor) <= 0) lo = mid + 1;
+                else hi = mid;
+            }
+            from = lo;
+        }
+        int to = Math.min(snapshot.length, from + Math.max(1, limit));
+        List<Entry> entries = List.of(Arrays.copyOfRange(snapshot, from, to));
+        String next = to < snapshot.length ? snapshot[to - 1].path() : null;
+        return new Page(entries, next);
+    }
+
+    public int size() {
+        return sorted.length;
+    }
+
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /** Run {@code listener} after every change */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    static String etagFor(long size, long lastModified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /** Stable id: derived from the absolute and shared paths, so reshares keep their links */
+    static String idFor(File file, String path) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((file.getAbsolutePath() + "\0" + path).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Entry indexFile(File file, String path) {
+        touched.add(path);
+        Entry previous = byPath.get(path);
+        if (previous != null) byId.remove(previous.id());
+        Entry entry = new Entry(idFor(file, path), path, file, file.length(), file.lastModified());
+        byId.put(entry.id(), entry);
+        if (byPath.put(path, entry) == null) countFolder(path, 1);
+        return entry;
+    }
+
+    private boolean removeEntry(String path) {
+        Entry entry = byPath.remove(path);
+        if (entry == null) return false;
+        byId.remove(entry.id());
+        countFolder(path, -1);
+        touched.add(path);
+        return true;
+    }
+
+    /** {@code previous} with the touched paths taken out and their current entries merged back in, in one pass */
+    private Entry[] merged(Entry[] previous) {
+        String[] changed = touched.toArray(new String[0]);
+        Arrays.sort(changed);
+        List<Entry> entries = new ArrayList<>(previous.length + changed.length);
+        int next = 0;
+        for (Entry entry : previous) {
+            while (next < changed.length && changed[next].compareTo(entry.path()) < 0) {
+                Entry current = byPath.get(changed[next++]);
+                if (current != null) entries.add(current);
+            }
+            if (next < changed.length && changed[next].equals(entry.path())) {
+                Entry current = byPath.get(changed[next++]);
+                if (current != null) entries.add(current);
+            } else {
+                entries.add(entry);
+            }
+        }
+        while (next < changed.length) {
+            Entry current = byPath.get(changed[next++]);
+            if (current != null) entries.add(current);
+        }
+        return entries.toArray(new Entry[0]);
+    }
+
+    private void countFolder(String path, int delta) {
+        int slash = path.indexOf('/');
+        if (slash < 0) return;
+        folderEntries.merge(path.substring(0, slash), delta, (count, change) -> count + change == 0 ? null : count + change);
+    }
+
+    private void indexDirectory(File dir) {
+        Path root = dir.toPath();
+        String base = uniquePath(dir.getName(), dir);
+        directories.put(base, root.toAbsolutePath());
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+                        File f = file.toFile();
+                        String path = base + "/" + relative;
+                        Entry entry = new Entry(idFor(f, path), path, f, attrs.size(),
+                                attrs.lastModifiedTime().toMillis());
+                        byId.put(entry.id(), entry);
+                        if (byPath.put(entry.path(), entry) == null) countFolder(path, 1);
+                        touched.add(path);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("[ShareCatalog] Could not index " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /** {@code name}, or {@code name (2).ext} etc. when a different file already uses it */
+    private String uniquePath(String name, File file) {
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int n = 2; isTaken(candidate, file); n++) {
+            candidate = stem + " (" + n + ")" + ext;
+        }
+        return candidate;
+    }
+
+    private boolean isTaken(String path, File file) {
+        Entry existing = byPath.get(path);
+        if (existing != null) return !existing.file().equals(file);
+        Path directory = directories.get(path);
+        if (directory != null) return !directory.equals(file.toPath().toAbsolutePath());
+        // Files listed under "path/" that no shared folder of that name accounts for
+        return folderEntries.containsKey(path);
+    }
+
+    private void rebuild() {
+        Entry[] entries;
+        if (touched.size() <= sorted.length / 8) {
+            entries = merged(sorted);
+        } else {
+            entries = byPath.values().toArray(new Entry[0]);
+            Arrays.sort(entries, Comparator.comparing(Entry::path));
+        }
+        long total = 0;
+        for (Entry entry : entries) total += entry.size();
+        sorted = entries;
+        totalBytes = total;
+        journal.addLast(new Change(version + 1, Set.copyOf(touched)));
+        journalPaths += touched.size();
+        touched.clear();
+        while (journalPaths > MAX_JOURNAL_PATHS && journal.size() > 1) {
+            journalPaths -= journal.removeFirst().paths().size();
+        }
+        synchronized (changeSignal) {
+            version++;
+            changeSignal.notifyAll();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.example.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Swarm: lets a receiver re-serve the chunks it already holds, so a sender handing
+ * the same files to many receivers is not everyone's only source. Each receiver
+ * runs a small chunk server and answers discovery as a peer; {@link SwarmDownload}
+ * then fetches chunks from the sender and from peers at once.
+ * <p>
+ * Chunks are addressed by the file's manifest root and checked against the
+ * manifest on arrival, so a peer cannot pass off bad data, and only receivers
+ * that got the manifest from the sender (with its PIN) know which root to ask for.
+ * <pre>
+ * GET /have?root=&lt;hex&gt;              chunks held, as {@link BitSet#toByteArray()}; 404 if none.
+ *                                    {@code X-Fetching}: Base64 of the chunks being fetched from the sender
+ * GET /chunk?root=&lt;hex&gt;&amp;index=&lt;n&gt;   one chunk; 404 if not held, 503 while every upload slot is busy
+ * </pre>
+ */
+public final class Swarm implements Closeable {
+
+    private static final int UPLOAD_SLOTS = 4;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final DiscoveryServer discovery;
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+    private final Semaphore uploads = new Semaphore(UPLOAD_SLOTS);
+
+    /** A file whose verified chunks this peer serves; the file moves from part to target when it completes */
+    static final class Held {
+        private final ChunkManifest manifest;
+        private final BitSet chunks;
+        private final BitSet fetching = new BitSet();
+        private volatile Path file;
+
+        private Held(ChunkManifest manifest, Path file, BitSet chunks) {
+            this.manifest = manifest;
+            this.file = file;
+            this.chunks = chunks;
+        }
+
+        /** Chunk {@code index} is verified and in the file */
+        void add(int index) {
+            synchronized (chunks) {
+                chunks.set(index);
+            }
+        }
+
+        /** Chunk {@code index} is being fetched from the sender, or no longer; other receivers leave it to us */
+        void fetching(int index, boolean fetching) {
+            synchronized (chunks) {
+                this.fetching.set(index, fetching);
+            }
+        }
+
+        /** The download ended, finished or not: nothing is being fetched from the sender any more */
+        void clearFetching() {
+            synchronized (chunks) {
+                fetching.clear();
+            }
+        }
+
+        private boolean has(int index) {
+            synchronized (chunks) {
+                return chunks.get(index);
+            }
+        }
+
+        private byte[] bitfield() {
+            synchronized (chunks) {
+                return chunks.toByteArray();
+            }
+        }
+
+        private String fetchingField() {
+            synchronized (chunks) {
+                return Base64.getEncoder().encodeToString(fetching.toByteArray());
+            }
+        }
+    }
+
+    private Swarm() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        Metrics metrics = Metrics.shared();
+        server.createContext("/have", new HaveHandler()).getFilters().add(metrics.filter("/have", false));
+        server.createContext("/chunk", new ChunkHandler()).getFilters().add(metrics.filter("/chunk", true));
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        discovery = new DiscoveryServer("Swarm", reply());
+        discovery.setDaemon(true);
+    }
+
+    /** Start the chunk server and answer discovery as a peer */
+    public static Swarm start() throws IOException {
+        Swarm swarm = new Swarm();
+        swarm.server.start();
+        swarm.discovery.start();
+        System.out.println("[Swarm] Serving chunks on port " + swarm.port());
+        return swarm;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Serve the chunks of {@code file} set in {@code chunks}, and those {@link Held#add added} later */
+    Held offer(ChunkManifest manifest, Path file, BitSet chunks) {
+        Held entry = new Held(manifest, file, (BitSet) chunks.clone());
+        held.put(manifest.rootHex(), entry);
+        discovery.update(reply());
+        return entry;
+    }
+
+    /** Stop serving the file of {@code manifest}, e.g. because its download failed and the part may go away */
+    void withdraw(ChunkManifest manifest) {
+        if (held.remove(manifest.rootHex()) != null) discovery.update(reply());
+    }
+
+    /** {@code file} is complete and verified against {@code manifest}: serve all of it */
+    void seed(ChunkManifest manifest, Path file) {
+        Held entry = held.get(manifest.rootHex());
+        if (entry != null) {
+            entry.file = file;
+            synchronized (entry.chunks) {
+                entry.chunks.set(0, manifest.chunkCount());
+            }
+        } else {
+            BitSet all = new BitSet(manifest.chunkCount());
+            all.set(0, manifest.chunkCount());
+            offer(manifest, file, all);
+        }
+    }
+
+    /** Base URLs of the peers discovery currently knows, without this one */
+    List<String> peers() {
+        List<String> urls = new ArrayList<>();
+        for (NetworkScanner.Sender sender : NetworkScanner.shared().senders()) {
+            if (sender.reply().peer() && !isSelf(sender)) urls.add(sender.url());
+        }
+        return urls;
+    }
+
+    @Override
+    public void close() {
+        discovery.stopServer();
+        server.stop(0);
+        executor.shutdownNow();
+        System.out.println("[Swarm] Stopped.");
+    }
+
+    private boolean isSelf(NetworkScanner.Sender sender) {
+        if (sender.reply().port() != port()) return false;
+        try {
+            InetAddress address = InetAddress.getByName(sender.address().substring(0, sender.address().lastIndexOf(':')));
+            return address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private DiscoveryReply reply() {
+        long bytes = 0;
+        for (Held entry : held.values()) bytes += entry.manifest.size();
+        int free = uploads.availablePermits();
+        return new DiscoveryReply(port(), null, held.size(), bytes, -1, -1, UPLOAD_SLOTS - free, free, false, true);
+    }
+
+    // ------------------- Internal Handlers ------------------------
+
+    /** Which chunks of one file this peer can serve */
+    private class HaveHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            Held entry = params.get("root") != null ? held.get(params.get("root")) : null;
+            if (entry != null && !Files.exists(entry.file)) {
+                // Deleted or moved since it was downloaded: nothing left to serve
+                held.remove(params.get("root"), entry);
+                discovery.update(reply());
+                entry = null;
+            }
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = entry.bitfield();
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("X-Fetching", entry.fetchingField());
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    /** One verified chunk, straight from the file */
+    private class ChunkHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            QueryParams params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            Held entry = params.get("root") != null ? held.get(params.get("root")) : null;
+            int index;
+            try {
+                index = Integer.parseInt(params.get("index"));
+            } catch (NumberFormatException e) {
+                index = -1;
+            }
+            if (entry == null || index < 0 || index >= entry.manifest.chunkCount() || !entry.has(index)) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (!uploads.tryAcquire()) {
+                // Busy peers say so at once; the asker takes the chunk from someone else
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            try {
+                FileChannel channel;
+                try {
+                    channel = FileChannel.open(entry.file, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    // Moved or deleted since it was downloaded
+                    held.remove(params.get("root"));
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                try (channel) {
+                    sendChunk(exchange, channel, entry.manifest, index);
+                }
+            } finally {
+                uploads.release();
+            }
+        }
+
+        private void sendChunk(HttpExchange exchange, FileChannel channel, ChunkManifest manifest, int index)
+                throws IOException {
+            long position = manifest.chunkStart(index);
+            long length = manifest.chunkLength(index);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                WritableByteChannel out = Channels.newChannel(os);
+                while (length > 0) {
+                    long n = channel.transferTo(position, length, out);
+                    if (n <= 0) throw new IOException("Chunk " + index + " is shorter than its manifest says");
+                    position += n;
+                    length -= n;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package org.example.network;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SwarmDownload: fetches one file chunk by chunk from the sender and from swarm
+ * peers at the same time (see {@link Swarm}). The sender and every peer get a few
+ * connections each; a free connection takes the rarest chunk its source holds,
+ * counted over the bitfields peers report, so fresh chunks spread through the
+ * swarm quickly. Peers also report which chunks they are fetching from the
+ * sender, and the sender is only asked for chunks no peer has or is fetching, so
+ * its uplink carries each chunk about once however many receivers there are.
+ * A chunk another receiver has claimed for longer than {@link #PENDING_TIMEOUT_MS}
+ * is fetched from the sender anyway, and peers that leave discovery or stop
+ * answering are forgotten along with their claims, so a receiver that goes away
+ * mid-fetch cannot stall the others.
+ * <p>
+ * Chunks are written to the preallocated part file as they stream in and hashed
+ * on the way; only a chunk that matches the manifest is marked verified and
+ * offered on to other peers. A peer that keeps failing or sends bad chunks is
+ * dropped. A sender at capacity is left alone for as long as its {@code Retry-After}
+ * says. Progress is the {@link ChunkVerifier}'s, so a retry resumes here or
+ * in any other mode.
+ */
+final class SwarmDownload {
+
+    static final String SWARM_KEY = "swarm";
+
+    private static final int MAX_ORIGIN_CONNECTIONS = 4;
+    private static final int PEER_CONNECTIONS = 2;
+    private static final int MAX_PEERS = 8;
+    private static final long REFRESH_MS = 500;
+    private static final long SCAN_INTERVAL_MS = 3_000;
+    private static final long BUSY_BACKOFF_MS = 250;
+    private static final int MAX_PEER_FAILURES = 3;
+    private static final long PENDING_TIMEOUT_MS = 15_000;
+    private static final int MAX_ORIGIN_FAILURES = 10;
+    private static final int HAVE_TIMEOUT_MS = 2_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private enum Outcome {DONE, BUSY, GONE, CORRUPT}
+
+    /** The sender, which holds every chunk, or one peer and the chunks it last said it holds and is fetching */
+    private static final class Source {
+        final String url;
+        BitSet chunks = new BitSet();
+        BitSet fetching = new BitSet();
+        int failures;
+        int haveFailures;
+        long busyUntil;
+        long retryAfterMs = BUSY_BACKOFF_MS;
+        boolean dropped;
+
+        Source(String url) {
+            this.url = url;
+        }
+
+        boolean isOrigin() {
+            return url == null;
+        }
+
+        boolean has(int index) {
+            return url == null || chunks.get(index);
+        }
+    }
+
+    private final Swarm swarm;
+    private final URL origin;
+    private final Path part;
+    private final Path meta;
+    private final Properties state;
+    private final ChunkVerifier verifier;
+    private final ChunkManifest manifest;
+    private final TransferProgress.Transfer progress;
+    private final WriteEngine writeEngine;
+    private final int originConnections;
+    private final int chunkCount;
+
+    // Workers wait on a lock rather than a monitor: virtual threads stay unpinned while they wait
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final BitSet wanted;
+    private final int[] availability;
+    private final int[] pending;
+    private final long[] pendingSince;
+    private final Map<String, Source> peers = new LinkedHashMap<>();
+    private final Random random = new Random();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final LongAdder fromPeers = new LongAdder();
+    private int remaining;
+    private Swarm.Held held;
+    private volatile IOException failure;
+
+    SwarmDownload(Swarm swarm, URL origin, Path part, Path meta, Properties state, ChunkVerifier verifier,
+                  int maxConnections, TransferProgress.Transfer progress, WriteEngine writeEngine) {
+        this.swarm = swarm;
+        this.origin = origin;
+        this.part = part;
+        this.meta = meta;
+        this.state = state;
+        this.verifier = verifier;
+        this.manifest = verifier.manifest();
+        this.progress = progress;
+        this.writeEngine = writeEngine;
+        this.originConnections = Math.max(1, Math.min(maxConnections, MAX_ORIGIN_CONNECTIONS));
+        this.chunkCount = manifest.chunkCount();
+        this.wanted = new BitSet(chunkCount);
+        this.availability = new int[chunkCount];
+        this.pending = new int[chunkCount];
+        this.pendingSince = new long[chunkCount];
+    }
+
+    void run() throws IOException {
+        BitSet have = verifier.verifiedChunks();
+        wanted.set(0, chunkCount);
+        wanted.andNot(have);
+        remaining = wanted.cardinality();
+        long resumed = 0;
+        for (int i = have.nextSetBit(0); i >= 0 && i < chunkCount; i = have.nextSetBit(i + 1)) {
+            resumed += manifest.chunkLength(i);
+        }
+        progress.begin(manifest.size(), resumed);
+        state.setProperty(SWARM_KEY, "true");
+        if (remaining == 0) return;
+
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        boolean completed = false;
+        try (FileChannel channel = writeEngine.open(part, manifest.size(), false)) {
+            if (channel.size() > manifest.size()) channel.truncate(manifest.size());
+            held = swarm.offer(manifest, part, have);
+            saveState();
+            Source sender = new Source(null);
+            for (int i = 0; i < originConnections; i++) {
+                workers.execute(() -> work(sender, channel));
+            }
+            coordinate(workers, channel);
+            completed = failure == null;
+        } finally {
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Whatever happened, other receivers must not keep waiting on chunks we no longer fetch
+            if (held != null) held.clearFetching();
+            saveState();
+            // A failed download's part file may be deleted or restarted; a retry offers it again
+            if (!completed) swarm.withdraw(manifest);
+        }
+
+        if (failure instanceof ValidatorChangedException) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(meta);
+        }
+        if (failure != null) throw failure;
+        System.out.println("[SwarmDownload] " + part.getFileName() + ": " + fromPeers.sum() + " of "
+                + manifest.size() + " bytes from " + peers.size() + " peer(s)");
+    }
+
+    /** Until every chunk is in: look for peers, refresh what they hold, and give new ones connections */
+    private void coordinate(ExecutorService workers, FileChannel channel) throws IOException {
+        long nextScan = 0;
+        try {
+            while (!finished.await(0, TimeUnit.MILLISECONDS)) {
+                long now = System.currentTimeMillis();
+                if (now >= nextScan || livePeers() == 0) {
+                    // Peers that started after us are only found by asking again
+                    NetworkScanner.shared().scan();
+                    nextScan = now + SCAN_INTERVAL_MS;
+                }
+                refreshPeers(workers, channel);
+                saveState();
+                finished.await(REFRESH_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Swarm download interrupted");
+        }
+    }
+
+    private void refreshPeers(ExecutorService workers, FileChannel channel) {
+        List<String> urls = swarm.peers();
+        lock.lock();
+        try {
+            // Peers that left discovery take their chunks and claims with them; they are added afresh if they return
+            for (Iterator<Source> it = peers.values().iterator(); it.hasNext(); ) {
+                Source peer = it.next();
+                if (urls.contains(peer.url)) continue;
+                drop(peer);
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (String url : urls) {
+            Source peer;
+            boolean added = false;
+            lock.lock();
+            try {
+                peer = peers.get(url);
+                if (peer == null) {
+                    if (livePeers() >= MAX_PEERS) continue;
+                    peer = new Source(url);
+                    peers.put(url, peer);
+                    added = true;
+                }
+                if (peer.dropped) continue;
+            } finally {
+                lock.unlock();
+            }
+
+            BitSet[] have = fetchHave(url);
+            if (have == null) {
+                if (added) {
+                    forget(url);
+                } else {
+                    peerUnreachable(peer);
+                }
+                continue;
+            }
+            BitSet chunks = have[0];
+            lock.lock();
+            try {
+                if (peer.dropped) continue;
+                peer.haveFailures = 0;
+                setChunks(peer, chunks, have[1]);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (added) {
+                System.out.println("[SwarmDownload] Peer " + url + " holds " + chunks.cardinality() + " of "
+                        + chunkCount + " chunks");
+                Source source = peer;
+                for (int i = 0; i < PEER_CONNECTIONS; i++) {
+                    workers.execute(() -> work(source, channel));
+                }
+            }
+        }
+    }
+
+    /** A known peer did not answer {@code /have}: its claims lapse at once, and it is dropped if it keeps quiet */
+    private void peerUnreachable(Source peer) {
+        lock.lock();
+        try {
+            if (peer.dropped) return;
+            if (++peer.haveFailures > MAX_PEER_FAILURES) {
+                System.out.println("[SwarmDownload] Dropping unreachable peer " + peer.url);
+                drop(peer);
+            } else {
+                setChunks(peer, peer.chunks, new BitSet());
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stop using {@code peer}: its connections finish, its chunks and claims stop counting; call with the lock held */
+    private void drop(Source peer) {
+        peer.dropped = true;
+        setChunks(peer, new BitSet(), new BitSet());
+        changed.signalAll();
+    }
+
+    /** A peer that could not be asked before it got any connections; found again on a later refresh */
+    private void forget(String url) {
+        lock.lock();
+        try {
+            peers.remove(url);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int livePeers() {
+        lock.lock();
+        try {
+            return (int) peers.values().stream().filter(peer -> !peer.dropped).count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * What {@code url} holds of this file and what it is fetching from the sender;
+     * empty if nothing, null if it could not be asked
+     */
+    private BitSet[] fetchHave(String url) {
+        try {
+            HttpURLConnection connection = FileDownloader.open(new URL(url + "/have?root=" + manifest.rootHex()));
+            connection.setConnectTimeout(HAVE_TIMEOUT_MS);
+            connection.setReadTimeout(HAVE_TIMEOUT_MS);
+            try {
+                int status = connection.getResponseCode();
+                if (status == 404) return new BitSet[]{new BitSet(), new BitSet()};
+                if (status != 200) return null;
+                String fetching = connection.getHeaderField("X-Fetching");
+                try (InputStream in = connection.getInputStream()) {
+                    return new BitSet[]{BitSet.valueOf(in.readAllBytes()),
+                            fetching != null ? BitSet.valueOf(Base64.getDecoder().decode(fetching)) : new BitSet()};
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Replace what {@code peer} holds and is fetching, keeping the per-chunk counts in step; call with the lock held */
+    private void setChunks(Source peer, BitSet chunks, BitSet fetching) {
+        count(availability, peer.chunks, -1);
+        count(availability, chunks, 1);
+        count(pending, peer.fetching, -1);
+        long now = System.currentTimeMillis();
+        for (int i = fetching.nextSetBit(0); i >= 0 && i < chunkCount; i = fetching.nextSetBit(i + 1)) {
+            if (pending[i]++ == 0) pendingSince[i] = now;
+        }
+        peer.chunks = chunks;
+        peer.fetching = fetching;
+    }
+
+    private void count(int[] counts, BitSet chunks, int delta) {
+        for (int i = chunks.nextSetBit(0); i >= 0 && i < chunkCount; i = chunks.nextSetBit(i + 1)) {
+            counts[i] += delta;
+        }
+    }
+
+    private void work(Source source, FileChannel channel) {
+        while (!Thread.currentThread().isInterrupted()) {
+            int index;
+            try {
+                index = claim(source);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (index < 0) return;
+
+            Outcome outcome;
+            try {
+                outcome = fetch(source, channel, index);
+            } catch (ValidatorChangedException e) {
+                fail(e);
+                return;
+            } catch (IOException e) {
+                outcome = null;
+                if (Thread.currentThread().isInterrupted()) return;
+                System.out.println("[SwarmDownload] Chunk " + index + " from " + name(source) + ": " + e.getMessage());
+            } finally {
+                if (source.isOrigin()) held.fetching(index, false);
+            }
+            finish(source, index, outcome);
+        }
+    }
+
+    /**
+     * The next chunk for {@code source}: the wanted one it holds that the fewest
+     * peers hold. While peers are around, the sender is only asked for chunks none
+     * of them has, or is fetching for less than {@link #PENDING_TIMEOUT_MS}. Waits
+     * while it has nothing to offer; -1 once nothing is left to do.
+     */
+    private int claim(Source source) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (remaining == 0 || failure != null || source.dropped) return -1;
+                long wait = source.busyUntil - System.currentTimeMillis();
+                if (wait <= 0) {
+                    int index = rarest(source, source.isOrigin() && livePeers() > 0);
+                    if (index >= 0) {
+                        wanted.clear(index);
+                        if (source.isOrigin()) held.fetching(index, true);
+                        return index;
+                    }
+                    wait = REFRESH_MS;
+                }
+                changed.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Scan from a random chunk, so receivers starting together ask the sender for different chunks */
+    private int rarest(Source source, boolean unheld) {
+        int start = random.nextInt(chunkCount);
+        long stale = System.currentTimeMillis() - PENDING_TIMEOUT_MS;
+        int best = -1;
+        for (int pass = 0; pass < 2; pass++) {
+            int from = pass == 0 ? start : 0;
+            int to = pass == 0 ? chunkCount : start;
+            for (int i = wanted.nextSetBit(from); i >= 0 && i < to; i = wanted.nextSetBit(i + 1)) {
+                if (!source.has(i)) continue;
+                if (unheld && (availability[i] > 0 || pending[i] > 0 && pendingSince[i] > stale)) continue;
+                if (best < 0 || availability[i] < availability[best]) {
+                    best = i;
+                    if (availability[i] == 0) return best;
+                }
+            }
+        }
+        return best;
+    }
+
+    private Outcome fetch(Source source, FileChannel channel, int index) throws IOException {
+        long start = manifest.chunkStart(index);
+        int length = manifest.chunkLength(index);
+        HttpURLConnection connection;
+        if (source.isOrigin()) {
+            connection = FileDownloader.open(origin);
+            connection.setRequestProperty("Range", new ByteRange(start, start + length - 1).toRangeHeader());
+            connection.setRequestProperty("If-Range", manifest.etag());
+        } else {
+            connection = FileDownloader.open(new URL(source.url + "/chunk?root=" + manifest.rootHex()
+                    + "&index=" + index));
+        }
+        try {
+            int status = connection.getResponseCode();
+            if (source.isOrigin()) {
+                if (status == 503) {
+                    source.retryAfterMs = FileDownloader.retryAfterMs(connection);
+                    return Outcome.BUSY;
+                }
+                if (status == 200) throw new ValidatorChangedException();
+                ByteRange range = ByteRange.parseContentRange(connection.getHeaderField("Content-Range"));
+                if (status != 206 || range == null || range.start() != start || range.length() != length) {
+                    throw new IOException("Unexpected response " + status + " for chunk " + index);
+                }
+            } else if (status == 404) {
+                return Outcome.GONE;
+            } else if (status == 503) {
+                return Outcome.BUSY;
+            } else if (status != 200 || connection.getContentLengthLong() != length) {
+                throw new IOException("Unexpected response " + status + " for chunk " + index);
+            }
+
+            MessageDigest digest = ChunkManifest.sha256();
+            long received = 0;
+            boolean complete = false;
+            try (WriteEngine.Writer out = writeEngine.writer(channel, start);
+                 InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while (received < length && (n = in.read(buffer, 0, (int) Math.min(buffer.length, length - received))) != -1) {
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    received += n;
+                    progress.add(n);
+                }
+                if (received != length) {
+                    throw new EOFException("Chunk " + index + " ended after " + received + " of " + length + " bytes");
+                }
+                complete = true;
+            } finally {
+                if (!complete) progress.add(-received);
+            }
+            // Flushed by now: the chunk can be served on as soon as it is marked
+            if (!manifest.matches(index, digest.digest())) {
+                progress.add(-received);
+                return Outcome.CORRUPT;
+            }
+            verifier.verified(index);
+            held.add(index);
+            if (!source.isOrigin()) fromPeers.add(length);
+            return Outcome.DONE;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Account for one attempt at chunk {@code index}; a null outcome is an I/O failure */
+    private void finish(Source source, int index, Outcome outcome) {
+        lock.lock();
+        try {
+            if (outcome == Outcome.DONE) {
+                source.failures = 0;
+                if (--remaining == 0) finished.countDown();
+            } else {
+                wanted.set(index);
+                if (outcome == Outcome.BUSY) {
+                    source.busyUntil = System.currentTimeMillis() + source.retryAfterMs;
+                } else if (outcome == Outcome.GONE) {
+                    BitSet chunks = (BitSet) source.chunks.clone();
+                    chunks.clear(index);
+                    setChunks(source, chunks, source.fetching);
+                } else {
+                    if (outcome == Outcome.CORRUPT) {
+                        System.out.println("[SwarmDownload] Chunk " + index + " from " + name(source)
+                                + " failed verification");
+                    }
+                    source.failures++;
+                    source.busyUntil = System.currentTimeMillis() + BUSY_BACKOFF_MS;
+                    if (source.isOrigin() && source.failures > MAX_ORIGIN_FAILURES) {
+                        failLocked(new IOException("Sender failed " + source.failures + " chunk requests in a row"));
+                    } else if (!source.isOrigin() && source.failures > MAX_PEER_FAILURES) {
+                        System.out.println("[SwarmDownload] Dropping peer " + source.url);
+                        drop(source);
+                    }
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failLocked(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void failLocked(IOException e) {
+        if (failure == null) failure = e;
+        finished.countDown();
+        changed.signalAll();
+    }
+
+    private static String name(Source source) {
+        return source.isOrigin() ? "sender" : source.url;
+    }
+
+    private void saveState() throws IOException {
+        verifier.save(state);
+        try (OutputStream out = Files.newOutputStream(meta)) {
+            state.store(out, "ByteShare swarm download");
+        }
+    }
+
+    /** The sender's copy changed; the chunks already written are useless */
+    private static final class ValidatorChangedException extends IOException {
+        ValidatorChangedException() {
+            super("File changed on sender, restarting download");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.example.network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * TarFormat: the parts of POSIX ustar/pax needed to stream regular files.
+ * Names longer than 100 bytes or sizes beyond the 11-digit octal field are
+ * carried in a pax extended header. Header sizes are deterministic, so the
+ * total archive length can be computed before the first byte is sent.
+ */
+public final class TarFormat {
+
+    static final int BLOCK = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    // Real pax headers hold a path and a few numbers; anything this big is not one of ours
+    private static final int MAX_PAX_HEADER = 1024 * 1024;
+
+    private TarFormat() {
+    }
+
+    /** Header block(s) for a regular file entry, including any pax header */
+    public static byte[] header(String name, long size, long mtimeMillis) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean longName = nameBytes.length > 100 || !isAscii(nameBytes);
+        boolean bigSize = size > MAX_OCTAL_SIZE;
+        long mtime = mtimeMillis / 1000;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BLOCK * 3);
+        if (longName || bigSize) {
+            StringBuilder records = new StringBuilder();
+            if (longName) records.append(paxRecord("path", name));
+            if (bigSize) records.append(paxRecord("size", Long.toString(size)));
+            byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(block("PaxHeaders/" + asciiPrefix(name), pax.length, mtime, 'x'));
+            out.writeBytes(pax);
+            out.writeBytes(new byte[padding(pax.length)]);
+        }
+        out.writeBytes(block(longName ? asciiPrefix(name) : name, bigSize ? 0 : size, mtime, '0'));
+        return out.toByteArray();
+    }
+
+    /** Zero bytes needed after {@code size} bytes of entry data */
+    public static int padding(long size) {
+        int rest = (int) (size % BLOCK);
+        return rest == 0 ? 0 : BLOCK - rest;
+    }
+
+    /** The two zero blocks that end an archive */
+    public static byte[] trailer() {
+        return new byte[BLOCK * 2];
+    }
+
+    /** Total bytes one entry occupies: headers, data and padding */
+    public static long entryLength(String name, long size) {
+        return header(name, size, 0).length + size + padding(size);
+    }
+
+    private static byte[] block(String name, long size, long mtime, char type) {
+        byte[] header = new byte[BLOCK];
+        put(header, 0, 100, name.getBytes(StandardCharsets.UTF_8));
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, mtime);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        put(header, 257, 6, "ustar\0".getBytes(StandardCharsets.US_ASCII));
+        put(header, 263, 2, "00".getBytes(StandardCharsets.US_ASCII));
+
+        long checksum = 0;
+        for (byte b : header) checksum += b & 0xff;
+        String sum = String.format("%06o", checksum);
+        put(header, 148, 6, sum.getBytes(StandardCharsets.US_ASCII));
+        header[154] = 0;
+        header[155] = ' ';
+        return header;
+    }
+
+    private static String paxRecord(String key, String value) {
+        // Each record is "<len> key=value\n" where <len> counts itself
+        int body = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = body + Integer.toString(body).length();
+        if (Integer.toString(length).length() != Integer.toString(body).length()) length++;
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static String asciiPrefix(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length() && sb.length() < 90; i++) {
+            char c = name.charAt(i);
+            sb.append(c < 128 ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) if (b < 0) return false;
+        return true;
+    }
+
+    private static void put(byte[] header, int offset, int length, byte[] value) {
+        System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        String padded = "0".repeat(Math.max(0, length - 1 - octal.length())) + octal;
+        put(header, offset, length - 1, padded.getBytes(StandardCharsets.US_ASCII));
+        header[offset + length - 1] = 0;
+    }
+
+    // ------------------- Reading ------------------------
+
+    /** One regular file in an archive being read */
+    public record Entry(String name, long size) {
+    }
+
+    /**
+     * Sequential reader over a tar stream. After {@link #next()} returns an entry,
+     * {@link #entryStream()} yields exactly its bytes.
+     */
+    public static final class Reader {
+        private final InputStream in;
+        private long remaining;
+        private int pendingPadding;
+
+        public Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /** Advance to the next regular file, or null at the end of the archive */
+        public Entry next() throws IOException {
+            skipRemaining();
+            String paxPath = null;
+            long paxSize = -1;
+            byte[] header = new byte[BLOCK];
+            while (true) {
+                if (!readBlock(header)) return null;
+                if (isZero(header)) return null;
+
+                char type = (char) header[156];
+                long size = parseOctal(header, 124, 12);
+                if (type == 'x') {
+                    if (size > MAX_PAX_HEADER) throw new IOException("Pax header of " + size + " bytes is too large");
+                    byte[] pax = in.readNBytes((int) size);
+                    if (pax.length != size) throw new EOFException("Archive ended inside a pax header");
+                    in.skipNBytes(padding(size));
+                    String records = new String(pax, StandardCharsets.UTF_8);
+                    for (String record : records.split("\n")) {
+                        int space = record.indexOf(' ');
+                        int eq = record.indexOf('=');
+                        if (space < 0 || eq < space) continue;
+                        String key = record.substring(space + 1, eq);
+                        String value = record.substring(eq + 1);
+                        if (key.equals("path")) paxPath = value;
+                        else if (key.equals("size")) paxSize = parseSize(value, 10);
+                    }
+                    continue;
+                }
+
+                long entrySize = paxSize >= 0 ? paxSize : size;
+                if (type != '0' && type != 0) {
+                    // Directories, links and the like carry no file data worth keeping
+                    in.skipNBytes(entrySize + padding(entrySize));
+                    paxPath = null;
+                    paxSize = -1;
+                    continue;
+                }
+                String name = paxPath != null ? paxPath : cString(header, 0, 100);
+                String prefix = cString(header, 345, 155);
+                if (paxPath == null && !prefix.isEmpty()) name = prefix + "/" + name;
+                remaining = entrySize;
+                pendingPadding = padding(entrySize);
+                return new Entry(name, entrySize);
+            }
+        }
+
+        /** Bytes of the current entry; does not close the underlying stream */
+        public InputStream entryStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) return -1;
+                    int b = in.read();
+                    if (b == -1) throw new EOFException("Archive truncated");
+                    remaining--;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining <= 0) return -1;
+                    int n = in.read(b, off, (int) Math.min(len, remaining));
+                    if (n == -1) throw new EOFException("Archive truncated");
+                    remaining -= n;
+                    return n;
+                }
+            };
+        }
+
+        private void skipRemaining() throws IOException {
+            if (remaining > 0) in.skipNBytes(remaining);
+            if (pendingPadding > 0) in.skipNBytes(pendingPadding);
+            remaining = 0;
+            pendingPadding = 0;
+        }
+
+        private boolean readBlock(byte[] block) throws IOException {
+            int n = in.readNBytes(block, 0, BLOCK);
+            if (n == 0) return false;
+            if (n < BLOCK) throw new EOFException("Archive truncated");
+            return true;
+        }
+
+        private static boolean isZero(byte[] block) {
+            for (byte b : block) if (b != 0) return false;
+            return true;
+        }
+
+        /** A size field; corrupt or negative values fail the archive rather than the caller */
+        private static long parseOctal(byte[] header, int offset, int length) throws IOException {
+            if ((header[offset] & 0x80) != 0) {
+                // GNU base-256 encoding for large values
+                long value = header[offset] & 0x7f;
+                for (int i = 1; i < length; i++) value = (value << 8) | (header[offset + i] & 0xff);
+                if (value < 0) throw new IOException("Bad size in tar header");
+                return value;
+            }
+            String text = cString(header, offset, length).trim();
+            return text.isEmpty() ? 0 : parseSize(text, 8);
+        }
+
+        private static long parseSize(String text, int radix) throws IOException {
+            try {
+                long value = Long.parseLong(text, radix);
+                if (value < 0) throw new IOException("Negative size in tar header: " + text);
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad size in tar header: " + text);
+            }
+        }
+
+        private static String cString(byte[] header, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && header[end] != 0) end++;
+            return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.example.network;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TlsContext: the sender's certificate and TLS settings for {@link FileServer}'s
+ * HTTPS transport, and the receiver's side of the same connections.
+ * <p>
+ * Only AEAD suites are offered (AES-GCM and ChaCha20-Poly1305, TLS 1.3 first),
+ * and sessions are cached on both ends, so the requests a receiver makes one
+ * after another (PIN, catalog, manifest, downloads) resume a session on a pooled
+ * keep-alive connection instead of doing a full handshake each time.
+ * <p>
+ * Senders use self-signed certificates, so receivers trust by fingerprint: the
+ * bundled certificate is pinned from the start, a generated one once its
+ * fingerprint is {@link #pin pinned} (the sender shows it). A pinned certificate
+ * is trusted as is, whatever its dates or host name say.
+ */
+public final class TlsContext {
+
+    private static final String BUNDLED_KEYSTORE = "/certs/keystore.jks";
+    private static final char[] BUNDLED_PASSWORD = "changeit".toCharArray();
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final String[] PREFERRED_SUITES = {
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"};
+    private static final int SESSION_CACHE_SIZE = 1024;
+    private static final int SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(12);
+    private static final long KEYTOOL_TIMEOUT_SECONDS = 30;
+
+    private static final Set<String> pinned = ConcurrentHashMap.newKeySet();
+    private static volatile SSLSocketFactory clientFactory;
+
+    private final SSLContext context;
+    private final String fingerprint;
+
+    private TlsContext(KeyStore keyStore, char[] password) throws IOException {
+        try {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(keyStore, password);
+            context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), null, new SecureRandom());
+            configureSessions(context.getServerSessionContext());
+            fingerprint = fingerprint(firstCertificate(keyStore));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unusable keystore: " + e.getMessage(), e);
+        }
+    }
+
+    /** The certificate that ships with the app; receivers trust it without being told */
+    public static TlsContext bundled() throws IOException {
+        return new TlsContext(loadBundled(), BUNDLED_PASSWORD);
+    }
+
+    /**
+     * A fresh key pair and self-signed certificate for this session only, made with
+     * the JDK's {@code keytool}. Receivers must {@link #pin} its {@link #fingerprint}.
+     */
+    public static TlsContext generated() throws IOException {
+        Path dir = Files.createTempDirectory("byteshare-tls");
+        Path file = dir.resolve("session.p12");
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        char[] password = HexFormat.of().formatHex(secret).toCharArray();
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        try {
+            Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "byteshare",
+                    "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "2",
+                    "-dname", "CN=ByteShare", "-storetype", "PKCS12",
+                    "-keystore", file.toString(), "-storepass", new String(password))
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(process.getInputStream().readAllBytes());
+            if (!process.waitFor(KEYTOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("keytool failed: " + output.trim());
+            }
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(file)) {
+                keyStore.load(in, password);
+            }
+            return new TlsContext(keyStore, password);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted generating a certificate", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unusable generated keystore: " + e.getMessage(), e);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /** SHA-256 of this context's certificate, as lowercase hex */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    /** Protocols and suite preference for {@code HttpsServer} */
+    HttpsConfigurator configurator() {
+        return new HttpsConfigurator(context) {
+            @Override
+            public void configure(HttpsParameters params) {
+                params.setSSLParameters(parameters(getSSLContext()));
+            }
+        };
+    }
+
+    /** Trust the certificate with SHA-256 {@code fingerprint} (hex, colons optional) from now on */
+    public static void pin(String fingerprint) {
+        pinned.add(fingerprint.replace(":", "").toLowerCase());
+    }
+
+    /** Give an {@code https} connection the shared pinning socket factory; plain connections are left alone */
+    static void secure(HttpURLConnection connection) throws IOException {
+        if (connection instanceof HttpsURLConnection https) {
+            https.setSSLSocketFactory(clientFactory());
+            // Trust is an exact certificate match, which already says who the peer is
+            https.setHostnameVerifier(PinnedHostnames.INSTANCE);
+        }
+    }
+
+    /**
+     * One factory for the whole process: the JDK pools keep-alive connections per
+     * factory, and resumes sessions from the context's cache.
+     */
+    private static SSLSocketFactory clientFactory() throws IOException {
+        SSLSocketFactory factory = clientFactory;
+        if (factory != null) return factory;
+        synchronized (TlsContext.class) {
+            if (clientFactory == null) {
+                try {
+                    pinned.add(fingerprint(firstCertificate(loadBundled())));
+                    SSLContext context = SSLContext.getInstance("TLS");
+                    context.init(null, new TrustManager[]{new PinnedTrust()}, new SecureRandom());
+                    configureSessions(context.getClientSessionContext());
+                    clientFactory = context.getSocketFactory();
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Could not set up TLS: " + e.getMessage(), e);
+                }
+            }
+            return clientFactory;
+        }
+    }
+
+    private static SSLParameters parameters(SSLContext context) {
+        SSLParameters defaults = context.getDefaultSSLParameters();
+        Set<String> supported = Set.of(context.getSupportedSSLParameters().getCipherSuites());
+        List<String> suites = new ArrayList<>();
+        for (String suite : PREFERRED_SUITES) {
+            if (supported.contains(suite)) suites.add(suite);
+        }
+        defaults.setProtocols(PROTOCOLS);
+        defaults.setCipherSuites(suites.toArray(String[]::new));
+        defaults.setUseCipherSuitesOrder(true);
+        return defaults;
+    }
+
+    private static void configureSessions(SSLSessionContext sessions) {
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+    }
+
+    private static KeyStore loadBundled() throws IOException {
+        try (InputStream in = TlsContext.class.getResourceAsStream(BUNDLED_KEYSTORE)) {
+            if (in == null) throw new IOException("Bundled keystore " + BUNDLED_KEYSTORE + " is missing");
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(in, BUNDLED_PASSWORD);
+            return keyStore;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unreadable bundled keystore: " + e.getMessage(), e);
+        }
+    }
+
+    private static X509Certificate firstCertificate(KeyStore keyStore) throws GeneralSecurityException {
+        for (String alias : Collections.list(keyStore.aliases())) {
+            if (keyStore.getCertificate(alias) instanceof X509Certificate certificate) return certificate;
+        }
+        throw new KeyStoreException("No certificate in keystore");
+    }
+
+    private static String fingerprint(X509Certificate certificate) throws GeneralSecurityException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+    }
+
+    /** Accepts exactly the pinned certificates */
+    private static final class PinnedTrust implements X509TrustManager {
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            if (chain == null || chain.length == 0) throw new CertificateException("No server certificate");
+            try {
+                String presented = fingerprint(chain[0]);
+                if (!pinned.contains(presented)) {
+                    throw new CertificateException("Untrusted sender certificate " + presented);
+                }
+            } catch (CertificateException e) {
+                throw e;
+            } catch (GeneralSecurityException e) {
+                throw new CertificateException(e);
+            }
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            throw new CertificateException("Receivers do not accept connections");
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
+    private enum PinnedHostnames implements HostnameVerifier {
+        INSTANCE;
+
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    }
+}
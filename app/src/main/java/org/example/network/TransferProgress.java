@@ -0,0 +1,248 @@
+package org.example.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * TransferProgress: bytes and rates of every running transfer, delivered to a UI
+ * as one aggregated {@link Snapshot} at most once per frame.
+ * <p>
+ * Transfer threads only add to counters. While anything runs, a background tick
+ * folds the counters into a snapshot each frame that saw a change (and every
+ * {@link #IDLE_REFRESH_MS} otherwise, so stalled rates fall to zero), and hands it
+ * to the UI executor. Only one snapshot is ever queued there: if the UI thread is
+ * behind, the queued one is replaced by the newer one. The UI's work per frame is
+ * bounded by {@link #MAX_ROWS}, however many transfers run or however fast.
+ */
+public final class TransferProgress {
+
+    private static final long FRAME_MS = 16;
+    private static final long IDLE_REFRESH_MS = 500;
+    private static final int MAX_ROWS = 6;
+    private static final int MAX_FAILURES = 20;
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(runnable ->
+            Thread.ofPlatform().daemon().name("transfer-progress").unstarted(runnable));
+
+    /** One running transfer, as shown in the aggregated view */
+    public record Row(String name, long bytes, long total, double bytesPerSecond) {
+    }
+
+    /** Everything the UI needs to draw one frame */
+    public record Snapshot(List<Row> rows, int running, int completed, int failed, long bytes, long totalBytes,
+                           double bytesPerSecond, List<String> failures) {
+
+        /** Fraction done across every transfer since the last {@link #clear}, or -1 if sizes are unknown */
+        public double fraction() {
+            return totalBytes > 0 ? Math.min(1.0, (double) bytes / totalBytes) : -1;
+        }
+    }
+
+    /** A transfer's counters; safe to update from any number of threads */
+    public static final class Transfer {
+
+        /** For callers that do not track progress */
+        public static final Transfer NONE = new Transfer(null, "", -1);
+
+        private final TransferProgress owner;
+        private final String name;
+        private final LongAdder bytes = new LongAdder();
+        private volatile long total;
+        private volatile long firstByteNanos;
+        // Touched only on the ticker thread
+        private long lastBytes;
+        private long lastNanos = System.nanoTime();
+        private double rate;
+
+        private Transfer(TransferProgress owner, String name, long total) {
+            this.owner = owner;
+            this.name = name;
+            this.total = total;
+        }
+
+        /** (Re)start counting at {@code alreadyHave} of {@code total} bytes, e.g. when resuming */
+        public void begin(long total, long alreadyHave) {
+            if (total >= 0) this.total = total;
+            bytes.reset();
+            bytes.add(alreadyHave);
+            changed();
+        }
+
+        public void add(long count) {
+            if (firstByteNanos == 0 && count > 0) firstByteNanos = System.nanoTime();
+            bytes.add(count);
+            changed();
+        }
+
+        /** {@link System#nanoTime()} when the first body byte arrived, or 0 if none has */
+        public long firstByteNanos() {
+            return firstByteNanos;
+        }
+
+        /** {@code in}, counting every byte read from it */
+        public InputStream count(InputStream in) {
+            if (owner == null) return in;
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) add(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) add(n);
+                    return n;
+                }
+            };
+        }
+
+        public void done() {
+            if (owner != null) owner.finish(this, null);
+        }
+
+        public void failed(String reason) {
+            if (owner != null) owner.finish(this, reason);
+        }
+
+        private void changed() {
+            if (owner != null) owner.dirty.set(true);
+        }
+    }
+
+    private final Executor uiExecutor;
+    private final Consumer<Snapshot> listener;
+    private final Set<Transfer> running = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicReference<Snapshot> queued = new AtomicReference<>();
+    private final LongAdder finishedBytes = new LongAdder();
+    private final LongAdder finishedTotal = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Deque<String> failures = new ArrayDeque<>();
+    private ScheduledFuture<?> tick;
+    private long lastPublish;
+    private long lastBytes;
+    private long lastNanos = System.nanoTime();
+    private double rate;
+
+    /** Snapshots go to {@code listener} on {@code uiExecutor}, e.g. {@code Platform::runLater} */
+    public TransferProgress(Executor uiExecutor, Consumer<Snapshot> listener) {
+        this.uiExecutor = uiExecutor;
+        this.listener = listener;
+    }
+
+    /** Track a new transfer of {@code total} bytes (-1 if unknown) */
+    public Transfer start(String name, long total) {
+        Transfer transfer = new Transfer(this, name, total);
+        running.add(transfer);
+        dirty.set(true);
+        synchronized (this) {
+            if (tick == null) {
+                tick = TICKER.scheduleAtFixedRate(this::tick, 0, FRAME_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return transfer;
+    }
+
+    /** Forget finished transfers, so the totals start over with the next batch */
+    public void clear() {
+        TICKER.execute(() -> {
+            lastBytes -= finishedBytes.sum();
+            finishedBytes.reset();
+            finishedTotal.reset();
+            completed.reset();
+            failed.reset();
+            synchronized (failures) {
+                failures.clear();
+            }
+            publish(System.nanoTime());
+        });
+    }
+
+    private void finish(Transfer transfer, String failure) {
+        if (!running.remove(transfer)) return;
+        finishedBytes.add(transfer.bytes.sum());
+        finishedTotal.add(Math.max(transfer.total, transfer.bytes.sum()));
+        if (failure == null) {
+            completed.increment();
+        } else {
+            failed.increment();
+            synchronized (failures) {
+                failures.addLast(transfer.name + ": " + failure);
+                if (failures.size() > MAX_FAILURES) failures.removeFirst();
+            }
+        }
+        dirty.set(true);
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        boolean changed = dirty.getAndSet(false);
+        if (!changed && now - lastPublish < TimeUnit.MILLISECONDS.toNanos(IDLE_REFRESH_MS)) return;
+        publish(now);
+        synchronized (this) {
+            // Nothing left to report: stop ticking until the next transfer starts
+            if (running.isEmpty() && !dirty.get() && tick != null) {
+                tick.cancel(false);
+                tick = null;
+            }
+        }
+    }
+
+    /** Build a snapshot and queue it for the UI; runs on the ticker thread */
+    private void publish(long now) {
+        lastPublish = now;
+        List<Row> rows = new ArrayList<>(MAX_ROWS);
+        long bytes = finishedBytes.sum();
+        long total = finishedTotal.sum();
+        int count = 0;
+        for (Transfer transfer : running) {
+            long sent = transfer.bytes.sum();
+            transfer.rate = smooth(transfer.rate, sent - transfer.lastBytes, now - transfer.lastNanos);
+            transfer.lastBytes = sent;
+            transfer.lastNanos = now;
+            bytes += sent;
+            total += Math.max(transfer.total, sent);
+            if (rows.size() < MAX_ROWS) rows.add(new Row(transfer.name, sent, transfer.total, transfer.rate));
+            count++;
+        }
+        rate = smooth(rate, Math.max(0, bytes - lastBytes), now - lastNanos);
+        lastBytes = bytes;
+        lastNanos = now;
+
+        List<String> failureList;
+        synchronized (failures) {
+            failureList = List.copyOf(failures);
+        }
+        Snapshot snapshot = new Snapshot(List.copyOf(rows), count, (int) completed.sum(), (int) failed.sum(),
+                bytes, total, rate, failureList);
+        if (queued.getAndSet(snapshot) == null) {
+            uiExecutor.execute(() -> listener.accept(queued.getAndSet(null)));
+        }
+    }
+
+    private static double smooth(double previous, long bytes, long nanos) {
+        if (nanos <= 0) return previous;
+        double instant = bytes * 1e9 / nanos;
+        return previous == 0 ? instant : previous + RATE_SMOOTHING * (instant - previous);
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.network;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TransferScheduler: runs transfers on virtual threads with a bounded number in
+ * flight. Waiting work is ordered smallest-file-first, which minimises mean
+ * completion time for a batch; files of unknown size go last in submission order.
+ */
+public class TransferScheduler {
+
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadFactory threads = Thread.ofVirtual().name("transfer-", 0).factory();
+    private int maxConcurrent;
+    private int running;
+    private boolean shutdown;
+    private volatile Runnable onIdle;
+
+    public TransferScheduler(int maxConcurrent) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be >= 1");
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /** Queue a transfer; {@code size} is its length in bytes, or -1 if unknown */
+    public synchronized void submit(String name, long size, Runnable transfer) {
+        if (shutdown) throw new IllegalStateException("TransferScheduler is shut down");
+        queue.add(new Job(name, size < 0 ? Long.MAX_VALUE : size, sequence.getAndIncrement(), transfer));
+        dispatch();
+    }
+
+    /** Change the concurrency limit; takes effect as transfers start and finish */
+    public synchronized void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be >= 1");
+        this.maxConcurrent = maxConcurrent;
+        dispatch();
+    }
+
+    /** Called on the last transfer's thread whenever nothing is left running or queued */
+    public void setOnIdle(Runnable onIdle) {
+        this.onIdle = onIdle;
+    }
+
+    public synchronized int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /** Drop queued transfers; running ones finish on their own */
+    public synchronized void shutdown() {
+        shutdown = true;
+        queue.clear();
+    }
+
+    private void dispatch() {
+        while (running < maxConcurrent && !queue.isEmpty()) {
+            Job job = queue.poll();
+            running++;
+            threads.newThread(() -> run(job)).start();
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            job.transfer.run();
+        } catch (RuntimeException e) {
+            System.out.println("[TransferScheduler] " + job.name + " failed: " + e.getMessage());
+        } finally {
+            boolean idle;
+            synchronized (this) {
+                running--;
+                if (!shutdown) dispatch();
+                idle = running == 0 && queue.isEmpty();
+            }
+            Runnable callback = onIdle;
+            if (idle && callback != null) callback.run();
+        }
+    }
+
+    private record Job(String name, long size, long sequence, Runnable transfer) implements Comparable<Job> {
+        @Override
+        public int compareTo(Job other) {
+            int bySize = Long.compare(size, other.size);
+            return bySize != 0 ? bySize : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.example.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * WriteEngine: how the receiver puts bytes on disk. Files are written to a part
+ * file that is extended to its final size up front, through pooled direct
+ * buffers and positional {@link FileChannel} writes (so many small socket reads
+ * become a few large writes, and segments can share one channel), then moved
+ * over the target with an atomic rename, so nobody sees a half-written file under
+ * its real name.
+ * <p>
+ * Durability follows the {@link SyncPolicy}: none (the OS flushes when it
+ * likes), or an fsync of every file before it is renamed, with its folder synced
+ * after each rename or once for a whole multi-file job when the caller says the
+ * job is done ({@link #sync()}).
+ */
+public final class WriteEngine {
+
+    public enum SyncPolicy {
+        /** Leave flushing to the OS */
+        NONE,
+        /** fsync each file before its rename, and the folder after it */
+        PER_FILE,
+        /** fsync each file before its rename; sync the folders once, in {@link #sync()} */
+        BATCH
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_POOLED = 16;
+    private static final WriteEngine SHARED = new WriteEngine(DEFAULT_BUFFER_SIZE, SyncPolicy.NONE);
+
+    private final int bufferSize;
+    private final SyncPolicy syncPolicy;
+    private final Deque<ByteBuffer> pool = new ArrayDeque<>();
+    private final Set<Path> unsyncedDirs = new LinkedHashSet<>();
+
+    public WriteEngine(int bufferSize, SyncPolicy syncPolicy) {
+        if (bufferSize < 4096) throw new IllegalArgumentException("Buffer too small: " + bufferSize);
+        this.bufferSize = bufferSize;
+        this.syncPolicy = syncPolicy;
+    }
+
+    /** 1 MiB buffers, no fsync: what downloads use unless told otherwise */
+    public static WriteEngine shared() {
+        return SHARED;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Open {@code part} for writing, emptied first if {@code truncate}. A known
+     * {@code size} only sets the length now (a sparse file): no space is reserved,
+     * so a full disk still fails mid-transfer, but segments can write anywhere.
+     */
+    FileChannel open(Path part, long size, boolean truncate) throws IOException {
+        FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (truncate) channel.truncate(0);
+            if (size > channel.size()) {
+                // Java has no fallocate: writing the last byte sets the length without filling the gap
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** A buffered writer onto {@code channel} starting at {@code position}; close it to flush and return its buffer */
+    Writer writer(FileChannel channel, long position) {
+        return new Writer(channel, position, acquire());
+    }
+
+    /**
+     * Make the finished {@code part} durable as the policy says and move it over
+     * {@code target}. The data is always on disk before the rename, so a crash never
+     * leaves the real name pointing at a short or zero-filled file.
+     */
+    void commit(Path part, Path target) throws IOException {
+        if (syncPolicy != SyncPolicy.NONE) force(part);
+        FileDownloader.commit(part, target);
+        if (syncPolicy == SyncPolicy.PER_FILE) {
+            syncDirectory(target.getParent());
+        } else if (syncPolicy == SyncPolicy.BATCH) {
+            synchronized (unsyncedDirs) {
+                unsyncedDirs.add(target.getParent());
+            }
+        }
+    }
+
+    /** End of a job under {@link SyncPolicy#BATCH}: sync the folders of every file committed since the last call */
+    public void sync() {
+        List<Path> dirs;
+        synchronized (unsyncedDirs) {
+            dirs = new ArrayList<>(unsyncedDirs);
+            unsyncedDirs.clear();
+        }
+        for (Path dir : dirs) syncDirectory(dir);
+    }
+
+    private ByteBuffer acquire() {
+        synchronized (pool) {
+            ByteBuffer buffer = pool.pollFirst();
+            if (buffer != null) return buffer.clear();
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    private void release(ByteBuffer buffer) {
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) pool.addFirst(buffer);
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(false);
+        }
+    }
+
+    /** Persist the rename itself; folders cannot be opened for sync on every platform */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here (e.g. Windows); the data itself is already synced
+        }
+    }
+
+    /** Collects reads into one direct buffer and writes it out at an explicit position when full */
+    final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        private long position;
+
+        private Writer(FileChannel channel, long position, ByteBuffer buffer) {
+            this.channel = channel;
+            this.position = position;
+            this.buffer = buffer;
+        }
+
+        void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(data, offset, n);
+                offset += n;
+                length -= n;
+                if (!buffer.hasRemaining()) flush();
+            }
+        }
+
+        /** Everything written so far is in the file (not necessarily on disk) */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        /** File offset after the last byte written, flushed or not */
+        long position() {
+            return buffer != null ? position + buffer.position() : position;
+        }
+
+        /** File offset up to which bytes have actually reached the channel */
+        long flushed() {
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) return;
+            try {
+                flush();
+            } finally {
+                release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
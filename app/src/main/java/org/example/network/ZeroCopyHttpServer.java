@@ -0,0 +1,753 @@
+package org.example.network;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * ZeroCopyHttpServer: a small HTTP/1.1 server on blocking NIO socket channels.
+ * It runs the same {@link HttpHandler}s as the JDK server, but its exchanges expose
+ * the socket channel so file bodies can be sent with {@code FileChannel.transferTo}.
+ */
+final class ZeroCopyHttpServer extends HttpServer {
+
+    private static final int MAX_LINE_BYTES = 8 * 1024;
+    private static final int MAX_HEADERS = 100;
+    private static final int IDLE_TIMEOUT_MS = 30_000;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    // transferTo making no progress this many times in a row, waiting between tries, ends the response
+    private static final int MAX_TRANSFER_STALLS = 100;
+    private static final long TRANSFER_STALL_WAIT_MS = 10;
+
+    private final Map<String, ChannelContext> contexts = new ConcurrentHashMap<>();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private InetSocketAddress address;
+    private ServerSocketChannel serverChannel;
+    private Executor executor;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    ZeroCopyHttpServer(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public void bind(InetSocketAddress addr, int backlog) throws IOException {
+        if (serverChannel != null) {
+            throw new BindException("ZeroCopyHttpServer already bound");
+        }
+        this.address = addr;
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            throw new IllegalStateException("ZeroCopyHttpServer already started");
+        }
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        running = true;
+        Executor dispatch = executor != null ? executor : Runnable::run;
+        acceptor = new Thread(() -> acceptLoop(dispatch), "ZeroCopyHttpServer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        if (running) {
+            throw new IllegalStateException("Executor must be set before start()");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void stop(int delay) {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        for (SocketChannel channel : connections) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        ChannelContext context = createContext(path);
+        context.setHandler(handler);
+        return context;
+    }
+
+    @Override
+    public ChannelContext createContext(String path) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid context path: " + path);
+        }
+        ChannelContext context = new ChannelContext(path);
+        if (contexts.putIfAbsent(path, context) != null) {
+            throw new IllegalArgumentException("Context already exists: " + path);
+        }
+        return context;
+    }
+
+    @Override
+    public void removeContext(String path) {
+        if (contexts.remove(path) == null) {
+            throw new IllegalArgumentException("No context for: " + path);
+        }
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        removeContext(context.getPath());
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        if (serverChannel != null) {
+            try {
+                return (InetSocketAddress) serverChannel.getLocalAddress();
+            } catch (IOException ignored) {
+            }
+        }
+        return address;
+    }
+
+    /** Connections currently open, busy or idle between requests */
+    int openConnections() {
+        return connections.size();
+    }
+
+    // ------------------- Connection handling ------------------------
+
+    private void acceptLoop(Executor dispatch) {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                dispatch.execute(() -> serve(channel));
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    /** Serve requests on one connection until it closes or stops being reusable */
+    private void serve(SocketChannel channel) {
+        connections.add(channel);
+        try (channel) {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            ChannelOutput out = new ChannelOutput(channel);
+
+            boolean keepAlive = true;
+            while (running && keepAlive) {
+                String requestLine = readLine(in);
+                if (requestLine == null) break;
+                if (requestLine.isEmpty()) continue;
+
+                String[] parts = requestLine.split(" ");
+                Headers requestHeaders = readHeaders(in);
+                if (parts.length != 3 || requestHeaders == null) {
+                    writeSimpleResponse(out, "400 Bad Request");
+                    break;
+                }
+
+                URI uri;
+                try {
+                    uri = new URI(parts[1]);
+                } catch (URISyntaxException e) {
+                    writeSimpleResponse(out, "400 Bad Request");
+                    break;
+                }
+
+                ChannelContext context = findContext(uri.getPath());
+                if (context == null || context.getHandler() == null) {
+                    writeSimpleResponse(out, "404 Not Found");
+                    break;
+                }
+
+                ChannelExchange exchange = new ChannelExchange(channel, context, in, out,
+                        parts[0], uri, parts[2], requestHeaders);
+                try {
+                    new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+                } catch (IOException | RuntimeException e) {
+                    break;
+                }
+                keepAlive = exchange.complete();
+            }
+        } catch (IOException ignored) {
+            // Client went away or idled out
+        } finally {
+            connections.remove(channel);
+        }
+    }
+
+    private ChannelContext findContext(String path) {
+        if (path == null) return null;
+        ChannelContext best = null;
+        for (ChannelContext context : contexts.values()) {
+            if (path.startsWith(context.getPath())
+                    && (best == null || context.getPath().length() > best.getPath().length())) {
+                best = context;
+            }
+        }
+        return best;
+    }
+
+    private static void writeSimpleResponse(ChannelOutput out, String status) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /** Read one CRLF (or LF) terminated line, or null at end of stream */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') length--;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (line.size() >= MAX_LINE_BYTES) {
+                throw new IOException("Header line too long");
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static Headers readHeaders(InputStream in) throws IOException {
+        Headers headers = new Headers();
+        for (int i = 0; i <= MAX_HEADERS; i++) {
+            String line = readLine(in);
+            if (line == null) return null;
+            if (line.isEmpty()) return headers;
+            int colon = line.indexOf(':');
+            if (colon <= 0) return null;
+            headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        return null;
+    }
+
+    // ------------------- Exchange ------------------------
+
+    /** HttpExchange backed by a socket channel, with a sendfile path for file bodies */
+    static final class ChannelExchange extends HttpExchange {
+        private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+        private final SocketChannel channel;
+        private final ChannelContext context;
+        private final ChannelOutput output;
+        private final String method;
+        private final URI uri;
+        private final String protocol;
+        private final Headers requestHeaders;
+        private final Headers responseHeaders = new Headers();
+        private final Map<String, Object> attributes = new HashMap<>();
+        private final InetSocketAddress remoteAddress;
+        private final InetSocketAddress localAddress;
+        private final RequestBody requestBody;
+        private final ResponseBody responseBody = new ResponseBody();
+        private InputStream requestStream;
+        private OutputStream responseStream;
+        private int responseCode = -1;
+        private boolean closeConnection;
+
+        ChannelExchange(SocketChannel channel, ChannelContext context, InputStream in, ChannelOutput output,
+                        String method, URI uri, String protocol, Headers requestHeaders) throws IOException {
+            this.channel = channel;
+            this.context = context;
+            this.output = output;
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.requestHeaders = requestHeaders;
+            this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+            this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+
+            String connection = requestHeaders.getFirst("Connection");
+            boolean http10 = "HTTP/1.0".equalsIgnoreCase(protocol);
+            closeConnection = "close".equalsIgnoreCase(connection)
+                    || (http10 && !"keep-alive".equalsIgnoreCase(connection));
+
+            long contentLength = 0;
+            String lengthHeader = requestHeaders.getFirst("Content-Length");
+            if (requestHeaders.containsKey("Transfer-Encoding")) {
+                // Chunked request bodies are not needed by any handler; refuse reuse
+                closeConnection = true;
+            } else if (lengthHeader != null) {
+                try {
+                    contentLength = Long.parseLong(lengthHeader.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad Content-Length: " + lengthHeader);
+                }
+            }
+            this.requestBody = new RequestBody(in, contentLength);
+            this.requestStream = requestBody;
+            this.responseStream = responseBody;
+        }
+
+        /**
+         * Send {@code count} bytes of {@code source} starting at {@code position}
+         * straight to the socket. Must be called after {@link #sendResponseHeaders}.
+         */
+        void transferFrom(FileChannel source, long position, long count) throws IOException {
+            responseBody.beginRaw(count);
+            output.flush();
+            long sent = 0;
+            int stalls = 0;
+            while (sent < count) {
+                long n = source.transferTo(position + sent, count - sent, channel);
+                if (n > 0) {
+                    sent += n;
+                    stalls = 0;
+                    continue;
+                }
+                // No progress: the file shrank under us, or the socket would not take more
+                if (source.size() < position + count) {
+                    throw new EOFException("File truncated while sending");
+                }
+                if (++stalls > MAX_TRANSFER_STALLS) {
+                    throw new IOException("Transfer stalled at " + (position + sent) + " of " + (position + count));
+                }
+                try {
+                    Thread.sleep(TRANSFER_STALL_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Transfer interrupted");
+                }
+            }
+            responseBody.endRaw(count);
+        }
+
+        /** Write {@code data} straight to the socket, e.g. a direct buffer shared through a cache */
+        void write(ByteBuffer data) throws IOException {
+            int count = data.remaining();
+            responseBody.beginRaw(count);
+            output.flush();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            responseBody.endRaw(count);
+        }
+
+        /** Finish the exchange; returns true if the connection can serve another request */
+        boolean complete() {
+            try {
+                if (responseCode == -1) return false;
+                responseBody.close();
+                if (!responseBody.isComplete()) return false;
+                return !closeConnection && requestBody.drain();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return context;
+        }
+
+        @Override
+        public void close() {
+            try {
+                requestStream.close();
+                if (responseCode == -1) {
+                    closeConnection = true;
+                } else {
+                    responseStream.close();
+                }
+            } catch (IOException e) {
+                closeConnection = true;
+            }
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return requestStream;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return responseStream;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            if (responseCode != -1) {
+                throw new IOException("Response headers already sent");
+            }
+            responseCode = rCode;
+
+            boolean bodyless = rCode < 200 || rCode == 204 || rCode == 304;
+            boolean head = "HEAD".equalsIgnoreCase(method);
+            if (bodyless) {
+                responseBody.setFixed(0);
+            } else if (head) {
+                // As with the JDK server, HEAD handlers set Content-Length themselves
+                if (responseLength > 0) responseHeaders.set("Content-Length", Long.toString(responseLength));
+                responseBody.setFixed(0);
+            } else if (responseLength == -1) {
+                responseHeaders.set("Content-Length", "0");
+                responseBody.setFixed(0);
+            } else if (responseLength == 0) {
+                responseHeaders.set("Transfer-Encoding", "chunked");
+                responseBody.setChunked();
+            } else {
+                responseHeaders.set("Content-Length", Long.toString(responseLength));
+                responseBody.setFixed(responseLength);
+            }
+            if (closeConnection) {
+                responseHeaders.set("Connection", "close");
+            }
+            responseHeaders.set("Date", HTTP_DATE.format(ZonedDateTime.now(ZoneOffset.UTC)));
+
+            StringBuilder status = new StringBuilder(256);
+            status.append("HTTP/1.1 ").append(rCode).append(' ').append(reasonPhrase(rCode)).append("\r\n");
+            for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+                for (String value : header.getValue()) {
+                    status.append(header.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+            status.append("\r\n");
+            output.write(status.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (responseBody.isComplete()) {
+                output.flush();
+            }
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return localAddress;
+        }
+
+        @Override
+        public String getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            if (value == null) attributes.remove(name);
+            else attributes.put(name, value);
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if (i != null) requestStream = i;
+            if (o != null) responseStream = o;
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+
+        private static String reasonPhrase(int code) {
+            return switch (code) {
+                case 200 -> "OK";
+                case 204 -> "No Content";
+                case 206 -> "Partial Content";
+                case 304 -> "Not Modified";
+                case 400 -> "Bad Request";
+                case 403 -> "Forbidden";
+                case 404 -> "Not Found";
+                case 405 -> "Method Not Allowed";
+                case 416 -> "Range Not Satisfiable";
+                case 500 -> "Internal Server Error";
+                case 503 -> "Service Unavailable";
+                default -> "Status";
+            };
+        }
+
+        /** Response body framing: fixed Content-Length or chunked */
+        private final class ResponseBody extends OutputStream {
+            private boolean chunked;
+            private long remaining = -1;
+            private boolean closed;
+
+            void setFixed(long length) {
+                remaining = length;
+            }
+
+            void setChunked() {
+                chunked = true;
+            }
+
+            boolean isComplete() {
+                return chunked ? closed : remaining == 0;
+            }
+
+            void beginRaw(long count) throws IOException {
+                checkWritable(count);
+                if (chunked && count > 0) {
+                    output.write((Long.toHexString(count) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                }
+            }
+
+            void endRaw(long count) throws IOException {
+                if (chunked) {
+                    if (count > 0) output.write(CRLF);
+                } else {
+                    remaining -= count;
+                }
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return;
+                checkWritable(len);
+                if (chunked) {
+                    output.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    output.write(b, off, len);
+                    output.write(CRLF);
+                } else {
+                    output.write(b, off, len);
+                    remaining -= len;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                output.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                if (responseCode == -1) return;
+                if (chunked) {
+                    output.write(LAST_CHUNK);
+                }
+                output.flush();
+            }
+
+            private void checkWritable(long len) throws IOException {
+                if (responseCode == -1) throw new IOException("Response headers not sent");
+                if (closed) throw new IOException("Response body closed");
+                if (!chunked && len > remaining) {
+                    throw new IOException("Too many bytes for Content-Length");
+                }
+            }
+        }
+    }
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    /** Request body limited to Content-Length */
+    private static final class RequestBody extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        RequestBody(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b != -1) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        /** Skip any unread body so the next request starts at the right place */
+        boolean drain() throws IOException {
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    if (in.read() == -1) return false;
+                    n = 1;
+                }
+                remaining -= n;
+            }
+            return true;
+        }
+    }
+
+    /** Buffered writer onto the socket channel */
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                flush();
+                if (len >= buffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(b, off, len));
+                    return;
+                }
+            }
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /** Context registered on this server */
+    final class ChannelContext extends HttpContext {
+        private final String path;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<Filter> filters = new CopyOnWriteArrayList<>();
+        private volatile HttpHandler handler;
+        private volatile Authenticator authenticator;
+
+        ChannelContext(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            return ZeroCopyHttpServer.this;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator auth) {
+            Authenticator previous = authenticator;
+            authenticator = auth;
+            return previous;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.network;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaSyncTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rebuildsAFileWithBytesInsertedMidway() throws IOException {
+        byte[] old = random(1024 * 1024, 1);
+        byte[] inserted = random(100, 2);
+        byte[] changed = new byte[old.length + inserted.length];
+        System.arraycopy(old, 0, changed, 0, 500_000);
+        System.arraycopy(inserted, 0, changed, 500_000, inserted.length);
+        System.arraycopy(old, 500_000, changed, 500_000 + inserted.length, old.length - 500_000);
+
+        DeltaSync.Result result = sync(old, changed);
+
+        assertArrayEquals(changed, Files.readAllBytes(result.file()));
+        // Everything after the insert is found again at its shifted offset
+        int block = DeltaSync.blockSizeFor(old.length);
+        assertTrue(result.literalBytes() <= inserted.length + 2L * block, "literal bytes " + result.literalBytes());
+        assertEquals(changed.length, result.copiedBytes() + result.literalBytes());
+    }
+
+    @Test
+    void rebuildsAFileWithAnOverwrittenBlockAndATruncatedTail() throws IOException {
+        byte[] old = random(300_000, 3);
+        byte[] changed = Arrays.copyOf(old, 250_000);
+        System.arraycopy(random(4096, 4), 0, changed, 100_000, 4096);
+
+        DeltaSync.Result result = sync(old, changed);
+
+        assertArrayEquals(changed, Files.readAllBytes(result.file()));
+        assertTrue(result.copiedBytes() > 200_000);
+    }
+
+    @Test
+    void rebuildsFromAnEmptyBasis() throws IOException {
+        byte[] changed = random(10_000, 5);
+        assertArrayEquals(changed, Files.readAllBytes(sync(new byte[0], changed).file()));
+    }
+
+    @Test
+    void rejectsATruncatedSignature() throws IOException {
+        byte[] signature = signature(random(100_000, 6));
+        byte[] truncated = Arrays.copyOf(signature, signature.length - 7);
+        assertThrows(EOFException.class,
+                () -> DeltaSync.readSignature(new ByteArrayInputStream(truncated), signature.length));
+    }
+
+    @Test
+    void rejectsASignatureWhoseLengthDoesNotMatchItsDeclaredSize() throws IOException {
+        byte[] signature = signature(random(100_000, 7));
+        assertThrows(IOException.class,
+                () -> DeltaSync.readSignature(new ByteArrayInputStream(signature), signature.length + 20));
+        assertThrows(IOException.class,
+                () -> DeltaSync.readSignature(new ByteArrayInputStream(signature), -1));
+    }
+
+    @Test
+    void rejectsOversizedSignatureGeometryBeforeAllocating() {
+        // Claims a 1 PiB file in the smallest blocks, with a body that is only the header
+        byte[] header = ByteBuffer.allocate(16).putInt(0x42535331).putInt(2048).putLong(1L << 50).array();
+        assertThrows(IOException.class,
+                () -> DeltaSync.readSignature(new ByteArrayInputStream(header), header.length));
+    }
+
+    @Test
+    void rejectsATruncatedOrTamperedDelta() throws IOException {
+        byte[] old = random(200_000, 8);
+        byte[] changed = old.clone();
+        changed[150_000] ^= 1;
+        Path basis = write("basis", old);
+        Path target = write("target", changed);
+        byte[] signature = signature(old);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DeltaSync.writeDelta(target.toFile(), DeltaSync.readSignature(new ByteArrayInputStream(signature),
+                signature.length), delta);
+        byte[] bytes = delta.toByteArray();
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 10);
+        assertThrows(EOFException.class, () -> DeltaSync.apply(new ByteArrayInputStream(truncated), basis,
+                dir.resolve("out-truncated"), signature.length));
+
+        // Flip a byte of the trailing whole-file hash
+        byte[] tampered = bytes.clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertThrows(IOException.class, () -> DeltaSync.apply(new ByteArrayInputStream(tampered), basis,
+                dir.resolve("out-tampered"), signature.length));
+    }
+
+    private DeltaSync.Result sync(byte[] old, byte[] changed) throws IOException {
+        Path basis = write("basis", old);
+        Path target = write("target", changed);
+        byte[] signature = signature(old);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DeltaSync.writeDelta(target.toFile(), DeltaSync.readSignature(new ByteArrayInputStream(signature),
+                signature.length), delta);
+        return DeltaSync.apply(new ByteArrayInputStream(delta.toByteArray()), basis, dir.resolve("rebuilt"),
+                signature.length);
+    }
+
+    private byte[] signature(byte[] basis) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = DeltaSync.writeSignature(write("signed", basis), out);
+        assertEquals(DeltaSync.signatureLength(basis.length), length);
+        return out.toByteArray();
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(dir.resolve(name), data);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
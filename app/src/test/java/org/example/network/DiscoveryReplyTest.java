@@ -0,0 +1,55 @@
+package org.example.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscoveryReplyTest {
+
+    private static final DiscoveryReply REPLY = new DiscoveryReply(8443, new InetSocketAddress("239.255.42.99", 60001),
+            12, 1L << 40, 7, 0x1234_5678_9abc_def0L, 3, 5, true, false);
+
+    @Test
+    void roundTripsEveryField() {
+        assertEquals(REPLY, DiscoveryReply.parse(ByteBuffer.wrap(REPLY.toBytes())));
+    }
+
+    @Test
+    void ignoresFieldsAppendedByLaterVersions() {
+        byte[] longer = Arrays.copyOf(REPLY.toBytes(), REPLY.toBytes().length + 32);
+        assertEquals(REPLY, DiscoveryReply.parse(ByteBuffer.wrap(longer)));
+    }
+
+    @Test
+    void rejectsATruncatedReply() {
+        byte[] bytes = REPLY.toBytes();
+        for (int length = 0; length < 40; length += 7) {
+            assertNull(DiscoveryReply.parse(ByteBuffer.wrap(Arrays.copyOf(bytes, length))));
+        }
+    }
+
+    @Test
+    void dropsAMulticastGroupCutShort() {
+        byte[] bytes = Arrays.copyOf(REPLY.toBytes(), REPLY.toBytes().length - 3);
+        DiscoveryReply parsed = DiscoveryReply.parse(ByteBuffer.wrap(bytes));
+        assertNotNull(parsed);
+        assertNull(parsed.multicastGroup());
+        assertEquals(REPLY.port(), parsed.port());
+    }
+
+    @Test
+    void readsLegacyTextReplies() {
+        DiscoveryReply legacy = DiscoveryReply.parse(ByteBuffer.wrap(
+                "BYTESHARE::192.168.1.5:8080".getBytes(StandardCharsets.UTF_8)));
+        assertNotNull(legacy);
+        assertEquals(8080, legacy.port());
+        assertEquals(-1, legacy.fileCount());
+        assertNull(DiscoveryReply.parse(ByteBuffer.wrap("BYTESHARE::nonsense".getBytes(StandardCharsets.UTF_8))));
+        assertNull(DiscoveryReply.parse(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MulticastPacketsTest {
+
+    @Test
+    void nackNamesExactlyTheMissingPackets() {
+        BitSet received = new BitSet();
+        received.set(0, 100);
+        received.clear(3);
+        received.clear(10, 20);
+        received.clear(95, 100);
+
+        ByteBuffer nack = MulticastPackets.nack(42, received, 100);
+        assertEquals(MulticastPackets.NACK, nack.get());
+        assertEquals(42, nack.getInt());
+        BitSet missing = MulticastPackets.readNack(nack, 100);
+
+        BitSet expected = (BitSet) received.clone();
+        expected.flip(0, 100);
+        assertEquals(expected, missing);
+    }
+
+    @Test
+    void noNackWhenNothingIsMissing() {
+        BitSet received = new BitSet();
+        received.set(0, 64);
+        assertNull(MulticastPackets.nack(1, received, 64));
+    }
+
+    @Test
+    void readNackStopsAtTheEndOfATruncatedPacket() {
+        // Claims 1000 ranges but carries one and a half
+        ByteBuffer packet = ByteBuffer.allocate(14).putShort((short) 1000).putInt(5).putInt(2).putInt(50).flip();
+        BitSet missing = MulticastPackets.readNack(packet, 100);
+        assertEquals(2, missing.cardinality());
+        assertTrue(missing.get(5) && missing.get(6));
+    }
+
+    @Test
+    void readNackClipsRangesToTheFile() {
+        ByteBuffer packet = ByteBuffer.allocate(26).putShort((short) 3)
+                .putInt(90).putInt(Integer.MAX_VALUE)
+                .putInt(-5).putInt(10)
+                .putInt(500).putInt(1)
+                .flip();
+        BitSet missing = MulticastPackets.readNack(packet, 100);
+        assertEquals(10, missing.cardinality());
+        assertEquals(90, missing.nextSetBit(0));
+        assertEquals(100, missing.length());
+    }
+
+    @Test
+    void announceRoundTripsItsName() {
+        ByteBuffer announce = MulticastPackets.announce(7, 123_456, 1400, "folder/ünïcode.bin");
+        announce.position(1 + 4 + 8 + 4);
+        assertEquals("folder/ünïcode.bin", MulticastPackets.readName(announce));
+    }
+
+    @Test
+    void readNameRejectsANameLongerThanThePacket() {
+        ByteBuffer packet = ByteBuffer.allocate(6).putShort((short) 200).put(new byte[4]).flip();
+        assertNull(MulticastPackets.readName(packet));
+        assertNull(MulticastPackets.readName(ByteBuffer.allocate(1)));
+    }
+}
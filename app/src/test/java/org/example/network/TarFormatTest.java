@@ -0,0 +1,93 @@
+package org.example.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TarFormatTest {
+
+    private static final String LONG_NAME = "folder/" + "a".repeat(150) + "/ünïcode.txt";
+
+    @Test
+    void readsBackWhatItWrites() throws IOException {
+        byte[] archive = archive("short.txt", bytes(700), LONG_NAME, bytes(512));
+        TarFormat.Reader reader = new TarFormat.Reader(new ByteArrayInputStream(archive));
+
+        TarFormat.Entry first = reader.next();
+        assertEquals(new TarFormat.Entry("short.txt", 700), first);
+        assertArrayEquals(bytes(700), reader.entryStream().readAllBytes());
+        // The second entry needs a pax header for its name
+        TarFormat.Entry second = reader.next();
+        assertEquals(new TarFormat.Entry(LONG_NAME, 512), second);
+        assertArrayEquals(bytes(512), reader.entryStream().readAllBytes());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void entryLengthMatchesTheBytesWritten() {
+        assertEquals(archive(LONG_NAME, bytes(1000)).length - TarFormat.trailer().length,
+                TarFormat.entryLength(LONG_NAME, 1000));
+    }
+
+    @Test
+    void rejectsAnArchiveCutInsideAHeader() {
+        byte[] archive = Arrays.copyOf(archive("short.txt", bytes(10)), 300);
+        assertThrows(EOFException.class, () -> new TarFormat.Reader(new ByteArrayInputStream(archive)).next());
+    }
+
+    @Test
+    void rejectsAnArchiveCutInsideAnEntry() throws IOException {
+        byte[] archive = Arrays.copyOf(archive("short.txt", bytes(5000)), TarFormat.BLOCK + 1000);
+        TarFormat.Reader reader = new TarFormat.Reader(new ByteArrayInputStream(archive));
+        reader.next();
+        assertThrows(EOFException.class, () -> reader.entryStream().readAllBytes());
+    }
+
+    @Test
+    void rejectsAnOversizedPaxHeader() {
+        byte[] header = TarFormat.header(LONG_NAME, 10, 0);
+        // The long name puts a pax header first; make it claim a 64 MiB body
+        writeOctal(header, 124, 12, 64L * 1024 * 1024);
+        assertThrows(IOException.class, () -> new TarFormat.Reader(new ByteArrayInputStream(header)).next());
+    }
+
+    @Test
+    void rejectsACorruptSizeField() {
+        byte[] archive = archive("short.txt", bytes(10));
+        byte[] garbage = "zz-not-octal".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(garbage, 0, archive, 124, 12);
+        assertThrows(IOException.class, () -> new TarFormat.Reader(new ByteArrayInputStream(archive)).next());
+    }
+
+    /** Name and data pairs as one archive */
+    private static byte[] archive(Object... entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < entries.length; i += 2) {
+            byte[] data = (byte[]) entries[i + 1];
+            out.writeBytes(TarFormat.header((String) entries[i], data.length, 1_700_000_000_000L));
+            out.writeBytes(data);
+            out.writeBytes(new byte[TarFormat.padding(data.length)]);
+        }
+        out.writeBytes(TarFormat.trailer());
+        return out.toByteArray();
+    }
+
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        byte[] digits = String.format("%0" + (length - 1) + "o", value).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digits, 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * 31 + length);
+        return data;
+    }
+}
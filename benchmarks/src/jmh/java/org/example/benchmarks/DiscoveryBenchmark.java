@@ -0,0 +1,109 @@
+package org.example.benchmarks;
+
+import org.example.network.FileServer;
+import org.example.network.NetworkScanner;
+import org.example.network.ServingEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiscoveryBenchmark: how fast a sender on this host is found. {@code probeRoundTrip}
+ * is one probe datagram to the discovery port and its reply; {@code firstSender}
+ * is a fresh {@link NetworkScanner} from start until it reports the sender, which
+ * is what a receiver opening the scan screen waits for.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+    private static final int DISCOVERY_PORT = 60000;
+
+    private Path root;
+    private FileServer server;
+    private DatagramChannel channel;
+    private final ByteBuffer probe = ByteBuffer.wrap("DISCOVER_BYTESHARE".getBytes(StandardCharsets.US_ASCII));
+    private final ByteBuffer reply = ByteBuffer.allocate(512);
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("byteshare-jmh-discovery");
+        server = new FileServer(List.of(Loopback.randomFile(root, "payload.bin", 1024).toFile()),
+                ServingEngine.STANDARD);
+        server.start();
+        channel = DatagramChannel.open().connect(new InetSocketAddress("127.0.0.1", DISCOVERY_PORT));
+        awaitDiscoveryServer();
+    }
+
+    /** The discovery thread binds its port asynchronously: probe until it answers */
+    private void awaitDiscoveryServer() throws Exception {
+        channel.configureBlocking(false);
+        try {
+            for (int attempt = 0; attempt < 50; attempt++) {
+                try {
+                    channel.write(probe.rewind());
+                    Thread.sleep(100);
+                    if (channel.read(reply.clear()) > 0) return;
+                } catch (PortUnreachableException e) {
+                    // Not bound yet
+                }
+            }
+            throw new IllegalStateException("Discovery server did not answer");
+        } finally {
+            channel.configureBlocking(true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.close();
+        server.stop();
+        Loopback.deleteTree(root);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 3)
+    public int probeRoundTrip() throws Exception {
+        channel.write(probe.rewind());
+        channel.read(reply.clear());
+        return reply.position();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 30)
+    public NetworkScanner.Sender firstSender() throws Exception {
+        CountDownLatch found = new CountDownLatch(1);
+        NetworkScanner.Sender[] sender = new NetworkScanner.Sender[1];
+        try (NetworkScanner scanner = new NetworkScanner()) {
+            scanner.addListener(new NetworkScanner.Listener() {
+                @Override
+                public void senderFound(NetworkScanner.Sender s) {
+                    sender[0] = s;
+                    found.countDown();
+                }
+
+                @Override
+                public void senderLost(NetworkScanner.Sender s) {
+                }
+            });
+            scanner.start();
+            if (!found.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("Sender not found");
+        }
+        return sender[0];
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.benchmarks;
+
+import org.example.network.FileServer;
+import org.example.network.ServingEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DownloadBenchmark: whole-file downloads from a loopback FileServer, per serving
+ * engine, file size and number of simultaneous clients. One operation is
+ * {@code concurrency} downloads running at once, so throughput per operation is
+ * {@code sizeKiB * concurrency} KiB over the reported time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"STANDARD", "ZERO_COPY"})
+    public ServingEngine engine;
+
+    @Param({"64", "4096", "131072"})
+    public int sizeKiB;
+
+    @Param({"1", "8", "32"})
+    public int concurrency;
+
+    private Path root;
+    private FileServer server;
+    private ExecutorService clients;
+    private String url;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("byteshare-jmh-download");
+        File file = Loopback.randomFile(root, "payload.bin", sizeKiB * 1024L).toFile();
+        server = new FileServer(List.of(file), engine);
+        server.start();
+        url = Loopback.baseUrl(server) + "/download?file=payload.bin&pin=" + server.getPin();
+        clients = Executors.newFixedThreadPool(concurrency);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        clients.shutdownNow();
+        server.stop();
+        Loopback.deleteTree(root);
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        if (concurrency == 1) return Loopback.fetch(url, new byte[64 * 1024]);
+        List<Future<Long>> downloads = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            downloads.add(clients.submit(() -> Loopback.fetch(url, new byte[64 * 1024])));
+        }
+        long total = 0;
+        for (Future<Long> download : downloads) total += download.get();
+        return total;
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.benchmarks;
+
+import org.example.network.FileServer;
+import org.example.network.ServingEngine;
+import org.example.network.ShareCatalog;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ListingBenchmark: {@code /files} and {@code /catalog} latency against catalog size.
+ * {@code cached} is a page served from the listing cache, {@code revalidated} a
+ * client that already holds it (304), and {@code rebuilt} the first request after
+ * a catalog change, which renders the page again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({"100", "10000", "50000"})
+    public int files;
+
+    @Param({"files", "catalog"})
+    public String endpoint;
+
+    private Path root;
+    private FileServer server;
+    private String url;
+    private String etag;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /** Touches one catalog entry before each call, so every request misses the listing cache */
+    @State(Scope.Thread)
+    public static class Changed {
+        @Setup(Level.Invocation)
+        public void touch(ListingBenchmark benchmark) {
+            ShareCatalog catalog = benchmark.server.getCatalog();
+            ShareCatalog.Entry entry = catalog.entries().get(0);
+            catalog.update(entry.path(), entry.file());
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("byteshare-jmh-listing");
+        Path dir = Files.createDirectory(root.resolve("shared"));
+        for (int i = 0; i < files; i++) {
+            Files.writeString(dir.resolve("file-" + i + ".txt"), Integer.toString(i));
+        }
+        server = new FileServer(List.of(dir.toFile()), ServingEngine.STANDARD);
+        server.start();
+        String query = endpoint.equals("files") ? "?sizes=true&pin=" : "?pin=";
+        url = Loopback.baseUrl(server) + "/" + endpoint + query + server.getPin();
+        etag = Loopback.etag(url);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        Loopback.deleteTree(root);
+    }
+
+    @Benchmark
+    public long cached() throws Exception {
+        return Loopback.fetch(url, buffer);
+    }
+
+    @Benchmark
+    public long revalidated() throws Exception {
+        return Loopback.fetch(url, buffer, etag);
+    }
+
+    @Benchmark
+    public long rebuilt(Changed changed) throws Exception {
+        return Loopback.fetch(url, buffer);
+    }
+}
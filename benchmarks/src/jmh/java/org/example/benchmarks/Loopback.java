@@ -0,0 +1,75 @@
+package org.example.benchmarks;
+
+import org.example.network.FileServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+/** Loopback plumbing shared by the JMH suites: file fixtures and plain HTTP fetches */
+final class Loopback {
+
+    private Loopback() {
+    }
+
+    /** The server's base URL on 127.0.0.1, whatever LAN address it advertises */
+    static String baseUrl(FileServer server) throws IOException {
+        URI access = URI.create(server.getAccessUrl());
+        return access.getScheme() + "://127.0.0.1:" + access.getPort();
+    }
+
+    /** GET {@code url} and discard the body into {@code buffer}; returns the body length */
+    static long fetch(String url, byte[] buffer) throws IOException {
+        return fetch(url, buffer, null);
+    }
+
+    /** As {@link #fetch(String, byte[])}, revalidating with {@code etag}; a 304 reads as 0 bytes */
+    static long fetch(String url, byte[] buffer, String etag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) return 0;
+        if (status / 100 != 2) throw new IOException("HTTP " + status + " for " + url);
+        long total = 0;
+        try (InputStream in = connection.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) total += n;
+        }
+        return total;
+    }
+
+    /** The ETag a GET of {@code url} comes back with */
+    static String etag(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return connection.getHeaderField("ETag");
+    }
+
+    static Path randomFile(Path dir, String name, long size) throws IOException {
+        Path file = dir.resolve(name);
+        Random random = new Random(size);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) return;
+        try (var paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
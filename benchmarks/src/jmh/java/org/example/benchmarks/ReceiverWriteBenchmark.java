@@ -0,0 +1,72 @@
+package org.example.benchmarks;
+
+import org.example.network.FileDownloader;
+import org.example.network.FileServer;
+import org.example.network.ServingEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReceiverWriteBenchmark: the receiver's side of a download, from the first
+ * response byte to the committed file, through {@link FileDownloader} against a
+ * zero-copy loopback sender (so the sender is rarely the bottleneck). Single
+ * stream and segmented, with and without chunk verification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReceiverWriteBenchmark {
+
+    @Param({"64", "512"})
+    public int sizeMiB;
+
+    @Param({"false", "true"})
+    public boolean segmented;
+
+    @Param({"false", "true"})
+    public boolean verify;
+
+    private Path root;
+    private Path downloads;
+    private FileServer server;
+    private String baseUrl;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("byteshare-jmh-receive");
+        Path shared = Files.createDirectory(root.resolve("shared"));
+        downloads = Files.createDirectory(root.resolve("downloads"));
+        server = new FileServer(List.of(Loopback.randomFile(shared, "payload.bin", sizeMiB * 1024L * 1024).toFile()),
+                ServingEngine.ZERO_COPY);
+        server.start();
+        baseUrl = Loopback.baseUrl(server);
+    }
+
+    /** Each shot starts from an empty folder, so nothing resumes */
+    @Setup(Level.Invocation)
+    public void clean() throws Exception {
+        Loopback.deleteTree(downloads);
+        Files.createDirectories(downloads);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        Loopback.deleteTree(root);
+    }
+
+    @Benchmark
+    public Path download() throws Exception {
+        FileDownloader downloader = new FileDownloader(baseUrl, server.getPin());
+        downloader.setSegmented(segmented);
+        downloader.setVerify(verify);
+        return downloader.download("payload.bin", downloads);
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.network;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParsingBenchmark: the per-request parsing every handler or scanner does before
+ * any I/O. Lives in {@code org.example.network} so it can reach the
+ * package-private parsers directly instead of going through a socket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private static final String PIN = "482913";
+    private static final String DOWNLOAD_QUERY =
+            "file=photos%2F2024%2Fholiday%20trip%2FIMG_0042.jpg&pin=482913";
+    private static final String LISTING_QUERY = "sizes=true&limit=500&cursor=photos%2F2024%2FIMG_0500.jpg&pin=482913";
+
+    @Param({"100", "10000"})
+    public int catalogFiles;
+
+    private ByteBuffer discoveryReply;
+    private ByteBuffer legacyReply;
+    private String catalogJson;
+
+    @Setup
+    public void setUp() {
+        discoveryReply = ByteBuffer.wrap(new DiscoveryReply(53124, null, 1200, 5L << 30, 17, 0x1234_5678_9abcL, 2, 6, false, false)
+                .toBytes());
+        legacyReply = ByteBuffer.wrap("BYTESHARE::192.168.1.20:53124".getBytes());
+        StringBuilder json = new StringBuilder("{\"version\":3,\"count\":").append(catalogFiles)
+                .append(",\"totalBytes\":123456789,\"next\":null,\"files\":[");
+        for (int i = 0; i < catalogFiles; i++) {
+            if (i > 0) json.append(',');
+            json.append("\n{\"id\":\"").append(Long.toHexString(i * 0x9E3779B97F4A7C15L))
+                .append("\",\"path\":\"photos/2024/IMG_").append(i).append(".jpg\",\"size\":").append(1_000_000 + i)
+                .append(",\"mtime\":1700000000000,\"type\":\"image/jpeg\"}");
+        }
+        catalogJson = json.append("]}\n").toString();
+    }
+
+    /** Query string and PIN check of a /download request, as FileDownloadHandler does them */
+    @Benchmark
+    public boolean downloadQueryAndPin() {
+        QueryParams params = QueryParams.parse(DOWNLOAD_QUERY);
+        return PIN.equals(params.get("pin")) && params.get("file") != null;
+    }
+
+    @Benchmark
+    public QueryParams listingQuery() {
+        return QueryParams.parse(LISTING_QUERY);
+    }
+
+    @Benchmark
+    public ByteRange rangeHeader() {
+        return ByteRange.parse("bytes=1048576-2097151", 10L << 30);
+    }
+
+    @Benchmark
+    public DiscoveryReply discoveryReply() {
+        return DiscoveryReply.parse(discoveryReply.rewind());
+    }
+
+    @Benchmark
+    public DiscoveryReply legacyDiscoveryReply() {
+        return DiscoveryReply.parse(legacyReply.rewind());
+    }
+
+    @Benchmark
+    public CatalogListing catalogListing() throws Exception {
+        return CatalogListing.parse(catalogJson, null);
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.network;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TlsBenchmark: what encryption costs a download. The same files are served as
+ * plain HTTP by both engines and as HTTPS (which always runs on the standard
+ * engine), and fetched through the receiver's own pooled, session-resuming
+ * connections. STANDARD against TLS is the price of the cipher alone; ZERO_COPY
+ * against TLS is what turning HTTPS on costs in practice. {@code catalog} is a
+ * small request on a warm connection, where handshakes would dominate if they
+ * were not skipped. Lives in {@code org.example.network} to open connections the
+ * way {@link FileDownloader} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TlsBenchmark {
+
+    @Param({"STANDARD", "ZERO_COPY", "TLS"})
+    public String transport;
+
+    @Param({"4096", "131072", "1048576"})
+    public int sizeKiB;
+
+    private Path root;
+    private FileServer server;
+    private String baseUrl;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("byteshare-jmh-tls");
+        File file = root.resolve("payload.bin").toFile();
+        Random random = new Random(sizeKiB);
+        byte[] block = new byte[1024 * 1024];
+        try (var out = Files.newOutputStream(file.toPath())) {
+            for (long written = 0; written < sizeKiB * 1024L; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, sizeKiB * 1024L - written));
+            }
+        }
+        boolean tls = transport.equals("TLS");
+        server = new FileServer(List.of(file), tls ? ServingEngine.STANDARD : ServingEngine.valueOf(transport));
+        if (tls) server.setTls(TlsContext.bundled());
+        server.start();
+        URI access = URI.create(server.getAccessUrl());
+        baseUrl = access.getScheme() + "://127.0.0.1:" + access.getPort();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        try (var paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        return fetch(baseUrl + "/download?file=payload.bin&pin=" + server.getPin());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long catalog() throws IOException {
+        return fetch(baseUrl + "/catalog?pin=" + server.getPin());
+    }
+
+    private long fetch(String url) throws IOException {
+        HttpURLConnection connection = FileDownloader.open(URI.create(url).toURL());
+        if (connection.getResponseCode() != 200) throw new IOException("HTTP " + connection.getResponseCode());
+        long total = 0;
+        try (InputStream in = connection.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.benchmarks;
+
+import org.example.Cli;
+import org.example.network.FileServer;
+import org.example.network.ManifestStore;
+import org.example.network.ServingEngine;
+import org.example.network.TlsContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ColdStart: serve a file from this process and fetch it with fresh
+ * {@code Cli get} JVMs, printing each one's time to first byte from JVM start.
+ * Each run is timed with the default CDS archive and, when {@code --archive} is
+ * given, with the CLI's own class-data archive too ({@code :app:cliCdsArchive}).
+ * <pre>
+ *   ColdStart &lt;app-all.jar&gt; [--tls] [--runs &lt;n&gt;] [--archive &lt;jsa&gt;]
+ * </pre>
+ */
+public class ColdStart {
+
+    private static final long FILE_BYTES = 8L * 1024 * 1024;
+    private static final List<String> CLI_JVM_ARGS =
+            List.of("--add-modules", "jdk.httpserver,jdk.charsets,jdk.jfr,java.management");
+
+    public static void main(String[] args) throws Exception {
+        List<String> rest = new ArrayList<>(List.of(args));
+        boolean secure = rest.remove("--tls");
+        int runs = Integer.parseInt(option(rest, "--runs", "3"));
+        String archive = option(rest, "--archive", null);
+        if (rest.size() != 1) {
+            System.err.println("Usage: ColdStart <app-all.jar> [--tls] [--runs <n>] [--archive <jsa>]");
+            System.exit(2);
+        }
+        String jar = rest.get(0);
+
+        Path dir = Files.createTempDirectory("byteshare-coldstart");
+        try {
+            Path file = dir.resolve("payload.bin");
+            SwarmLoopback.writeRandom(file, FILE_BYTES);
+            FileServer server = new FileServer(List.of(file.toFile()), ServingEngine.ZERO_COPY);
+            server.setManifestStore(new ManifestStore());
+            TlsContext tls = secure ? TlsContext.bundled() : null;
+            if (tls != null) server.setTls(tls);
+            server.start();
+            try {
+                URI access = URI.create(server.getAccessUrl());
+                List<String> get = new ArrayList<>(List.of("-cp", jar, Cli.class.getName(), "get",
+                        access.getScheme() + "://127.0.0.1:" + access.getPort(), server.getPin()));
+                if (tls != null) get.addAll(List.of("--fingerprint", tls.fingerprint()));
+
+                for (int i = 0; i < runs; i++) {
+                    System.out.println("-Xshare:auto: " + run(List.of("-Xshare:auto"), get, dir.resolve("auto-" + i), file));
+                }
+                if (archive != null) {
+                    for (int i = 0; i < runs; i++) {
+                        System.out.println("-XX:SharedArchiveFile: " + run(List.of("-XX:SharedArchiveFile=" + archive),
+                                get, dir.resolve("archive-" + i), file));
+                    }
+                }
+            } finally {
+                server.stop();
+            }
+        } finally {
+            SwarmLoopback.deleteTree(dir);
+        }
+    }
+
+    /** Fetch {@code file} in a fresh JVM; returns the line reporting its time to first byte */
+    private static String run(List<String> share, List<String> get, Path out, Path file) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(share);
+        command.addAll(CLI_JVM_ARGS);
+        command.addAll(get);
+        command.addAll(List.of("--out", out.toString(), file.getFileName().toString()));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> lines = process.inputReader().lines().toList();
+        int exit = process.waitFor();
+        Path copy = out.resolve(file.getFileName());
+        if (exit != 0 || !Files.exists(copy) || Files.mismatch(file, copy) != -1) {
+            throw new IOException("Cli get failed (exit " + exit + "): " + String.join("\n", lines));
+        }
+        return lines.stream().filter(line -> line.startsWith("First byte")).findFirst().orElse("no first byte reported");
+    }
+
+    private static String option(List<String> args, String name, String fallback) {
+        int index = args.indexOf(name);
+        if (index < 0) return fallback;
+        args.remove(index);
+        return args.remove(index);
+    }
+}
@@ -0,0 +1,133 @@
+package org.example.benchmarks;
+
+import org.example.network.DeltaSync;
+import org.example.network.FileDownloader;
+import org.example.network.FileServer;
+import org.example.network.ServingEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * DeltaSyncBenchmark: compares a full download with a delta sync of a new version
+ * against an old local copy, over loopback. Each scenario edits a random file the
+ * way re-shared artifacts typically change and reports bytes on the wire and
+ * wall-clock time for both paths. Loopback hides the network, so the last two
+ * columns add the time those bytes would take on a link of the given speed.
+ */
+public class DeltaSyncBenchmark {
+
+    private interface Edit {
+        void apply(byte[] data, Random random, OutputStream out) throws IOException;
+    }
+
+    private record Scenario(String name, Edit edit) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sizeMiB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        double linkMbit = args.length > 1 ? Double.parseDouble(args[1]) : 100;
+        Path root = Files.createTempDirectory("byteshare-delta-bench");
+        Random random = new Random(42);
+
+        byte[] base = new byte[sizeMiB * 1024 * 1024];
+        random.nextBytes(base);
+
+        List<Scenario> scenarios = List.of(
+                new Scenario("unchanged", (data, r, out) -> out.write(data)),
+                new Scenario("overwrite-16x4KiB", (data, r, out) -> {
+                    byte[] copy = data.clone();
+                    for (int i = 0; i < 16; i++) {
+                        byte[] patch = new byte[4096];
+                        r.nextBytes(patch);
+                        System.arraycopy(patch, 0, copy, r.nextInt(copy.length - patch.length), patch.length);
+                    }
+                    out.write(copy);
+                }),
+                new Scenario("insert-8x1KiB", (data, r, out) -> {
+                    // Insertions shift everything after them: fixed-offset diffs would resend the tail
+                    int previous = 0;
+                    int step = data.length / 9;
+                    for (int i = 1; i <= 8; i++) {
+                        int at = i * step;
+                        out.write(data, previous, at - previous);
+                        byte[] insert = new byte[1024];
+                        r.nextBytes(insert);
+                        out.write(insert);
+                        previous = at;
+                    }
+                    out.write(data, previous, data.length - previous);
+                }),
+                new Scenario("append-1pct", (data, r, out) -> {
+                    out.write(data);
+                    byte[] tail = new byte[data.length / 100];
+                    r.nextBytes(tail);
+                    out.write(tail);
+                }),
+                new Scenario("rewrite-all", (data, r, out) -> {
+                    byte[] fresh = new byte[data.length];
+                    r.nextBytes(fresh);
+                    out.write(fresh);
+                }));
+
+        List<File> shared = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            Path file = root.resolve("new").resolve(scenario.name() + ".bin");
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(file)) {
+                scenario.edit().apply(base, random, out);
+            }
+            shared.add(file.toFile());
+        }
+
+        FileServer server = new FileServer(shared, ServingEngine.STANDARD);
+        server.start();
+        try {
+            FileDownloader downloader = new FileDownloader(server.getAccessUrl(), server.getPin());
+            System.out.printf("%-20s %12s %10s %12s %10s %8s %12s %12s%n",
+                    "scenario", "full bytes", "full ms", "delta bytes", "delta ms", "saved",
+                    "full@" + (int) linkMbit + "M", "delta@" + (int) linkMbit + "M");
+            for (Scenario scenario : scenarios) {
+                String name = scenario.name() + ".bin";
+                Path newFile = root.resolve("new").resolve(name);
+
+                Path fullDir = Files.createDirectories(root.resolve("full-" + scenario.name()));
+                long start = System.nanoTime();
+                Path full = downloader.download(name, fullDir);
+                double fullMs = (System.nanoTime() - start) / 1e6;
+                long fullBytes = Files.size(full);
+
+                Path deltaDir = Files.createDirectories(root.resolve("delta-" + scenario.name()));
+                Files.write(deltaDir.resolve(name), base);
+                start = System.nanoTime();
+                DeltaSync.Result result = downloader.syncDelta(name, deltaDir);
+                double deltaMs = (System.nanoTime() - start) / 1e6;
+                long deltaBytes = result.signatureBytes() + result.deltaBytes();
+
+                if (Files.mismatch(result.file(), newFile) != -1) {
+                    throw new IllegalStateException("Delta sync produced a different file for " + name);
+                }
+                double msPerByte = 8_000 / (linkMbit * 1e6);
+                System.out.printf("%-20s %12d %10.0f %12d %10.0f %7.1f%% %12.0f %12.0f%n",
+                        scenario.name(), fullBytes, fullMs, deltaBytes, deltaMs,
+                        100.0 * (fullBytes - deltaBytes) / fullBytes,
+                        fullMs + fullBytes * msPerByte, deltaMs + deltaBytes * msPerByte);
+            }
+        } finally {
+            server.stop();
+            deleteTree(root);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.benchmarks;
+
+import org.example.network.FileDownloader;
+import org.example.network.FileServer;
+import org.example.network.MulticastReceiver;
+import org.example.network.MulticastSender;
+import org.example.network.ShareCatalog;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MulticastLoopback: one sender and several receiver processes on one host,
+ * talking over loopback multicast. Half the receivers join late, so the first
+ * part of the file must come back through NACK repair; every copy is then
+ * compared with the original and the sender logs how many repairs went out by
+ * multicast and by unicast. Receivers are separate JVMs so each has its own
+ * sockets, as on separate laptops. The file is also shared over HTTP, where
+ * receivers fetch the manifest they check the broadcast against.
+ */
+public class MulticastLoopback {
+
+    private static final String GROUP = "239.255.42.98";
+    private static final int PORT = 60002;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("receive")) {
+            receive(Path.of(args[1]), args[2], args[3]);
+            return;
+        }
+        int sizeMiB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int receivers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long rateMbit = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        Path root = Files.createTempDirectory("byteshare-multicast");
+        Path source = root.resolve("payload.bin");
+        byte[] data = new byte[sizeMiB * 1024 * 1024];
+        new Random(7).nextBytes(data);
+        Files.write(source, data);
+
+        long passMs = data.length * 8L / (rateMbit * 1000);
+        int early = (receivers + 1) / 2;
+        List<Process> processes = new ArrayList<>();
+        FileServer server = new FileServer(List.of(source.toFile()));
+        server.start();
+        String serverUrl = "http://127.0.0.1:" + URI.create(server.getAccessUrl()).getPort();
+        try (MulticastSender sender = new MulticastSender(group(), NetworkInterface.getByName("lo"))) {
+            sender.setRate(rateMbit * 1_000_000);
+            for (int i = 0; i < early; i++) {
+                processes.add(spawn(Files.createDirectories(root.resolve("receiver-" + i)), serverUrl, server.getPin()));
+            }
+            Thread.sleep(1_000);
+
+            long start = System.nanoTime();
+            CompletableFuture<Void> sending = sender.send(new ShareCatalog(List.of(source.toFile())).entries().get(0));
+            // Late joiners miss roughly the first half of the pass
+            Thread.sleep(passMs / 2);
+            for (int i = early; i < receivers; i++) {
+                processes.add(spawn(Files.createDirectories(root.resolve("receiver-" + i)), serverUrl, server.getPin()));
+            }
+            sending.join();
+            System.out.printf("sent %d MiB to %d receivers in %.0f ms (first pass ~%d ms at %d Mbit/s)%n",
+                    sizeMiB, receivers, (System.nanoTime() - start) / 1e6, passMs, rateMbit);
+        }
+
+        int failures = 0;
+        for (int i = 0; i < receivers; i++) {
+            int exit = processes.get(i).waitFor();
+            Path copy = root.resolve("receiver-" + i).resolve("payload.bin");
+            boolean same = exit == 0 && Files.exists(copy) && Files.mismatch(copy, source) == -1;
+            System.out.println("receiver-" + i + ": " + (same ? "identical" : "FAILED (exit " + exit + ")"));
+            if (!same) failures++;
+        }
+        server.stop();
+        deleteTree(root);
+        if (failures > 0) System.exit(1);
+    }
+
+    private static InetSocketAddress group() throws IOException {
+        return new InetSocketAddress(InetAddress.getByName(GROUP), PORT);
+    }
+
+    private static Process spawn(Path dir, String serverUrl, String pin) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                MulticastLoopback.class.getName(), "receive", dir.toString(), serverUrl, pin)
+                .inheritIO()
+                .start();
+    }
+
+    private static void receive(Path dir, String serverUrl, String pin) throws IOException {
+        try (MulticastReceiver receiver = new MulticastReceiver(group(), NetworkInterface.getByName("lo"))) {
+            receiver.receive(new FileDownloader(serverUrl, pin), null, dir, 30_000);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.example.benchmarks;
+
+import org.example.Cli;
+import org.example.network.FileServer;
+import org.example.network.ManifestStore;
+import org.example.network.Metrics;
+import org.example.network.ServingEngine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SwarmLoopback: serve a file from this process and fetch it with several
+ * receiver processes ({@code Cli get}) at once: first each straight from the
+ * sender, then as a swarm where receivers also fetch from and seed to each
+ * other. The sender's uploads are capped at the given uplink; peers are not.
+ * Reports each round's aggregate throughput and how much the sender itself sent.
+ */
+public class SwarmLoopback {
+
+    public static void main(String[] args) throws Exception {
+        int receivers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long size = (args.length > 1 ? Long.parseLong(args[1]) : 128) * 1024 * 1024;
+        long uplink = (args.length > 2 ? Long.parseLong(args[2]) : 32) * 1024 * 1024;
+
+        Path dir = Files.createTempDirectory("byteshare-swarm");
+        try {
+            Path file = dir.resolve("payload.bin");
+            writeRandom(file, size);
+            ManifestStore manifests = new ManifestStore(dir.resolve("manifests"));
+            // Hashed before the clock starts, as a sender that has been sharing a while would have it
+            manifests.get(file.toFile(), size, file.toFile().lastModified()).join();
+
+            FileServer server = new FileServer(List.of(file.toFile()), ServingEngine.ZERO_COPY);
+            server.setManifestStore(manifests);
+            // Loopback has no real uplink; the sender's shaper stands in for one
+            server.getBandwidthManager().setGlobalLimit(uplink);
+            server.start();
+            try {
+                String serverUrl = "http://127.0.0.1:" + URI.create(server.getAccessUrl()).getPort();
+                System.out.println("Sender uplink capped at " + formatSize(uplink) + "/s");
+                round(serverUrl, server.getPin(), file, receivers, false, dir);
+                round(serverUrl, server.getPin(), file, receivers, true, dir);
+            } finally {
+                server.stop();
+                manifests.shutdown();
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Start every receiver, wait until all have the file, check the copies */
+    private static void round(String serverUrl, String pin, Path file, int receivers, boolean swarm, Path dir)
+            throws Exception {
+        String name = file.getFileName().toString();
+        String java = ProcessHandle.current().info().command().orElse("java");
+        long sentBefore = Metrics.shared().transferBytes("/download");
+        CountDownLatch done = new CountDownLatch(receivers);
+        AtomicInteger failed = new AtomicInteger();
+        long[] finishedAt = new long[receivers];
+        List<Process> processes = new ArrayList<>();
+        List<Path> copies = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < receivers; i++) {
+                Path out = dir.resolve((swarm ? "swarm-" : "direct-") + i);
+                List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                        Cli.class.getName(), "get", serverUrl, pin, "--out", out.toString()));
+                // Finished receivers keep seeding until the round is over
+                if (swarm) command.addAll(List.of("--swarm", "--seed", "3600"));
+                command.add(name);
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+                processes.add(process);
+                copies.add(out.resolve(name));
+
+                int receiver = i;
+                Thread.startVirtualThread(() -> {
+                    boolean finished = false;
+                    try (BufferedReader reader = process.inputReader()) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (!finished && line.startsWith("First byte after")) {
+                                finishedAt[receiver] = System.nanoTime();
+                                finished = true;
+                                done.countDown();
+                            }
+                        }
+                    } catch (IOException e) {
+                        // The process was stopped at the end of the round
+                    }
+                    if (!finished) {
+                        failed.incrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            for (Process process : processes) process.destroy();
+            for (Process process : processes) process.waitFor();
+        }
+        if (failed.get() > 0) throw new IOException(failed.get() + " of " + receivers + " receivers failed");
+        for (Path copy : copies) {
+            if (Files.mismatch(file, copy) != -1) throw new IOException("Received copy differs: " + copy);
+        }
+
+        long slowest = Arrays.stream(finishedAt).max().orElse(start) - start;
+        long fastest = Arrays.stream(finishedAt).min().orElse(start) - start;
+        long size = Files.size(file);
+        long sent = Metrics.shared().transferBytes("/download") - sentBefore;
+        System.out.printf("%s, %d receivers: all done in %.2f s (first %.2f s), %s/s aggregate;"
+                        + " sender sent %s (%.2fx the file)%n",
+                swarm ? "Swarm " : "Direct", receivers, slowest / 1e9, fastest / 1e9,
+                formatSize((long) (size * receivers * 1e9 / slowest)), formatSize(sent), sent / (double) size);
+    }
+
+    static void writeRandom(Path file, long size) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        Random random = new Random(size);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %sB", bytes / (double) (1L << (unit * 10)), " KMGTPE".charAt(unit));
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(path -> path.toFile().delete());
+        }
+    }
+}